@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Optional;
+
+/**
+ * Counting already-parsed lines into {@link LineDetailsAggregator}.  Each
+ * operation is one line.
+ */
+@State(Scope.Thread)
+public class AggregatorBenchmark {
+    static final int LINES = 10000;
+
+    /**
+     * Fewer lines per minute means the lines are spread over more minutes.
+     */
+    @Param({"1000", "10"})
+    public int linesPerMinute;
+
+    private long[] timestamps;
+    private StatusClass[] statuses;
+    private long[] bytes;
+    private long[] times;
+    private LineDetailsAggregator aggregator;
+
+    @Setup
+    public void setUp() {
+        timestamps = new long[LINES];
+        statuses = new StatusClass[LINES];
+        bytes = new long[LINES];
+        times = new long[LINES];
+        LogLineGenerator generator = new LogLineGenerator(LogLineGenerator.Mix.TYPICAL, linesPerMinute);
+        int parsed = 0;
+        while (parsed < LINES) {
+            Optional<LineDetails> line = LineDetails.parseLogLine(generator.next());
+            if (line.isPresent()) {
+                timestamps[parsed] = line.get().timestamp;
+                statuses[parsed] = line.get().status;
+                bytes[parsed] = line.get().bytesTransferred;
+                times[parsed] = line.get().timeTaken;
+                parsed++;
+            }
+        }
+    }
+
+    /*
+     * A fresh aggregator each iteration, so that we measure counting into
+     * minutes that exist rather than memory growing without bound.
+     */
+    @Setup(Level.Iteration)
+    public void newAggregator() {
+        aggregator = new LineDetailsAggregator();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public LineDetailsAggregator accept() {
+        for (int i = 0; i < LINES; i++) {
+            aggregator.accept(timestamps[i], statuses[i], bytes[i], times[i]);
+        }
+        return aggregator;
+    }
+}
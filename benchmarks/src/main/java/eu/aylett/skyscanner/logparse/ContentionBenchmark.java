@@ -0,0 +1,128 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Optional;
+
+/**
+ * Many threads counting already-parsed lines into one aggregator: a
+ * {@link ConcurrentLineDetailsAggregator}, a {@link LineDetailsAggregator}
+ * behind a lock, or, as the best case, a {@link LineDetailsAggregator} for
+ * each thread.  Each operation is one line; run with JMH's {@code -t} to
+ * choose the number of threads, for example {@code ContentionBenchmark -t 8}.
+ */
+public class ContentionBenchmark {
+    static final int LINES = 10000;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        ConcurrentLineDetailsAggregator concurrent;
+        LineDetailsAggregator locked;
+
+        /*
+         * Fresh aggregators each iteration, as in AggregatorBenchmark.
+         */
+        @Setup(Level.Iteration)
+        public void newAggregators() {
+            concurrent = new ConcurrentLineDetailsAggregator();
+            locked = new LineDetailsAggregator();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Lines {
+        /**
+         * Fewer lines per minute means the lines are spread over more minutes.
+         */
+        @Param({"1000", "10"})
+        public int linesPerMinute;
+
+        long[] timestamps;
+        int[] statuses;
+        long[] bytes;
+        long[] times;
+        LineDetailsAggregator own;
+
+        @Setup
+        public void setUp() {
+            timestamps = new long[LINES];
+            statuses = new int[LINES];
+            bytes = new long[LINES];
+            times = new long[LINES];
+            LogLineGenerator generator = new LogLineGenerator(LogLineGenerator.Mix.TYPICAL, linesPerMinute);
+            int parsed = 0;
+            while (parsed < LINES) {
+                Optional<LineDetails> line = LineDetails.parseLogLine(generator.next());
+                if (line.isPresent()) {
+                    timestamps[parsed] = line.get().timestamp;
+                    statuses[parsed] = line.get().status == StatusClass.SUCCESS ? 200 : 500;
+                    bytes[parsed] = line.get().bytesTransferred;
+                    times[parsed] = line.get().timeTaken;
+                    parsed++;
+                }
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void newAggregator() {
+            own = new LineDetailsAggregator();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public ConcurrentLineDetailsAggregator concurrent(Shared shared, Lines lines) {
+        ConcurrentLineDetailsAggregator aggregator = shared.concurrent;
+        for (int i = 0; i < LINES; i++) {
+            aggregator.acceptRequest(lines.timestamps[i], lines.statuses[i], lines.bytes[i], lines.times[i],
+                    i, null, 0, 0);
+        }
+        return aggregator;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public LineDetailsAggregator locked(Shared shared, Lines lines) {
+        LineDetailsAggregator aggregator = shared.locked;
+        for (int i = 0; i < LINES; i++) {
+            synchronized (aggregator) {
+                aggregator.acceptRequest(lines.timestamps[i], lines.statuses[i], lines.bytes[i], lines.times[i],
+                        i, null, 0, 0);
+            }
+        }
+        return aggregator;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public LineDetailsAggregator perThread(Lines lines) {
+        LineDetailsAggregator aggregator = lines.own;
+        for (int i = 0; i < LINES; i++) {
+            aggregator.acceptRequest(lines.timestamps[i], lines.statuses[i], lines.bytes[i], lines.times[i],
+                    i, null, 0, 0);
+        }
+        return aggregator;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * A whole {@link LogParse#run} over a generated file, writing the YAML to
+ * nowhere.  Each operation is one line.
+ */
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+    static final int LINES = 200000;
+
+    @Param
+    public LogLineGenerator.Mix mix;
+
+    @Param({"true", "false"})
+    public boolean mmap;
+
+    @Param({"1"})
+    public int threads;
+
+    private Path file;
+    private PrintStream out;
+    private final JsonFactory factory = new YAMLFactory();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("logparse-benchmark", ".log");
+        new LogLineGenerator(mix, 1000).write(file, LINES);
+        out = System.out;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(out);
+        Files.delete(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void run() throws IOException {
+        // LogParse closes System.out when it's done with it.
+        System.setOut(new PrintStream(ByteStreams.nullOutputStream()));
+        LogParseOptions options = new LogParseOptions();
+        options.threads = threads;
+        LogInput input = mmap ? new MappedLogInput(file) : new StreamLogInput(Files.newInputStream(file));
+        new LogParse(options, Collections.singletonList(input), factory).run();
+    }
+}
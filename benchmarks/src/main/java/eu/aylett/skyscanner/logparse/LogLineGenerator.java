@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+import com.google.common.base.Strings;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Makes up access log lines for the benchmarks.  The same mix and seed always
+ * give the same lines.
+ */
+public class LogLineGenerator {
+    /**
+     * The kinds of log we benchmark against.  Each gives the chance of a line
+     * being a failure, having {@code -} for its bytes, having a long request,
+     * or being malformed.
+     */
+    public enum Mix {
+        TYPICAL(0.05, 0.02, 0.01, 0.001),
+        FAILURES(0.5, 0.02, 0.01, 0.001),
+        DASHES(0.05, 0.5, 0.01, 0.001),
+        LONG_REQUESTS(0.05, 0.02, 0.5, 0.001),
+        MALFORMED(0.05, 0.02, 0.01, 0.2);
+
+        final double failures;
+        final double dashes;
+        final double longRequests;
+        final double malformed;
+
+        Mix(double failures, double dashes, double longRequests, double malformed) {
+            this.failures = failures;
+            this.dashes = dashes;
+            this.longRequests = longRequests;
+            this.malformed = malformed;
+        }
+    }
+
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun",
+            "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+    private static final String LONG_QUERY = Strings.repeat("&filter=abcdefghijklmnopqrstuvwxyz", 60);
+
+    private final Mix mix;
+    private final int linesPerMinute;
+    private final Random random = new Random(1);
+    private long line = 0;
+
+    /**
+     * @param linesPerMinute how quickly the timestamps move on
+     */
+    public LogLineGenerator(Mix mix, int linesPerMinute) {
+        this.mix = mix;
+        this.linesPerMinute = linesPerMinute;
+    }
+
+    public String next() {
+        long second = 60 * line / linesPerMinute;
+        line++;
+        if (random.nextDouble() < mix.malformed) {
+            return random.nextBoolean() ? "garbage " + random.nextInt()
+                    : "127.0.0.1 - - [" + timestamp(second) + "] \"GET / HTTP/1.1\" 200";
+        }
+
+        StringBuilder builder = new StringBuilder(160);
+        builder.append("10.").append(random.nextInt(256)).append('.').append(random.nextInt(256)).append('.')
+                .append(random.nextInt(256)).append(" - - [").append(timestamp(second)).append("] \"GET /search?q=")
+                .append(random.nextInt(100000));
+        if (random.nextDouble() < mix.longRequests) {
+            builder.append(LONG_QUERY);
+        }
+        builder.append(" HTTP/1.1\" ").append(random.nextDouble() < mix.failures ? 500 : 200).append(' ');
+        if (random.nextDouble() < mix.dashes) {
+            builder.append('-');
+        } else {
+            builder.append(random.nextInt(100000));
+        }
+        builder.append(' ').append(random.nextInt(500000));
+        return builder.toString();
+    }
+
+    public String[] lines(int count) {
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = next();
+        }
+        return lines;
+    }
+
+    public void write(Path path, int count) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(next());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /*
+     * Starting from midnight on the 26th of May 2015, a day per month.
+     */
+    private static String timestamp(long second) {
+        long minute = second / 60;
+        long hour = minute / 60;
+        long day = hour / 24;
+        return String.format("%02d/%s/2015:%02d:%02d:%02d +0100", 26 - day % 26, MONTHS[(int) (4 + day / 26) % 12],
+                hour % 24, minute % 60, second % 60);
+    }
+}
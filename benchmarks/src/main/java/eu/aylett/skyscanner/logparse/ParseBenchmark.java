@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Parsing a line, both from a {@link String} and from bytes in place, with
+ * the hand-written parser and with the default {@link LogFormat} compiled
+ * into a plan.  Each operation is one line.
+ */
+@State(Scope.Thread)
+public class ParseBenchmark {
+    static final int LINES = 10000;
+
+    @Param
+    public LogLineGenerator.Mix mix;
+
+    private String[] lines;
+    private ByteBuffer buffer;
+    private int[] starts;
+    private int[] ends;
+    private final LogLineParser parser = new LogLineParser();
+    private final FormatLineParser compiledParser =
+            new FormatLineParser(LogFormat.DEFAULT, new ParseStats(), new FailureSampler());
+
+    @Setup
+    public void setUp() {
+        lines = new LogLineGenerator(mix, 1000).lines(LINES);
+        starts = new int[LINES];
+        ends = new int[LINES];
+        byte[][] bytes = new byte[LINES][];
+        int total = 0;
+        for (int i = 0; i < LINES; i++) {
+            bytes[i] = lines[i].getBytes(StandardCharsets.UTF_8);
+            total += bytes[i].length + 1;
+        }
+        buffer = ByteBuffer.allocate(total);
+        for (int i = 0; i < LINES; i++) {
+            starts[i] = buffer.position();
+            buffer.put(bytes[i]);
+            ends[i] = buffer.position();
+            buffer.put((byte) '\n');
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parseLogLine(Blackhole blackhole) {
+        for (String line : lines) {
+            Optional<LineDetails> details = LineDetails.parseLogLine(line);
+            blackhole.consume(details);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parseBytes(Blackhole blackhole) {
+        LineDetailsConsumer consumer = (timestamp, status, bytesTransferred, timeTaken) -> {
+            blackhole.consume(timestamp);
+            blackhole.consume(timeTaken);
+        };
+        for (int i = 0; i < LINES; i++) {
+            blackhole.consume(parser.parse(buffer, starts[i], ends[i], consumer));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void parseBytesCompiled(Blackhole blackhole) {
+        LineDetailsConsumer consumer = (timestamp, status, bytesTransferred, timeTaken) -> {
+            blackhole.consume(timestamp);
+            blackhole.consume(timeTaken);
+        };
+        for (int i = 0; i < LINES; i++) {
+            blackhole.consume(compiledParser.parse(buffer, starts[i], ends[i], consumer));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Rolling every minute up into a {@link LogGlobalAggregator}.  Each operation
+ * is a whole roll-up; divide by the number of minutes for a per-minute cost.
+ */
+@State(Scope.Thread)
+public class RollupBenchmark {
+    @Param({"60", "1440", "10080"})
+    public int minutes;
+
+    private final LineDetailsAggregator aggregator = new LineDetailsAggregator();
+
+    @Setup
+    public void setUp() {
+        LogLineGenerator generator = new LogLineGenerator(LogLineGenerator.Mix.TYPICAL, 20);
+        for (int i = 0; i < minutes * 20; i++) {
+            LineDetails.parseLogLine(generator.next()).ifPresent(aggregator);
+        }
+    }
+
+    @Benchmark
+    public LogGlobalAggregator aggregate() {
+        return aggregator.aggregate();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splitting a buffer of lines at each newline, a byte at a time and with
+ * {@link ByteScanner}, in a heap buffer as streams are read into and a
+ * direct one like a mapped file.  Each operation is one line.
+ */
+@State(Scope.Thread)
+public class ScanBenchmark {
+    static final int LINES = 10000;
+
+    @Param
+    public LogLineGenerator.Mix mix;
+
+    @Param({"true", "false"})
+    public boolean direct;
+
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        byte[] bytes = (String.join("\n", new LogLineGenerator(mix, 1000).lines(LINES)) + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+        buffer = direct ? ByteBuffer.allocateDirect(bytes.length) : ByteBuffer.allocate(bytes.length);
+        buffer.put(bytes);
+        buffer.clear();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void byteAtATime(Blackhole blackhole) {
+        int lineStart = 0;
+        int limit = buffer.limit();
+        for (int i = 0; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                blackhole.consume(i - lineStart);
+                lineStart = i + 1;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void byteScanner(Blackhole blackhole) {
+        int lineStart = 0;
+        int limit = buffer.limit();
+        int newline;
+        while ((newline = ByteScanner.indexOf(buffer, lineStart, limit, (byte) '\n')) >= 0) {
+            blackhole.consume(newline - lineStart);
+            lineStart = newline + 1;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package eu.aylett.skyscanner.logparse;
+
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The first and only {@link LogParse#run} in a fresh JVM, over a generated
+ * file of about a megabyte, as a cron job would run it.  Each fork times one
+ * run, so this is mostly class loading, setting up and interpreted code; pass
+ * JVM options like {@code -XX:SharedArchiveFile} with {@code -jvmArgsAppend}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(20)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+public class StartupBenchmark {
+    static final int LINES = 12000;
+
+    private Path file;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("logparse-benchmark", ".log");
+        new LogLineGenerator(LogLineGenerator.Mix.TYPICAL, 1000).write(file, LINES);
+        out = System.out;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(out);
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public void run() throws IOException {
+        // LogParse closes System.out when it's done with it.
+        System.setOut(new PrintStream(ByteStreams.nullOutputStream()));
+        LogParseOptions options = new LogParseOptions();
+        LogInput input = new MappedLogInput(file);
+        new LogParse(options, Collections.singletonList(input), OutputFormat.YAML.factory()).run();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Checks {@link AlertRule}s against each minute as it's closed, writing a
+ * JSON object per line when a rule starts or stops firing.
+ *
+ * Each rule keeps its window in a ring buffer of the last few minutes'
+ * counters, along with their running totals: the minute leaving the window is
+ * taken off and the new one added, so a rule costs the same to check however
+ * long its window, and its memory is fixed when it's made.  Minutes with no
+ * lines still pass through the windows, as zeroes.
+ */
+public class AlertEvaluator implements Closeable, Flushable {
+    private static final int COUNT = 0;
+    private static final int SUCCESSFUL = 1;
+    private static final int FAILURES = 2;
+    private static final int BYTES = 3;
+    private static final int TIME = 4;
+    private static final int FIELDS = 5;
+    private static final long[] EMPTY = new long[FIELDS];
+
+    /*
+     * A rule, with its window and moving average so far.
+     */
+    private static class RuleState {
+        final AlertRule rule;
+        // The window's minutes, FIELDS counters each, oldest at next.
+        final long[] ring;
+        final long[] totals = new long[FIELDS];
+        int next = 0;
+        final double alpha;
+        double average = 0;
+        long averaged = 0;
+        boolean firing = false;
+
+        RuleState(AlertRule rule) {
+            this.rule = rule;
+            this.ring = new long[rule.getWindow() * FIELDS];
+            this.alpha = rule.getRelativeTo() == null ? 0 : 2.0 / (rule.getRelativeTo() + 1);
+        }
+
+        /**
+         * Moves the window on to take in the minute.
+         *
+         * @return the metric over the window.
+         */
+        double slide(long[] counters) {
+            int slot = next * FIELDS;
+            for (int i = 0; i < FIELDS; i++) {
+                totals[i] += counters[i] - ring[slot + i];
+                ring[slot + i] = counters[i];
+            }
+            next = next + 1 == rule.getWindow() ? 0 : next + 1;
+            return rule.getMetric().of(totals[COUNT], totals[SUCCESSFUL], totals[FAILURES], totals[BYTES],
+                    totals[TIME]);
+        }
+    }
+
+    private final List<RuleState> rules = newArrayList();
+    private final JsonGenerator generator;
+    // The next minute we expect, or MIN_VALUE before the first.
+    private long nextMinute = Long.MIN_VALUE;
+    private long alerts = 0;
+
+    /**
+     * @param out where the alerts go; it's closed along with this
+     */
+    public AlertEvaluator(List<AlertRule> rules, Writer out) throws IOException {
+        for (AlertRule rule : rules) {
+            this.rules.add(new RuleState(rule));
+        }
+        this.generator = new JsonFactory().createGenerator(out);
+        this.generator.setPrettyPrinter(new MinimalPrettyPrinter(""));
+    }
+
+    /**
+     * Checks the rules with a minute just closed, and any with no lines
+     * since the one before.  Minutes must be passed in time order.
+     */
+    public void minute(LogMinuteAggregator minute) throws IOException {
+        Preconditions.checkArgument(minute.getResolution().equals(Resolution.MINUTE), "Alerts are only for minutes");
+        Preconditions.checkArgument(minute.getMinute() >= nextMinute, "Minutes must be in time order");
+        advanceTo(minute.getMinute());
+        long[] counters = new long[FIELDS];
+        counters[COUNT] = minute.getCount();
+        counters[SUCCESSFUL] = minute.getSuccessful();
+        counters[FAILURES] = minute.getFailures();
+        counters[BYTES] = minute.getBytes();
+        counters[TIME] = minute.getTime();
+        evaluate(minute.getMinute(), counters);
+        nextMinute = minute.getMinute() + 1;
+        generator.flush();
+    }
+
+    /**
+     * Checks the rules with every minute before the given one that hasn't
+     * been, as having no lines.  Used when the log goes quiet, so a drop in
+     * requests is noticed without waiting for the next line.
+     *
+     * @param minute minutes since the epoch
+     */
+    public void advanceTo(long minute) throws IOException {
+        if (nextMinute == Long.MIN_VALUE) {
+            // Nothing's been seen yet, so there's nothing to have dropped.
+            return;
+        }
+        for (; nextMinute < minute; nextMinute++) {
+            evaluate(nextMinute, EMPTY);
+        }
+        generator.flush();
+    }
+
+    private void evaluate(long minute, long[] counters) throws IOException {
+        for (RuleState state : rules) {
+            AlertRule rule = state.rule;
+            double value = state.slide(counters);
+            if (Double.isNaN(value)) {
+                // A rate or mean over no requests says nothing either way.
+                continue;
+            }
+
+            Double average = null;
+            double scale = 1;
+            if (rule.getRelativeTo() != null) {
+                boolean warm = state.averaged >= rule.getRelativeTo();
+                average = state.average;
+                scale = state.average;
+                state.average = state.averaged == 0 ? value : state.average + state.alpha * (value - state.average);
+                state.averaged++;
+                if (!warm) {
+                    continue;
+                }
+            }
+
+            Double threshold = null;
+            boolean firing = false;
+            if (rule.getAbove() != null && value > rule.getAbove() * scale) {
+                firing = true;
+                threshold = rule.getAbove() * scale;
+            } else if (rule.getBelow() != null && value < rule.getBelow() * scale) {
+                firing = true;
+                threshold = rule.getBelow() * scale;
+            }
+            if (firing != state.firing) {
+                state.firing = firing;
+                alerts++;
+                writeAlert(rule, firing, minute, value, threshold, average);
+            }
+        }
+    }
+
+    private void writeAlert(AlertRule rule, boolean firing, long minute, double value, Double threshold,
+                            Double average) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("alert", rule.getName());
+        generator.writeStringField("state", firing ? "firing" : "resolved");
+        generator.writeStringField("minute", Timestamps.format(minute * 60000));
+        generator.writeStringField("metric", rule.getMetric().toString());
+        generator.writeNumberField("window", rule.getWindow());
+        generator.writeNumberField("value", value);
+        if (threshold != null) {
+            generator.writeNumberField("threshold", threshold);
+        }
+        if (average != null) {
+            generator.writeNumberField("average", average);
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    /**
+     * @return how many times rules have started or stopped firing.
+     */
+    public long getAlerts() {
+        return alerts;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        generator.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+}
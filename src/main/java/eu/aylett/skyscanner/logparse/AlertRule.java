@@ -0,0 +1,219 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.base.MoreObjects;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * A rule for {@link AlertEvaluator}: a metric, added up over a window of the
+ * last few minutes, that shouldn't go above or below a threshold.
+ *
+ * With {@code relativeTo}, the thresholds are multiples of an exponentially
+ * weighted moving average of the same metric over about that many minutes,
+ * instead of fixed values.
+ */
+public class AlertRule {
+    /**
+     * The longest window we'll keep, a week of minutes.
+     */
+    static final int MAX_WINDOW = 7 * 24 * 60;
+
+    /**
+     * What a rule looks at.  Rates and means are over every line in the
+     * window, not averages of each minute's.
+     */
+    public enum Metric {
+        REQUESTS("requests"),
+        SUCCESSFUL("successful"),
+        FAILURES("failures"),
+        FAILURE_RATE("failureRate"),
+        MEAN_RESPONSE_TIME("meanResponseTime"),
+        MB_SENT("mbSent");
+
+        private final String name;
+
+        Metric(String name) {
+            this.name = name;
+        }
+
+        @JsonCreator
+        public static Metric named(String name) {
+            for (Metric metric : values()) {
+                if (metric.name.equals(name)) {
+                    return metric;
+                }
+            }
+            throw new IllegalArgumentException("Unknown metric \"" + name + "\"; use requests, successful, "
+                    + "failures, failureRate, meanResponseTime or mbSent");
+        }
+
+        /**
+         * @return the metric's value for the given totals, or NaN for a rate
+         * or mean with no requests.
+         */
+        double of(long count, long successful, long failures, long bytes, long time) {
+            switch (this) {
+                case REQUESTS:
+                    return count;
+                case SUCCESSFUL:
+                    return successful;
+                case FAILURES:
+                    return failures;
+                case FAILURE_RATE:
+                    return count == 0 ? Double.NaN : (double) failures / count;
+                case MEAN_RESPONSE_TIME:
+                    return count == 0 ? Double.NaN : (double) time / count;
+                case MB_SENT:
+                    return (double) bytes / (1024 * 1024);
+                default:
+                    throw new IllegalStateException("Switch should have been exhaustive");
+            }
+        }
+
+        @JsonValue
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /*
+     * The shape of the rules file.
+     */
+    private static class RulesFile {
+        @JsonProperty
+        List<AlertRule> rules = newArrayList();
+    }
+
+    private final String name;
+    private final Metric metric;
+    private final int window;
+    private final Double above;
+    private final Double below;
+    private final Integer relativeTo;
+
+    /**
+     * @param window how many minutes to add the metric up over, the one just
+     *               closed and those before it; one if null
+     * @param above alert when the metric goes over this, if not null
+     * @param below alert when the metric goes under this, if not null
+     * @param relativeTo if not null, compare with this many minutes'
+     *                   moving average times the thresholds
+     * @throws IllegalArgumentException if the rule doesn't make sense
+     */
+    @JsonCreator
+    public AlertRule(@JsonProperty("name") String name, @JsonProperty("metric") Metric metric,
+                     @JsonProperty("window") Integer window, @JsonProperty("above") Double above,
+                     @JsonProperty("below") Double below, @JsonProperty("relativeTo") Integer relativeTo) {
+        if (name == null || metric == null) {
+            throw new IllegalArgumentException("Every rule needs a name and a metric");
+        }
+        if (above == null && below == null) {
+            throw new IllegalArgumentException("Rule \"" + name + "\" needs a threshold to be above or below");
+        }
+        if (window != null && (window < 1 || window > MAX_WINDOW)) {
+            throw new IllegalArgumentException("Rule \"" + name + "\" needs a window from 1 to " + MAX_WINDOW
+                    + " minutes, not " + window);
+        }
+        if (relativeTo != null && (relativeTo < 1 || relativeTo > MAX_WINDOW)) {
+            throw new IllegalArgumentException("Rule \"" + name + "\" needs relativeTo from 1 to " + MAX_WINDOW
+                    + " minutes, not " + relativeTo);
+        }
+        this.name = name;
+        this.metric = metric;
+        this.window = window == null ? 1 : window;
+        this.above = above;
+        this.below = below;
+        this.relativeTo = relativeTo;
+    }
+
+    /**
+     * Reads rules from a YAML file holding a list of them under
+     * {@code rules}.
+     *
+     * @throws IOException if the file can't be read, or the rules don't make
+     * sense.
+     */
+    public static List<AlertRule> load(Path path) throws IOException {
+        ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+        RulesFile file = mapper.readValue(path.toFile(), RulesFile.class);
+        if (file == null || file.rules.isEmpty()) {
+            throw new IOException(path + " has no rules");
+        }
+        return file.rules;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Metric getMetric() {
+        return metric;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * @return the upper threshold, or a multiple of the moving average with
+     * {@link #getRelativeTo}, or null if there isn't one.
+     */
+    public Double getAbove() {
+        return above;
+    }
+
+    /**
+     * @return the lower threshold, or a multiple of the moving average with
+     * {@link #getRelativeTo}, or null if there isn't one.
+     */
+    public Double getBelow() {
+        return below;
+    }
+
+    /**
+     * @return how many minutes the moving average is over, or null if the
+     * thresholds are fixed.
+     */
+    public Integer getRelativeTo() {
+        return relativeTo;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .omitNullValues()
+                .add("name", name)
+                .add("metric", metric)
+                .add("window", window)
+                .add("above", above)
+                .add("below", below)
+                .add("relativeTo", relativeTo)
+                .toString();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Breaks a minute's requests, or the whole log's, down by exact status code
+ * and by path.  Every status code is counted exactly, in an array indexed by
+ * the code; paths are unbounded, so only the busiest are kept, in
+ * {@link TopPaths}.
+ */
+@JsonPropertyOrder({"statusCodes", "topPaths"})
+public class Breakdown {
+    private static final int STATUS_CODES = 1000;
+
+    private final long[] statusCodes = new long[STATUS_CODES];
+    private final TopPaths paths;
+
+    /**
+     * @param topPaths how many paths to keep track of
+     */
+    public Breakdown(int topPaths) {
+        paths = new TopPaths(topPaths);
+    }
+
+    /**
+     * @param requestStart where the request ({@code %r}) starts, including
+     *                     any quotes
+     * @param requestEnd where it ends (exclusive)
+     */
+    public void add(int statusCode, ByteBuffer buffer, int requestStart, int requestEnd,
+                    long bytesTransferred, long timeTaken) {
+        statusCodes[statusCode]++;
+        int start = pathStart(buffer, requestStart, requestEnd);
+        paths.add(buffer, start, pathEnd(buffer, start, requestEnd), bytesTransferred, timeTaken);
+    }
+
+    public void merge(Breakdown other) {
+        for (int i = 0; i < STATUS_CODES; i++) {
+            statusCodes[i] += other.statusCodes[i];
+        }
+        paths.merge(other.paths);
+    }
+
+    /**
+     * @return how many requests got each status code, for the codes that
+     * turned up, in order.
+     */
+    @JsonProperty
+    public Map<String, Long> getStatusCodes() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < STATUS_CODES; i++) {
+            if (statusCodes[i] != 0) {
+                result.put(String.format("%03d", i), statusCodes[i]);
+            }
+        }
+        return result;
+    }
+
+    @JsonProperty
+    public List<TopPaths.PathCount> getTopPaths() {
+        return paths.getPaths();
+    }
+
+    /**
+     * Writes the breakdown as an object, as Jackson would from the
+     * annotations.
+     */
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeObjectFieldStart("statusCodes");
+        for (Map.Entry<String, Long> code : getStatusCodes().entrySet()) {
+            generator.writeNumberField(code.getKey(), code.getValue());
+        }
+        generator.writeEndObject();
+        generator.writeArrayFieldStart("topPaths");
+        for (TopPaths.PathCount path : getTopPaths()) {
+            path.writeTo(generator);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    int getTopPathsCapacity() {
+        return paths.getCapacity();
+    }
+
+    /**
+     * The path is the second word of the request, as in
+     * {@code "GET /path?query HTTP/1.1"}.  A request with only one word,
+     * like {@code "-"}, is all path.
+     *
+     * @return where the path starts.
+     */
+    static int pathStart(ByteBuffer buffer, int start, int end) {
+        if (end - start >= 2 && buffer.get(start) == '"' && buffer.get(end - 1) == '"') {
+            start++;
+            end--;
+        }
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == ' ') {
+                while (i < end && buffer.get(i) == ' ') {
+                    i++;
+                }
+                return i;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * @return where the path that starts at {@code start} ends: at a space,
+     * the start of a query string or fragment, or the closing quote.
+     */
+    static int pathEnd(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == ' ' || b == '?' || b == '#' || b == '"') {
+                return i;
+            }
+        }
+        return end;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds bytes in a buffer eight at a time, by reading a long and testing
+ * all its bytes at once, falling back to a byte at a time for the last few.
+ *
+ * XOR-ing a word with the byte we want repeated eight times turns each byte
+ * that matches into zero.  The zero bytes are then found exactly, rather
+ * than with the usual subtract-and-mask trick, whose borrows can mark a byte
+ * before a real zero in big-endian order.  Buffers are read in their own
+ * byte order, so each word is turned round to big-endian order first, where
+ * the first byte in the buffer is the most significant and the leading
+ * zeros count the bytes before a match.
+ */
+public final class ByteScanner {
+    private static final long ONES = 0x0101010101010101L;
+    private static final long LOW_SEVEN_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+    private ByteScanner() {
+    }
+
+    /**
+     * @return where the byte first appears between {@code from} and
+     * {@code to}, or -1 if it doesn't.
+     */
+    public static int indexOf(ByteBuffer buffer, int from, int to, byte target) {
+        long pattern = (target & 0xffL) * ONES;
+        boolean swap = buffer.order() != ByteOrder.BIG_ENDIAN;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = buffer.getLong(i);
+            long zeros = zeroBytes((swap ? Long.reverseBytes(word) : word) ^ pattern);
+            if (zeros != 0) {
+                return i + (Long.numberOfLeadingZeros(zeros) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (buffer.get(i) == target) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return where either byte first appears between {@code from} and
+     * {@code to}, or -1 if neither does.
+     */
+    public static int indexOfEither(ByteBuffer buffer, int from, int to, byte first, byte second) {
+        long firstPattern = (first & 0xffL) * ONES;
+        long secondPattern = (second & 0xffL) * ONES;
+        boolean swap = buffer.order() != ByteOrder.BIG_ENDIAN;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = buffer.getLong(i);
+            if (swap) {
+                word = Long.reverseBytes(word);
+            }
+            long zeros = zeroBytes(word ^ firstPattern) | zeroBytes(word ^ secondPattern);
+            if (zeros != 0) {
+                return i + (Long.numberOfLeadingZeros(zeros) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b == first || b == second) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the word with the top bit of each zero byte set, and every
+     * other bit clear.
+     */
+    private static long zeroBytes(long word) {
+        long low = (word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS;
+        return ~(low | word | LOW_SEVEN_BITS);
+    }
+}
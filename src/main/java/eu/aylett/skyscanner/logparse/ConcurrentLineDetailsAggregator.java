@@ -0,0 +1,361 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A {@link LineDetailsConsumer} that any number of threads can feed at once,
+ * with exactly the same totals as a {@link LineDetailsAggregator} fed the
+ * same lines.
+ *
+ * Like {@link java.util.concurrent.atomic.LongAdder}, each minute's counters
+ * are split into stripes, and each thread adds to the stripe picked by its
+ * id, so threads don't fight over one cache line.  A stripe is only
+ * allocated once a thread first uses it, and holds the same counters,
+ * histogram and client registers as a {@link MinuteStore} minute, updated
+ * atomically in case two threads share it.
+ *
+ * Minutes are found without locking: recent ones through a small array
+ * indexed by the minute, and others through a
+ * {@link ConcurrentSkipListMap}, which also lets a range of minutes be read
+ * while lines are still being added.  Breakdowns by path aren't supported.
+ *
+ * Range queries don't read the stripes every time.  Each minute keeps the
+ * {@link LogMinuteAggregator} it was last read into, and each aligned block
+ * of {@link #BLOCK} minutes the {@link LogGlobalAggregator} over them, both
+ * reused for as long as no more lines have been counted in them.  A line's
+ * count is added last, so a minute whose counts haven't moved hasn't
+ * changed.  An aggregate over a day then merges a few dozen blocks, and the
+ * minutes at either end, rather than every stripe of every minute.
+ */
+public class ConcurrentLineDetailsAggregator implements LineDetailsConsumer {
+    static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+    private static final int RECENT = 64;
+    static final int BLOCK = 32;
+
+    private final ConcurrentSkipListMap<Long, Minute> minutes = new ConcurrentSkipListMap<>();
+    private final AtomicReferenceArray<Minute> recent = new AtomicReferenceArray<>(RECENT);
+    private final AtomicLong latestMinute = new AtomicLong(Long.MIN_VALUE);
+    private final ConcurrentSkipListMap<Long, Block> blocks = new ConcurrentSkipListMap<>();
+
+    /*
+     * One minute's stripes.
+     */
+    private static class Minute {
+        final long minute;
+        final AtomicReferenceArray<Stripe> stripes = new AtomicReferenceArray<>(STRIPES);
+        // What queries last read, and the count it was read at.
+        volatile Snapshot<LogMinuteAggregator> snapshot;
+
+        Minute(long minute) {
+            this.minute = minute;
+        }
+
+        /*
+         * Lines counted so far, which only moves once a line's been added to
+         * everything else.
+         */
+        long count() {
+            long count = 0;
+            for (int s = 0; s < STRIPES; s++) {
+                Stripe stripe = stripes.get(s);
+                if (stripe != null) {
+                    count += stripe.counters.get(MinuteStore.COUNT);
+                }
+            }
+            return count;
+        }
+
+        Stripe stripe() {
+            int index = stripeIndex();
+            Stripe stripe = stripes.get(index);
+            if (stripe == null) {
+                stripes.compareAndSet(index, null, new Stripe());
+                stripe = stripes.get(index);
+            }
+            return stripe;
+        }
+    }
+
+    /*
+     * A block's aggregate, and the number and total count of its minutes
+     * when it was made.
+     */
+    private static class Block {
+        volatile Snapshot<LogGlobalAggregator> snapshot;
+    }
+
+    private static class Snapshot<T> {
+        final T value;
+        final Percentiles percentiles;
+        final long minutes;
+        final long count;
+
+        Snapshot(T value, Percentiles percentiles, long minutes, long count) {
+            this.value = value;
+            this.percentiles = percentiles;
+            this.minutes = minutes;
+            this.count = count;
+        }
+
+        boolean isCurrent(Percentiles percentiles, long minutes, long count) {
+            return this.percentiles == percentiles && this.minutes == minutes && this.count == count;
+        }
+    }
+
+    /*
+     * Counters laid out as in MinuteStore, and client registers packed four
+     * to an int.
+     */
+    private static class Stripe {
+        final AtomicLongArray counters = new AtomicLongArray(MinuteStore.FIELDS);
+        final AtomicIntegerArray histogram = new AtomicIntegerArray(LatencyHistogram.BUCKETS);
+        final AtomicIntegerArray clients = new AtomicIntegerArray(HyperLogLog.REGISTERS / 4);
+    }
+
+    @Override
+    public void accept(long timestamp, StatusClass status, long bytesTransferred, long timeTaken) {
+        add(timestamp, status, bytesTransferred, timeTaken).counters.getAndIncrement(MinuteStore.COUNT);
+    }
+
+    @Override
+    public void acceptRequest(long timestamp, int statusCode, long bytesTransferred, long timeTaken,
+                              long clientHash, ByteBuffer buffer, int requestStart, int requestEnd) {
+        Stripe stripe = add(timestamp, StatusClass.of(statusCode), bytesTransferred, timeTaken);
+        int register = (int) (clientHash >>> (64 - HyperLogLog.PRECISION));
+        int rank = HyperLogLog.rank(clientHash);
+        int shift = (register & 3) * 8;
+        int index = register >>> 2;
+        while (true) {
+            int packed = stripe.clients.get(index);
+            if (((packed >>> shift) & 0xff) >= rank) {
+                break;
+            }
+            int updated = (packed & ~(0xff << shift)) | (rank << shift);
+            if (stripe.clients.compareAndSet(index, packed, updated)) {
+                break;
+            }
+        }
+        stripe.counters.getAndIncrement(MinuteStore.COUNT);
+    }
+
+    /*
+     * Adds everything but the count, which the caller adds last.
+     */
+    private Stripe add(long timestamp, StatusClass status, long bytesTransferred, long timeTaken) {
+        Stripe stripe = minute(Math.floorDiv(timestamp, 60)).stripe();
+        AtomicLongArray counters = stripe.counters;
+        counters.getAndAdd(MinuteStore.BYTES, bytesTransferred);
+        counters.getAndAdd(MinuteStore.TIME, timeTaken);
+        counters.getAndIncrement(status == StatusClass.SUCCESS ? MinuteStore.SUCCESSFUL : MinuteStore.FAILURES);
+        stripe.histogram.getAndIncrement(LatencyHistogram.bucket(timeTaken));
+        return stripe;
+    }
+
+    private Minute minute(long minute) {
+        int index = (int) (minute & (RECENT - 1));
+        Minute found = recent.get(index);
+        if (found != null && found.minute == minute) {
+            return found;
+        }
+        found = minutes.computeIfAbsent(minute, Minute::new);
+        recent.lazySet(index, found);
+        latestMinute.accumulateAndGet(minute, Math::max);
+        return found;
+    }
+
+    /**
+     * Adds everything seen so far to a store.  Lines still being added as
+     * this runs may or may not be included, so call it once the threads
+     * feeding us have finished to get exact totals.
+     */
+    public void addTo(MinuteStore store) {
+        addTo(store, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Adds the minutes from {@code from}, inclusive, to {@code to},
+     * exclusive, to a store, as {@link #addTo(MinuteStore)} does.
+     */
+    public void addTo(MinuteStore store, long from, long to) {
+        if (from >= to) {
+            return;
+        }
+        long[] counters = new long[MinuteStore.FIELDS];
+        int[] histogram = new int[LatencyHistogram.BUCKETS];
+        byte[] clients = new byte[HyperLogLog.REGISTERS];
+        for (Minute minute : minutes.subMap(from, to).values()) {
+            read(minute, counters, histogram, clients);
+            store.add(minute.minute, counters[MinuteStore.COUNT], counters[MinuteStore.BYTES],
+                    counters[MinuteStore.TIME], counters[MinuteStore.SUCCESSFUL], counters[MinuteStore.FAILURES],
+                    histogram, clients);
+        }
+    }
+
+    /*
+     * Reads every stripe of a minute into the arrays given, overwriting
+     * them.
+     */
+    private static void read(Minute minute, long[] counters, int[] histogram, byte[] clients) {
+        Arrays.fill(counters, 0);
+        Arrays.fill(histogram, 0);
+        Arrays.fill(clients, (byte) 0);
+        for (int s = 0; s < STRIPES; s++) {
+            Stripe stripe = minute.stripes.get(s);
+            if (stripe == null) {
+                continue;
+            }
+            for (int i = 0; i < MinuteStore.FIELDS; i++) {
+                counters[i] += stripe.counters.get(i);
+            }
+            for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+                histogram[i] += stripe.histogram.get(i);
+            }
+            for (int i = 0; i < HyperLogLog.REGISTERS; i++) {
+                byte register = (byte) (stripe.clients.get(i >>> 2) >>> ((i & 3) * 8));
+                if (register > clients[i]) {
+                    clients[i] = register;
+                }
+            }
+        }
+    }
+
+    /**
+     * Visits each minute from {@code from}, inclusive, to {@code to},
+     * exclusive, in order.  Lines still being added may or may not be
+     * included, as for {@link #addTo(MinuteStore)}.  The minutes may be
+     * handed out again to later calls, so mustn't be changed.
+     */
+    public void forEachMinute(long from, long to, Percentiles percentiles, Consumer<LogMinuteAggregator> consumer) {
+        if (from >= to) {
+            return;
+        }
+        for (Minute minute : minutes.subMap(from, to).values()) {
+            consumer.accept(snapshot(minute, percentiles));
+        }
+    }
+
+    /**
+     * @return the aggregate over the minutes from {@code from}, inclusive,
+     * to {@code to}, exclusive, as {@link #forEachMinute} would give them,
+     * or null if there are none.
+     */
+    public LogGlobalAggregator aggregate(long from, long to, Percentiles percentiles) {
+        if (from >= to || minutes.subMap(from, to).isEmpty()) {
+            return null;
+        }
+        LogGlobalAggregator aggregate = new LogGlobalAggregator(percentiles);
+        Long minute = minutes.ceilingKey(from);
+        while (minute != null && minute < to) {
+            long block = Math.floorDiv(minute, BLOCK);
+            long blockStart = block * BLOCK;
+            long blockEnd = blockStart + BLOCK;
+            if (blockStart >= from && blockEnd <= to) {
+                aggregate.merge(block(block, percentiles));
+            } else {
+                forEachMinute(minute, Math.min(blockEnd, to), percentiles, aggregate);
+            }
+            minute = minutes.ceilingKey(blockEnd);
+        }
+        return aggregate;
+    }
+
+    private static LogMinuteAggregator snapshot(Minute minute, Percentiles percentiles) {
+        long count = minute.count();
+        Snapshot<LogMinuteAggregator> snapshot = minute.snapshot;
+        if (snapshot == null || !snapshot.isCurrent(percentiles, 1, count)) {
+            long[] counters = new long[MinuteStore.FIELDS];
+            int[] histogram = new int[LatencyHistogram.BUCKETS];
+            byte[] clients = new byte[HyperLogLog.REGISTERS];
+            read(minute, counters, histogram, clients);
+            LogMinuteAggregator value = new LogMinuteAggregator(minute.minute, counters[MinuteStore.COUNT],
+                    counters[MinuteStore.BYTES], counters[MinuteStore.TIME], counters[MinuteStore.SUCCESSFUL],
+                    counters[MinuteStore.FAILURES], histogram, clients, percentiles);
+            // Lines that finish while we read are counted next time.
+            snapshot = new Snapshot<>(value, percentiles, 1, count);
+            minute.snapshot = snapshot;
+        }
+        return snapshot.value;
+    }
+
+    private LogGlobalAggregator block(long block, Percentiles percentiles) {
+        Map<Long, Minute> blockMinutes = minutes.subMap(block * BLOCK, block * BLOCK + BLOCK);
+        long count = 0;
+        long size = 0;
+        for (Minute minute : blockMinutes.values()) {
+            count += minute.count();
+            size++;
+        }
+        Block found = blocks.computeIfAbsent(block, b -> new Block());
+        Snapshot<LogGlobalAggregator> snapshot = found.snapshot;
+        if (snapshot == null || !snapshot.isCurrent(percentiles, size, count)) {
+            LogGlobalAggregator value = new LogGlobalAggregator(percentiles);
+            for (Minute minute : blockMinutes.values()) {
+                value.accept(snapshot(minute, percentiles));
+            }
+            // As for minutes, anything that's changed since we counted is
+            // read next time.
+            snapshot = new Snapshot<>(value, percentiles, size, count);
+            found.snapshot = snapshot;
+        }
+        return snapshot.value;
+    }
+
+    /**
+     * @return the latest minute that's seen a line, or
+     * {@link Long#MIN_VALUE} if none has.
+     */
+    public long getLatestMinute() {
+        return latestMinute.get();
+    }
+
+    /**
+     * Forgets minutes before the given one.  Lines still to come for them
+     * may be lost, or bring them back.
+     */
+    public void removeMinutesBefore(long minute) {
+        minutes.headMap(minute).clear();
+        blocks.headMap(Math.floorDiv(minute, BLOCK)).clear();
+    }
+
+    /**
+     * @return a single-threaded aggregator holding everything seen so far,
+     * as {@link #addTo} would.
+     */
+    public LineDetailsAggregator toAggregator(Percentiles percentiles) {
+        LineDetailsAggregator aggregator = new LineDetailsAggregator(percentiles);
+        addTo(aggregator.minutes);
+        return aggregator;
+    }
+
+    /*
+     * Threads keep their stripe, so spread their ids out.
+     */
+    private static int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9e3779b97f4a7c15L) >>> 32) & (STRIPES - 1);
+    }
+}
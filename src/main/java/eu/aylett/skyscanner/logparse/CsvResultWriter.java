@@ -0,0 +1,176 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+import com.google.common.base.Joiner;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Writes a CSV table with a header row and a row for each minute.  A CSV file
+ * only holds one table, so the aggregate is only written, as a single row, if
+ * the minutes aren't.
+ *
+ * At other resolutions, or more than one, the first columns are each
+ * bucket's resolution and start instead.  If only a sample of lines was
+ * counted, each estimate with a confidence interval is followed by its
+ * lowest and highest likely values, in columns named with {@code Low} and
+ * {@code High} after it.
+ */
+public class CsvResultWriter implements ResultWriter {
+    private static final Joiner JOINER = Joiner.on(',');
+
+    private final Writer out;
+    private final boolean detail;
+    private final boolean aggregate;
+    private final boolean minutesOnly;
+    private final boolean intervals;
+
+    public CsvResultWriter(Writer out, Percentiles percentiles, boolean detail, boolean aggregate) throws IOException {
+        this(out, percentiles, detail, aggregate, Collections.singletonList(Resolution.MINUTE));
+    }
+
+    /**
+     * @param resolutions the resolutions the buckets will be at
+     */
+    public CsvResultWriter(Writer out, Percentiles percentiles, boolean detail, boolean aggregate,
+                           List<Resolution> resolutions) throws IOException {
+        this(out, percentiles, detail, aggregate, resolutions, false);
+    }
+
+    /**
+     * @param intervals whether the results are estimated from a sample, so
+     *                  come with confidence intervals
+     */
+    public CsvResultWriter(Writer out, Percentiles percentiles, boolean detail, boolean aggregate,
+                           List<Resolution> resolutions, boolean intervals) throws IOException {
+        this.out = out;
+        this.minutesOnly = resolutions.equals(Collections.singletonList(Resolution.MINUTE));
+        this.detail = detail;
+        this.aggregate = aggregate;
+        this.intervals = intervals;
+
+        List<String> header = newArrayList();
+        if (detail) {
+            if (minutesOnly) {
+                header.add("minute");
+            } else {
+                header.add("resolution");
+                header.add("start");
+            }
+            addEstimate(header, "successful");
+            addEstimate(header, "failures");
+            header.add("distinctClients");
+            addEstimate(header, "meanResponseTime");
+            header.addAll(percentiles.names());
+            header.add("mbSent");
+        } else if (aggregate) {
+            addEstimate(header, "meanResponseTime");
+            header.addAll(percentiles.names());
+            header.add("durationInMinutes");
+            header.add("distinctClients");
+            addEstimate(header, "successfulPerMinute");
+            addEstimate(header, "failuresPerMinute");
+            addEstimate(header, "timeSpentRespondingPerMinute");
+            header.add("mbSentPerMinute");
+        }
+        if (!header.isEmpty()) {
+            writeRow(header);
+        }
+    }
+
+    @Override
+    public void minute(LogMinuteAggregator minute) throws IOException {
+        if (detail) {
+            List<Object> row = newArrayList();
+            if (!minutesOnly) {
+                row.add(minute.getResolution());
+            }
+            row.add(Timestamps.format(minute.getStartMillis()));
+            Map<String, List<Long>> minuteIntervals = minute.getConfidenceIntervals();
+            addEstimate(row, minute.getSuccessful(), minuteIntervals, "successful");
+            addEstimate(row, minute.getFailures(), minuteIntervals, "failures");
+            row.add(minute.getDistinctClients());
+            addEstimate(row, minute.getMeanResponseTime(), minuteIntervals, "meanResponseTime");
+            row.addAll(minute.getResponseTimePercentiles().values());
+            row.add(minute.getMbSent());
+            writeRow(row);
+        }
+    }
+
+    @Override
+    public void aggregate(LogGlobalAggregator aggregate) throws IOException {
+        if (!detail && this.aggregate && aggregate != null) {
+            List<Object> row = newArrayList();
+            Map<String, List<Double>> aggregateIntervals = aggregate.getConfidenceIntervals();
+            addEstimate(row, aggregate.getMeanResponseTime(), aggregateIntervals, "meanResponseTime");
+            row.addAll(aggregate.getResponseTimePercentiles().values());
+            row.add(aggregate.getDurationInMinutes());
+            row.add(aggregate.getDistinctClients());
+            addEstimate(row, aggregate.getSuccessfulPerMinute(), aggregateIntervals, "successfulPerMinute");
+            addEstimate(row, aggregate.getFailuresPerMinute(), aggregateIntervals, "failuresPerMinute");
+            addEstimate(row, aggregate.getTimeSpentRespondingPerMinute(), aggregateIntervals,
+                    "timeSpentRespondingPerMinute");
+            row.add(aggregate.getMbSentPerMinute());
+            writeRow(row);
+        }
+    }
+
+    private void addEstimate(List<String> header, String name) {
+        header.add(name);
+        if (intervals) {
+            header.add(name + "Low");
+            header.add(name + "High");
+        }
+    }
+
+    /*
+     * Adds the estimate, then its interval if we're showing them.
+     */
+    private void addEstimate(List<Object> row, Object estimate, Map<String, ? extends List<?>> estimateIntervals,
+                             String name) {
+        row.add(estimate);
+        if (intervals) {
+            List<?> interval = estimateIntervals == null ? null : estimateIntervals.get(name);
+            row.add(interval == null ? "" : interval.get(0));
+            row.add(interval == null ? "" : interval.get(1));
+        }
+    }
+
+    /*
+     * Nothing we write needs quoting.
+     */
+    private void writeRow(List<?> values) throws IOException {
+        out.write(JOINER.join(values));
+        out.write('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
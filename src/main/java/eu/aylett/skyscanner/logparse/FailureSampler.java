@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides which parse failures are worth logging: the first few of each
+ * kind, then optionally one in every so many, so that a corrupt file can't
+ * make logging the main thing we do.  Every failure is still counted in
+ * {@link ParseStats}.
+ *
+ * Thread-safe, so that parsers on different threads can share one.
+ */
+public class FailureSampler {
+    private static final Logger LOG = Logging.getLogger(FailureSampler.class);
+    public static final long DEFAULT_EXAMPLES = 10;
+
+    private final long examples;
+    private final long every;
+    private final AtomicLongArray counts = new AtomicLongArray(ParseFailure.values().length);
+
+    public FailureSampler() {
+        this(DEFAULT_EXAMPLES, 0);
+    }
+
+    /**
+     * @param examples how many of each kind of failure to log
+     * @param every after that, log one in this many, or none if zero
+     */
+    public FailureSampler(long examples, long every) {
+        this.examples = examples;
+        this.every = every;
+    }
+
+    public boolean shouldLog(ParseFailure failure) {
+        long count = counts.incrementAndGet(failure.ordinal());
+        if (count <= examples) {
+            return true;
+        }
+        if (count == examples + 1) {
+            if (every > 0) {
+                LOG.error("Seen more than {} {}: only logging one in every {} from now on",
+                        examples, failure.description, every);
+            } else {
+                LOG.error("Seen more than {} {}: not logging any more of them", examples, failure.description);
+            }
+        }
+        return every > 0 && (count - examples) % every == 0;
+    }
+}
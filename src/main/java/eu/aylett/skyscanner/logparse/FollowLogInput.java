@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * Reads a file that's still being written, like {@code tail -F}: it reads to
+ * the end, waits for more, and carries on until {@link #stop}ped.
+ *
+ * If the file is renamed away and a new one created in its place, we finish
+ * reading the old one and then start on the new one.  If it's truncated in
+ * place, we start again from the beginning.
+ */
+public class FollowLogInput implements LogInput {
+    private static final Logger LOG = Logging.getLogger(FollowLogInput.class);
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final Path path;
+    private final long pollMillis;
+    private volatile boolean stopped = false;
+
+    private FileChannel channel;
+    private Object fileKey;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    public FollowLogInput(Path path, long pollMillis) throws IOException {
+        this.path = path;
+        this.pollMillis = pollMillis;
+        open();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * Asks {@link #readLines} to return once it's caught up.  Safe to call
+     * from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public void readLines(LineSink sink) throws IOException {
+        while (true) {
+            int read = channel.read(buffer);
+            if (read > 0) {
+                emitLines(sink);
+                continue;
+            }
+
+            // We've caught up: see whether the file has moved on without us.
+            if (rotated()) {
+                LOG.info("{} was rotated, reopening it", path);
+                flushPartialLine(sink);
+                channel.close();
+                open();
+                continue;
+            }
+            if (channel.size() < channel.position()) {
+                LOG.info("{} was truncated, reading it from the start", path);
+                buffer.clear();
+                channel.position(0);
+                continue;
+            }
+
+            if (stopped) {
+                flushPartialLine(sink);
+                return;
+            }
+            sink.idle();
+            try {
+                Thread.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while following " + path);
+            }
+        }
+    }
+
+    /**
+     * Hands over every complete line in the buffer, and keeps what's left.
+     */
+    private void emitLines(LineSink sink) {
+        int limit = buffer.position();
+        int lineStart = 0;
+        int newline;
+        while ((newline = ByteScanner.indexOf(buffer, lineStart, limit, (byte) '\n')) >= 0) {
+            sink.line(buffer, lineStart, lineEnd(lineStart, newline));
+            lineStart = newline + 1;
+        }
+
+        if (lineStart == 0 && limit == buffer.capacity()) {
+            // The line is longer than the buffer.
+            ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        } else {
+            buffer.limit(limit).position(lineStart);
+            buffer.compact();
+        }
+    }
+
+    /*
+     * A rotated file won't get any more lines, so whatever's left is a line.
+     */
+    private void flushPartialLine(LineSink sink) {
+        int limit = buffer.position();
+        if (limit > 0) {
+            sink.line(buffer, 0, lineEnd(0, limit));
+        }
+        buffer.clear();
+    }
+
+    private boolean rotated() throws IOException {
+        try {
+            Object currentKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            return fileKey != null && !Objects.equals(fileKey, currentKey);
+        } catch (NoSuchFileException e) {
+            // Renamed away, and the new one isn't there yet.
+            return false;
+        }
+    }
+
+    /*
+     * Drop a carriage return, as BufferedReader would.
+     */
+    private int lineEnd(int lineStart, int newline) {
+        return newline > lineStart && buffer.get(newline - 1) == '\r' ? newline - 1 : newline;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
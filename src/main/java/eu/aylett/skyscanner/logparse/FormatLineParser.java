@@ -0,0 +1,236 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.slf4j.Logger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Runs a compiled {@link LogFormat}'s plan over each line, without
+ * allocating: literal text must match exactly, and each field runs up to the
+ * first place the text after it matches.  In a quoted field, a backslash
+ * escapes the next byte, as Apache escapes quotes in the request.
+ *
+ * Failures are counted and sampled just like {@link LogLineParser}'s.
+ */
+class FormatLineParser implements LineParser {
+    private static final Logger LOG = Logging.getLogger(FormatLineParser.class);
+    private static final int FIELDS = LogFormat.Field.values().length;
+
+    private final byte[][] literals;
+    private final LogFormat.Field[] fields;
+    private final byte[][] terminators;
+    private final boolean[] quoted;
+    private final LogFormat.Field time;
+
+    private final TimestampDecoder timestampDecoder = new TimestampDecoder();
+    private final ParseStats stats;
+    private final FailureSampler sampler;
+
+    // Where each field was found in the current line, by ordinal.
+    private final int[] fieldStarts = new int[FIELDS];
+    private final int[] fieldEnds = new int[FIELDS];
+
+    FormatLineParser(LogFormat format, ParseStats stats, FailureSampler sampler) {
+        this.literals = format.literals;
+        this.fields = format.fields;
+        this.terminators = format.terminators;
+        this.quoted = format.quoted;
+        LogFormat.Field timeField = null;
+        for (LogFormat.Field field : fields) {
+            if (field != null && field.isTime()) {
+                timeField = field;
+            }
+        }
+        this.time = timeField;
+        this.stats = stats;
+        this.sampler = sampler;
+    }
+
+    @Override
+    public boolean parse(ByteBuffer buffer, int start, int end, LineDetailsConsumer consumer) {
+        for (int i = 0; i < FIELDS; i++) {
+            fieldStarts[i] = start;
+            fieldEnds[i] = start;
+        }
+
+        int p = start;
+        for (int step = 0; step < literals.length; step++) {
+            byte[] literal = literals[step];
+            if (literal != null) {
+                if (!matches(buffer, p, end, literal)) {
+                    return mismatch(buffer, start, end);
+                }
+                p += literal.length;
+            } else {
+                int fieldEnd = find(buffer, p, end, terminators[step], quoted[step]);
+                if (fieldEnd < 0) {
+                    return mismatch(buffer, start, end);
+                }
+                int field = fields[step].ordinal();
+                fieldStarts[field] = p;
+                fieldEnds[field] = fieldEnd;
+                p = fieldEnd;
+            }
+        }
+        if (p != end) {
+            return mismatch(buffer, start, end);
+        }
+
+        int statusStart = fieldStarts[LogFormat.Field.STATUS.ordinal()];
+        if (fieldEnds[LogFormat.Field.STATUS.ordinal()] - statusStart != 3 || !isDigit(buffer.get(statusStart))
+                || !isDigit(buffer.get(statusStart + 1)) || !isDigit(buffer.get(statusStart + 2))) {
+            return mismatch(buffer, start, end);
+        }
+
+        int timestampStart = fieldStarts[LogFormat.Field.TIMESTAMP.ordinal()];
+        int timestampEnd = fieldEnds[LogFormat.Field.TIMESTAMP.ordinal()];
+        long timestamp = timestampDecoder.decode(buffer, timestampStart, timestampEnd);
+        if (timestamp == TimestampDecoder.INVALID) {
+            return failed(ParseFailure.TIMESTAMP, "timestamp", buffer, timestampStart, timestampEnd, start, end);
+        }
+
+        int statusCode = (buffer.get(statusStart) - '0') * 100 + (buffer.get(statusStart + 1) - '0') * 10
+                + buffer.get(statusStart + 2) - '0';
+
+        int bytesStart = fieldStarts[LogFormat.Field.BYTES.ordinal()];
+        int bytesEnd = fieldEnds[LogFormat.Field.BYTES.ordinal()];
+        long bytesTransferred = 0;
+        if (bytesEnd != bytesStart && !(bytesEnd - bytesStart == 1 && buffer.get(bytesStart) == '-')) {
+            bytesTransferred = parseDecimal(buffer, bytesStart, bytesEnd, 1, false);
+            if (bytesTransferred < 0) {
+                return failed(ParseFailure.BYTES, "number of bytes", buffer, bytesStart, bytesEnd, start, end);
+            }
+        }
+
+        int timeStart = fieldStarts[time.ordinal()];
+        int timeEnd = fieldEnds[time.ordinal()];
+        long timeTaken = parseDecimal(buffer, timeStart, timeEnd, time.micros, true);
+        if (timeTaken < 0) {
+            return failed(ParseFailure.TIME, "time taken", buffer, timeStart, timeEnd, start, end);
+        }
+
+        int addressStart = fieldStarts[LogFormat.Field.ADDRESS.ordinal()];
+        long clientHash = HyperLogLog.hash(buffer, addressStart, fieldEnds[LogFormat.Field.ADDRESS.ordinal()]);
+        consumer.acceptRequest(timestamp, statusCode, bytesTransferred, timeTaken, clientHash, buffer,
+                fieldStarts[LogFormat.Field.REQUEST.ordinal()], fieldEnds[LogFormat.Field.REQUEST.ordinal()]);
+        return true;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int p, int end, byte[] literal) {
+        if (end - p < literal.length) {
+            return false;
+        }
+        for (int i = 0; i < literal.length; i++) {
+            if (buffer.get(p + i) != literal[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return where the terminator next starts, or the end of the line if
+     * there's no terminator, or -1 if it's not there.
+     */
+    private static int find(ByteBuffer buffer, int p, int end, byte[] terminator, boolean quoted) {
+        if (terminator == null) {
+            return end;
+        }
+        byte first = terminator[0];
+        int i = p;
+        while (i < end) {
+            i = quoted ? ByteScanner.indexOfEither(buffer, i, end, first, (byte) '\\')
+                    : ByteScanner.indexOf(buffer, i, end, first);
+            if (i < 0) {
+                return -1;
+            }
+            if (buffer.get(i) == first && matches(buffer, i, end, terminator)) {
+                return i;
+            }
+            i += quoted && buffer.get(i) == '\\' ? 2 : 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a number of the given unit, in microseconds, with a fraction if
+     * allowed, dropping anything finer than a microsecond.
+     *
+     * @return the value, or -1 if it isn't a number or doesn't fit in a long.
+     */
+    private static long parseDecimal(ByteBuffer buffer, int start, int end, long micros, boolean fraction) {
+        if (start == end) {
+            return -1;
+        }
+        long value = 0;
+        int i = start;
+        for (; i < end; i++) {
+            int d = buffer.get(i) - '0';
+            if (d < 0 || d > 9) {
+                break;
+            }
+            if (value > (Long.MAX_VALUE - d) / 10) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        if (i == start || value > Long.MAX_VALUE / micros) {
+            return -1;
+        }
+        value *= micros;
+        if (i == end) {
+            return value;
+        }
+        if (!fraction || buffer.get(i) != '.' || i + 1 == end) {
+            return -1;
+        }
+        long scale = micros;
+        for (i++; i < end; i++) {
+            int d = buffer.get(i) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            scale /= 10;
+            value += d * scale;
+        }
+        return value;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private boolean failed(ParseFailure reason, String what, ByteBuffer buffer, int fieldStart, int fieldEnd,
+                           int start, int end) {
+        stats.failed(reason);
+        if (sampler.shouldLog(reason)) {
+            LOG.error("Failed to read {} \"{}\" from {}", what, LogLineParser.describe(buffer, fieldStart, fieldEnd),
+                    LogLineParser.describe(buffer, start, end));
+        }
+        return false;
+    }
+
+    private boolean mismatch(ByteBuffer buffer, int start, int end) {
+        stats.failed(ParseFailure.MISMATCH);
+        if (sampler.shouldLog(ParseFailure.MISMATCH)) {
+            LOG.error("Failed to match line: {}", LogLineParser.describe(buffer, start, end));
+        }
+        return false;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Estimates how many distinct clients made requests, using HyperLogLog.
+ *
+ * Each client address is hashed to 64 bits.  The top {@link #PRECISION} bits
+ * pick one of {@link #REGISTERS} one-byte registers, which keeps the longest
+ * run of leading zeros seen in the rest.  That's 4KB per minute, with a
+ * standard error of 1.04/sqrt(4096), about 1.6%; small counts are estimated
+ * by linear counting and are usually exact.  Registers merge by taking the
+ * larger of each, so minutes combine into an estimate for the whole log
+ * with the same error.
+ *
+ * {@link MinuteStore} keeps a {@code byte[]} of registers for each minute and
+ * uses {@link #add} to record into it; this class holds the merged registers
+ * for reporting.
+ */
+public class HyperLogLog {
+    static final int PRECISION = 12;
+    public static final int REGISTERS = 1 << PRECISION;
+
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /**
+     * @return a well-mixed hash of the bytes between {@code start}
+     * (inclusive) and {@code end} (exclusive).
+     */
+    public static long hash(ByteBuffer buffer, int start, int end) {
+        long hash = FNV_OFFSET;
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ (buffer.get(i) & 0xff)) * FNV_PRIME;
+        }
+        // MurmurHash3's finaliser, as FNV leaves the top bits poorly mixed.
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Records a hashed client in a minute's registers.
+     */
+    public static void add(byte[] registers, long hash) {
+        int register = (int) (hash >>> (64 - PRECISION));
+        byte rank = (byte) rank(hash);
+        if (registers[register] < rank) {
+            registers[register] = rank;
+        }
+    }
+
+    /**
+     * @return the value a hash would set its register to: one more than the
+     * leading zeros after the register's bits.
+     */
+    static int rank(long hash) {
+        return Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+    }
+
+    /**
+     * Adds a minute's registers.
+     */
+    public void merge(byte[] other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (registers[i] < other[i]) {
+                registers[i] = other[i];
+            }
+        }
+    }
+
+    public void merge(HyperLogLog other) {
+        merge(other.registers);
+    }
+
+    /**
+     * @return roughly how many distinct clients have been recorded.
+     */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += Math.scalb(1.0, -register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+}
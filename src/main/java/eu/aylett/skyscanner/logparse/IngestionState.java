@@ -0,0 +1,256 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Remembers how far through each log we've read, and the minutes we've seen,
+ * so that a later run only needs to read what's been added since.
+ *
+ * Each log is recognised by its file key (device and inode, on Unix) and a
+ * hash of its first few bytes.  If the log has been rotated by renaming, we
+ * look for the old file next to it so that we can finish reading that first.
+ * If it's been copied and truncated, the copy is found by its hash.  Only
+ * complete lines are read: a line still being written is left for next time.
+ *
+ * The state file holds a magic number and version, the checkpoint for each
+ * log, and then the minutes in {@link RollupFile}'s record format.  Each
+ * state version holds records in the rollup version of the same number.
+ */
+public class IngestionState {
+    private static final Logger LOG = Logging.getLogger(IngestionState.class);
+
+    static final int MAGIC = 0x4c505354; // "LPST"
+    static final int VERSION = RollupFile.VERSION;
+    static final int FINGERPRINT_LENGTH = 1024;
+    private static final int HEADER_SIZE = 8;
+
+    /*
+     * Where we'd got to in one log.
+     */
+    private static class Checkpoint {
+        final String fileKey;
+        final int fingerprintLength;
+        final long fingerprint;
+        final long offset;
+
+        Checkpoint(String fileKey, int fingerprintLength, long fingerprint, long offset) {
+            this.fileKey = fileKey;
+            this.fingerprintLength = fingerprintLength;
+            this.fingerprint = fingerprint;
+            this.offset = offset;
+        }
+    }
+
+    private final Map<String, Checkpoint> checkpoints = new LinkedHashMap<>();
+    final MinuteStore minutes = new MinuteStore();
+
+    /**
+     * @return the state saved in the file, or an empty state if there's no
+     * file yet.
+     */
+    public static IngestionState load(Path path) throws IOException {
+        IngestionState state = new IngestionState();
+        if (!Files.exists(path)) {
+            return state;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not a state file");
+            }
+            int version = in.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException(path + " has state format version " + version + ", but we only read versions 1 to " + VERSION);
+            }
+            int logs = in.readInt();
+            for (int i = 0; i < logs; i++) {
+                String log = in.readUTF();
+                state.checkpoints.put(log, new Checkpoint(in.readUTF(), in.readInt(), in.readLong(), in.readLong()));
+            }
+            RollupFile.readMinutes(in, path, HEADER_SIZE, version, state.minutes::add);
+        }
+        return state;
+    }
+
+    /**
+     * Saves the checkpoints along with the given minutes, replacing the file
+     * in one go so that a crash can't leave it half-written.
+     */
+    public void save(Path path, MinuteStore minutes) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(checkpoints.size());
+            for (Map.Entry<String, Checkpoint> entry : checkpoints.entrySet()) {
+                Checkpoint checkpoint = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeUTF(checkpoint.fileKey);
+                out.writeInt(checkpoint.fingerprintLength);
+                out.writeLong(checkpoint.fingerprint);
+                out.writeLong(checkpoint.offset);
+            }
+            RollupFile.writeMinutes(out, minutes);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Works out what's been added to a log since we last read it, and moves
+     * its checkpoint to the end of the last complete line.
+     *
+     * @return inputs covering the new lines, in order: the end of the
+     * rotated file first, if it's been rotated, then the log itself.
+     */
+    public List<LogInput> newData(Path log) throws IOException {
+        String name = log.toAbsolutePath().normalize().toString();
+        Checkpoint saved = checkpoints.get(name);
+        List<LogInput> inputs = newArrayList();
+
+        if (saved != null) {
+            Path previous = findPrevious(log, saved);
+            if (previous == null) {
+                LOG.warn("Can not find the file {} was rotated from, so reading it from the start", log);
+            } else {
+                long end = completeLinesEnd(previous, saved.offset);
+                if (end > saved.offset) {
+                    inputs.add(new MappedLogInput(previous, saved.offset, end, MappedLogInput.DEFAULT_WINDOW_SIZE));
+                }
+                if (Files.isSameFile(previous, log)) {
+                    checkpoints.put(name, checkpoint(log, end));
+                    return inputs;
+                }
+                LOG.info("{} was rotated to {}", log, previous);
+            }
+        }
+
+        long end = completeLinesEnd(log, 0);
+        if (end > 0) {
+            inputs.add(new MappedLogInput(log, 0, end, MappedLogInput.DEFAULT_WINDOW_SIZE));
+        }
+        checkpoints.put(name, checkpoint(log, end));
+        return inputs;
+    }
+
+    /**
+     * Finds the file we were reading: the log itself if it's only grown, or
+     * else a file beside it that's the same file renamed, or a copy of it.
+     */
+    private static Path findPrevious(Path log, Checkpoint saved) throws IOException {
+        if (matches(log, saved, true)) {
+            return log;
+        }
+
+        Path directory = log.toAbsolutePath().getParent();
+        Path copy = null;
+        try (DirectoryStream<Path> siblings = Files.newDirectoryStream(directory)) {
+            for (Path sibling : siblings) {
+                if (!Files.isRegularFile(sibling) || Files.isSameFile(sibling, log)) {
+                    continue;
+                }
+                if (matches(sibling, saved, true)) {
+                    return sibling;
+                }
+                if (copy == null && matches(sibling, saved, false)) {
+                    copy = sibling;
+                }
+            }
+        }
+        return copy;
+    }
+
+    private static boolean matches(Path file, Checkpoint saved, boolean sameKey) throws IOException {
+        try {
+            if (sameKey && !Objects.equals(fileKey(file), saved.fileKey)) {
+                return false;
+            }
+            return Files.size(file) >= Math.max(saved.offset, saved.fingerprintLength)
+                    && fingerprint(file, saved.fingerprintLength) == saved.fingerprint;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static Checkpoint checkpoint(Path log, long offset) throws IOException {
+        int length = (int) Math.min(FINGERPRINT_LENGTH, offset);
+        return new Checkpoint(fileKey(log), length, fingerprint(log, length), offset);
+    }
+
+    private static String fileKey(Path file) throws IOException {
+        Object key = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        return key == null ? "" : key.toString();
+    }
+
+    private static long fingerprint(Path file, int length) throws IOException {
+        byte[] head = new byte[length];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(head);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // Keep reading.
+            }
+        }
+        return Hashing.murmur3_128().hashBytes(head).asLong();
+    }
+
+    /**
+     * @return the end of the last complete line at or after {@code start},
+     * or {@code start} if there isn't one.
+     */
+    private static long completeLinesEnd(Path file, long start) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long end = channel.size();
+            while (end > start) {
+                long blockStart = Math.max(start, end - buffer.capacity());
+                buffer.clear().limit((int) (end - blockStart));
+                while (buffer.hasRemaining() && channel.read(buffer, blockStart + buffer.position()) > 0) {
+                    // Keep reading.
+                }
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        return blockStart + i + 1;
+                    }
+                }
+                end = blockStart;
+            }
+            return start;
+        }
+    }
+}
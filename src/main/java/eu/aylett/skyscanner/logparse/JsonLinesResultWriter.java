@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes one JSON object per line: one for each minute, with a {@code minute}
+ * field saying when it starts, then one holding the {@code aggregate}.
+ *
+ * At other resolutions, or more than one, each bucket has a
+ * {@code resolution} field with its name, like {@code 1h}, and a
+ * {@code start} field instead.
+ */
+public class JsonLinesResultWriter implements ResultWriter {
+    private final JsonGenerator generator;
+    private final boolean detail;
+    private final boolean aggregate;
+    private final boolean minutesOnly;
+
+    /**
+     * @param factory a JSON factory
+     */
+    public JsonLinesResultWriter(Writer out, JsonFactory factory, boolean detail, boolean aggregate)
+            throws IOException {
+        this(out, factory, detail, aggregate, Collections.singletonList(Resolution.MINUTE));
+    }
+
+    /**
+     * @param factory a JSON factory
+     * @param resolutions the resolutions the buckets will be at
+     */
+    public JsonLinesResultWriter(Writer out, JsonFactory factory, boolean detail, boolean aggregate,
+                                 List<Resolution> resolutions) throws IOException {
+        this.minutesOnly = resolutions.equals(Collections.singletonList(Resolution.MINUTE));
+        this.generator = factory.createGenerator(out);
+        // Newlines go after each line rather than between them, so that
+        // whoever's reading sees each line as soon as it's flushed.
+        this.generator.setPrettyPrinter(new MinimalPrettyPrinter(""));
+        this.detail = detail;
+        this.aggregate = aggregate;
+    }
+
+    @Override
+    public void minute(LogMinuteAggregator minute) throws IOException {
+        if (detail) {
+            String start = Timestamps.format(minute.getStartMillis());
+            generator.writeStartObject();
+            if (minutesOnly) {
+                generator.writeStringField("minute", start);
+            } else {
+                generator.writeStringField("resolution", minute.getResolution().toString());
+                generator.writeStringField("start", start);
+            }
+            minute.writeFields(generator);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+    }
+
+    @Override
+    public void aggregate(LogGlobalAggregator aggregate) throws IOException {
+        if (this.aggregate && aggregate != null) {
+            generator.writeStartObject();
+            generator.writeFieldName("aggregate");
+            aggregate.writeTo(generator);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        generator.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+/**
+ * A histogram of response times with a fixed number of log-linear buckets.
+ *
+ * Values below 32 get a bucket each.  Above that, each power of two is split
+ * into 16 equal buckets, so a bucket is never wider than 1/16 of its lowest
+ * value; reporting the middle of the bucket keeps percentiles within 3.2% of
+ * the true value.  Values of 2^40 and above (about 12 days in microseconds)
+ * all share the last bucket.
+ *
+ * {@link MinuteStore} keeps an {@code int[]} of {@link #BUCKETS} counts for
+ * each minute and uses {@link #bucket} to record into it; this class holds
+ * the merged counts for reporting.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_BITS = 40;
+    public static final int BUCKETS = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total = 0;
+
+    /**
+     * @return the bucket a value should be counted in.
+     */
+    public static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        if (value >= 1L << MAX_BITS) {
+            return BUCKETS - 1;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return the lowest value counted in the bucket.
+     */
+    static long lowestValue(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * @return the value we report for the bucket: its middle.
+     */
+    static long representativeValue(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return lowestValue(bucket) + (1L << shift) / 2;
+    }
+
+    public void record(long value) {
+        counts[bucket(value)]++;
+        total++;
+    }
+
+    /**
+     * Adds a minute's bucket counts.
+     */
+    public void add(int[] bucketCounts) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += bucketCounts[i];
+            total += bucketCounts[i];
+        }
+    }
+
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the sum of the squares of the recorded values, taking each to
+     * be the middle of its bucket.
+     */
+    public double sumOfSquares() {
+        double sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] != 0) {
+                double value = representativeValue(i);
+                sum += counts[i] * value * value;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @param mean the mean of the recorded values
+     * @return the sample variance of the recorded values, taking each to be
+     * the middle of its bucket, or zero with fewer than two.
+     */
+    public double variance(double mean) {
+        if (total < 2) {
+            return 0;
+        }
+        return Math.max(0, (sumOfSquares() - total * mean * mean) / (total - 1));
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value that at least that percentage of recorded values are
+     * no greater than, to within the histogram's precision, or zero if
+     * nothing has been recorded.
+     */
+    public long percentile(double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return representativeValue(i);
+            }
+        }
+        return representativeValue(BUCKETS - 1);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A batch of parsed lines, copied out of the input's buffer so that they can
+ * be handed to another thread.  Request lines are only copied if asked for.
+ *
+ * Lines handed over with {@link #accept} rather than {@link #acceptRequest}
+ * are stored with a negative status code, so that they can be handed on the
+ * same way.
+ */
+class LineBatch implements LineDetailsConsumer {
+    static final int CAPACITY = 1024;
+
+    final long[] timestamps = new long[CAPACITY];
+    final int[] statusCodes = new int[CAPACITY];
+    final long[] bytes = new long[CAPACITY];
+    final long[] times = new long[CAPACITY];
+    final long[] clientHashes = new long[CAPACITY];
+    final int[] requestStarts;
+    final int[] requestEnds;
+    byte[] requests;
+    int size = 0;
+
+    private final boolean keepRequests;
+    private int requestsSize = 0;
+
+    LineBatch(boolean keepRequests) {
+        this.keepRequests = keepRequests;
+        this.requestStarts = keepRequests ? new int[CAPACITY] : null;
+        this.requestEnds = keepRequests ? new int[CAPACITY] : null;
+        this.requests = keepRequests ? new byte[CAPACITY * 32] : null;
+    }
+
+    boolean isFull() {
+        return size == CAPACITY;
+    }
+
+    @Override
+    public void accept(long timestamp, StatusClass status, long bytesTransferred, long timeTaken) {
+        add(timestamp, -1 - status.ordinal(), bytesTransferred, timeTaken, 0);
+    }
+
+    @Override
+    public void acceptRequest(long timestamp, int statusCode, long bytesTransferred, long timeTaken,
+                              long clientHash, ByteBuffer buffer, int requestStart, int requestEnd) {
+        if (keepRequests) {
+            int length = requestEnd - requestStart;
+            if (requestsSize + length > requests.length) {
+                requests = Arrays.copyOf(requests, Math.max(requests.length * 2, requestsSize + length));
+            }
+            for (int i = 0; i < length; i++) {
+                requests[requestsSize + i] = buffer.get(requestStart + i);
+            }
+            requestStarts[size] = requestsSize;
+            requestsSize += length;
+            requestEnds[size] = requestsSize;
+        }
+        add(timestamp, statusCode, bytesTransferred, timeTaken, clientHash);
+    }
+
+    private void add(long timestamp, int statusCode, long bytesTransferred, long timeTaken, long clientHash) {
+        timestamps[size] = timestamp;
+        statusCodes[size] = statusCode;
+        bytes[size] = bytesTransferred;
+        times[size] = timeTaken;
+        clientHashes[size] = clientHash;
+        size++;
+    }
+
+    /**
+     * Hands a line on as it was handed to us.
+     */
+    static void handOn(LineDetailsConsumer consumer, long timestamp, int statusCode, long bytesTransferred,
+                       long timeTaken, long clientHash, ByteBuffer request, int requestStart, int requestEnd) {
+        if (statusCode < 0) {
+            consumer.accept(timestamp, StatusClass.values()[-1 - statusCode], bytesTransferred, timeTaken);
+        } else {
+            consumer.acceptRequest(timestamp, statusCode, bytesTransferred, timeTaken, clientHash,
+                    request, requestStart, requestEnd);
+        }
+    }
+}
@@ -16,58 +16,269 @@
 
 package eu.aylett.skyscanner.logparse;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.google.common.base.Preconditions;
 import org.joda.time.DateTime;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.util.Set;
-import java.util.SortedMap;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
-import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 
 /**
  * Collects {@link LineDetails}, aggregating them into minutes and allowing for
  * global aggregation too.
+ *
+ * If asked to track any top paths, it also keeps a {@link Breakdown} for each
+ * minute, which is only possible for lines handed over with
+ * {@link #acceptRequest}.
+ *
+ * Given a {@link Resolution} finer than a minute, lines are counted in
+ * buckets of that length instead, and only {@link #rollUp rolled up} into
+ * minutes once they're all in.  Coarser resolutions are built from the
+ * minutes when they're asked for.
+ *
+ * If it's only counting a {@link Sample} of the lines, everything it reports
+ * is scaled up to estimates for all of them.
  */
-public class LineDetailsAggregator implements Consumer<LineDetails> {
-    private static final Logger LOG = LoggerFactory.getLogger(LineDetailsAggregator.class);
+@JsonPropertyOrder({"aggregate", "detail"})
+public class LineDetailsAggregator implements Consumer<LineDetails>, LineDetailsConsumer {
+    final MinuteStore minutes;
+    private final Percentiles percentiles;
+    private final int topPaths;
+    private final Resolution finest;
+    // Buckets of the finest resolution, if that's finer than a minute.
+    private final MinuteStore fine;
+    private boolean rolledUp = false;
+    private Sample sample = Sample.ALL;
+    private final TreeMap<Long, Breakdown> breakdowns = new TreeMap<>();
 
-    LoadingCache<DateTime, LogMinuteAggregator> minutes = CacheBuilder.newBuilder().build(new CacheLoader<DateTime, LogMinuteAggregator>() {
-        @Override
-        public LogMinuteAggregator load(DateTime key) throws Exception {
-            return new LogMinuteAggregator(key);
-        }
-    });
+    // The last minute we broke down, which is usually the next one too.
+    private long breakdownMinute;
+    private Breakdown breakdown;
+
+    public LineDetailsAggregator() {
+        this(Percentiles.DEFAULT);
+    }
+
+    public LineDetailsAggregator(Percentiles percentiles) {
+        this(percentiles, 0);
+    }
+
+    /**
+     * @param topPaths how many paths to break each minute down by, or zero
+     *                 for no breakdown
+     */
+    public LineDetailsAggregator(Percentiles percentiles, int topPaths) {
+        this(percentiles, topPaths, Resolution.MINUTE);
+    }
+
+    /**
+     * @param finest the finest resolution that will be asked for
+     */
+    public LineDetailsAggregator(Percentiles percentiles, int topPaths, Resolution finest) {
+        this(percentiles, topPaths, finest, new MinuteStore());
+    }
+
+    /**
+     * @param minutes where to count the minutes, such as a
+     *                {@link MappedMinuteStore} that already holds some
+     */
+    public LineDetailsAggregator(Percentiles percentiles, int topPaths, Resolution finest, MinuteStore minutes) {
+        this.minutes = minutes;
+        this.percentiles = percentiles;
+        this.topPaths = topPaths;
+        this.finest = finest.compareTo(Resolution.MINUTE) < 0 ? finest : Resolution.MINUTE;
+        this.fine = finest.compareTo(Resolution.MINUTE) < 0 ? new MinuteStore() : null;
+    }
+
+    /**
+     * Reports estimates for every line, from counting only those the sample
+     * picked.
+     */
+    void setSample(Sample sample) {
+        this.sample = sample;
+    }
 
     @Override
     public void accept(LineDetails lineDetails) {
-        DateTime lineMinute = lineDetails.timestamp.withSecondOfMinute(0);
-        try {
-            minutes.get(lineMinute).accept(lineDetails);
-        } catch (ExecutionException e) {
-            LOG.error("Failed to get the aggregator for a minute: {}", lineMinute, e);
+        accept(lineDetails.timestamp, lineDetails.status, lineDetails.bytesTransferred, lineDetails.timeTaken);
+    }
+
+    @Override
+    public void accept(long timestamp, StatusClass status, long bytesTransferred, long timeTaken) {
+        if (fine == null) {
+            minutes.add(Math.floorDiv(timestamp, 60), bytesTransferred, timeTaken, status);
+        } else {
+            Preconditions.checkState(!rolledUp, "Already rolled up into minutes");
+            fine.add(finest.bucket(timestamp), bytesTransferred, timeTaken, status);
+        }
+    }
+
+    @Override
+    public void acceptRequest(long timestamp, int statusCode, long bytesTransferred, long timeTaken,
+                              long clientHash, ByteBuffer buffer, int requestStart, int requestEnd) {
+        long minute = Math.floorDiv(timestamp, 60);
+        if (fine == null) {
+            minutes.add(minute, bytesTransferred, timeTaken, StatusClass.of(statusCode), clientHash);
+        } else {
+            Preconditions.checkState(!rolledUp, "Already rolled up into minutes");
+            fine.add(finest.bucket(timestamp), bytesTransferred, timeTaken, StatusClass.of(statusCode), clientHash);
+        }
+        if (topPaths > 0) {
+            if (breakdown == null || breakdownMinute != minute) {
+                breakdown = breakdowns.computeIfAbsent(minute, m -> new Breakdown(topPaths));
+                breakdownMinute = minute;
+            }
+            breakdown.add(statusCode, buffer, requestStart, requestEnd, bytesTransferred, timeTaken);
+        }
+    }
+
+    /**
+     * Adds everything another aggregator has seen, for example from another
+     * chunk of the same log.
+     */
+    public void merge(LineDetailsAggregator other) {
+        minutes.merge(other.minutes);
+        if (fine != null) {
+            Preconditions.checkState(!rolledUp, "Already rolled up into minutes");
+            fine.merge(other.fine);
+        }
+        other.breakdowns.forEach((minute, otherBreakdown) ->
+                breakdowns.computeIfAbsent(minute, m -> new Breakdown(topPaths)).merge(otherBreakdown));
+    }
+
+    /**
+     * Adds the buckets finer than a minute into the minutes, once every line
+     * is in.  Reading the minutes does this too, but anything reading
+     * {@link #minutes} directly should call this first.
+     */
+    public void rollUp() {
+        if (fine != null && !rolledUp) {
+            minutes.merge(fine.coarsen(Resolution.MINUTE.getSeconds() / finest.getSeconds()));
+            rolledUp = true;
+        }
+    }
+
+    /**
+     * Hands over every minute before the given one, in order, and forgets
+     * about them.  Only for minute resolution.
+     *
+     * @param minute minutes since the epoch
+     */
+    public void removeMinutesBefore(long minute, Consumer<LogMinuteAggregator> consumer) {
+        Map<Long, Breakdown> removed = breakdowns.headMap(minute);
+        minutes.removeBefore(minute, (m, count, bytes, time, successful, failures, histogram, clients) -> {
+            LogMinuteAggregator minuteAggregator = new LogMinuteAggregator(m, count, bytes, time, successful,
+                    failures, histogram, clients, percentiles);
+            minuteAggregator.setBreakdown(removed.get(m));
+            scale(minuteAggregator);
+            consumer.accept(minuteAggregator);
+        });
+        removed.clear();
+        breakdown = null;
+    }
+
+    /**
+     * Visits every minute, in order, with its breakdown if it has one.
+     */
+    public void forEachMinute(Consumer<LogMinuteAggregator> consumer) {
+        rollUp();
+        minutes.forEachMinute(percentiles, minute -> {
+            minute.setBreakdown(breakdowns.get(minute.getMinute()));
+            scale(minute);
+            consumer.accept(minute);
+        });
+    }
+
+    /**
+     * Visits every bucket at each resolution, finest first, and each
+     * resolution in time order.  Each is built by merging the buckets of the
+     * one before, or of the minutes for those longer than a minute.  Only
+     * minutes, and resolutions built from them, hold anything not counted
+     * here, such as rollups and breakdowns.
+     *
+     * @param resolutions finest first, as from {@link Resolution#parseList}
+     */
+    public void forEachBucket(List<Resolution> resolutions, Consumer<LogMinuteAggregator> consumer) {
+        MinuteStore level = fine == null ? minutes : fine;
+        Resolution levelResolution = finest;
+        TreeMap<Long, Breakdown> levelBreakdowns = fine == null ? breakdowns : null;
+        for (Resolution resolution : resolutions) {
+            Preconditions.checkArgument(resolution.compareTo(levelResolution) >= 0,
+                    "Resolutions must be in order, and no finer than the lines were counted at");
+            if (resolution.equals(Resolution.MINUTE)) {
+                forEachMinute(consumer);
+                level = minutes;
+                levelBreakdowns = breakdowns;
+            } else {
+                if (resolution.compareTo(Resolution.MINUTE) > 0 && levelResolution.compareTo(Resolution.MINUTE) < 0) {
+                    // Minutes have everything, so build on them.
+                    rollUp();
+                    level = minutes;
+                    levelResolution = Resolution.MINUTE;
+                    levelBreakdowns = breakdowns;
+                }
+                long factor = resolution.getSeconds() / levelResolution.getSeconds();
+                if (factor > 1) {
+                    level = level.coarsen(factor);
+                    levelBreakdowns = levelBreakdowns == null ? null : coarsen(levelBreakdowns, factor);
+                }
+                Map<Long, Breakdown> bucketBreakdowns = levelBreakdowns;
+                level.forEach((bucket, count, bytes, time, successful, failures, histogram, clients) -> {
+                    LogMinuteAggregator aggregator = new LogMinuteAggregator(resolution, bucket, count, bytes, time,
+                            successful, failures, histogram, clients, percentiles);
+                    aggregator.setBreakdown(bucketBreakdowns == null ? null : bucketBreakdowns.get(bucket));
+                    scale(aggregator);
+                    consumer.accept(aggregator);
+                });
+            }
+            levelResolution = resolution;
         }
     }
 
+    private void scale(LogMinuteAggregator aggregator) {
+        if (!sample.isAll()) {
+            aggregator.setSample(sample);
+        }
+    }
+
+    private TreeMap<Long, Breakdown> coarsen(TreeMap<Long, Breakdown> finer, long factor) {
+        TreeMap<Long, Breakdown> coarser = new TreeMap<>();
+        finer.forEach((bucket, breakdown) -> coarser.computeIfAbsent(Math.floorDiv(bucket, factor),
+                b -> new Breakdown(topPaths)).merge(breakdown));
+        return coarser;
+    }
+
+    @JsonIgnore
+    public boolean isEmpty() {
+        return minutes.isEmpty() && (fine == null || fine.isEmpty());
+    }
+
+    /**
+     * Minutes are keyed by the time they start, in order.  This is the only
+     * place we need to turn them into {@link DateTime}s.
+     */
     @JsonProperty
-    public SortedMap<DateTime, LogMinuteAggregator> detail() {
-        return new TreeMap<>(minutes.asMap());
+    public Map<DateTime, LogMinuteAggregator> detail() {
+        Map<DateTime, LogMinuteAggregator> detail = new LinkedHashMap<>();
+        forEachMinute(minute -> detail.put(new DateTime(minute.getMinute() * 60000), minute));
+        return detail;
     }
 
     @JsonProperty
     public LogGlobalAggregator aggregate() {
-        Set<DateTime> times = minutes.asMap().keySet();
-        if (times.isEmpty()) {
+        rollUp();
+        if (minutes.isEmpty()) {
             return null;
         }
 
-        LogGlobalAggregator aggregator = new LogGlobalAggregator();
-        minutes.asMap().values().forEach(aggregator::accept);
+        LogGlobalAggregator aggregator = new LogGlobalAggregator(percentiles);
+        forEachMinute(aggregator);
 
         return aggregator;
     }
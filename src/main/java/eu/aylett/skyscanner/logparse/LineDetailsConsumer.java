@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the details of a log line as primitives, so that the parser doesn't
+ * need to build a {@link LineDetails} for every line.
+ */
+public interface LineDetailsConsumer {
+    /**
+     * @param timestamp seconds since the epoch
+     * @param status whether the request succeeded
+     * @param bytesTransferred bytes sent, zero if the log recorded "-"
+     * @param timeTaken time taken to serve the request
+     */
+    void accept(long timestamp, StatusClass status, long bytesTransferred, long timeTaken);
+
+    /**
+     * What the parser calls, with the exact status code, the client and where
+     * to find the request in the line, for consumers that break lines down
+     * further.  The buffer is only valid during the call.  By default, passes
+     * on only what {@link #accept} takes.
+     *
+     * @param statusCode the three-digit status code
+     * @param clientHash the client address, hashed with {@link HyperLogLog#hash}
+     * @param requestStart where the request starts, including any quotes
+     * @param requestEnd where the request ends (exclusive)
+     */
+    default void acceptRequest(long timestamp, int statusCode, long bytesTransferred, long timeTaken,
+                               long clientHash, ByteBuffer buffer, int requestStart, int requestEnd) {
+        accept(timestamp, StatusClass.of(statusCode), bytesTransferred, timeTaken);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Lines waiting to be handed on in time order: a binary min-heap on
+ * timestamp, with lines from the same second kept in the order they were
+ * added, so that the result doesn't depend on how the heap is arranged.
+ * Lines are kept in slots that are reused once they've been handed on, so
+ * that holding lines doesn't allocate once it's warmed up.
+ *
+ * The heap array holds slot numbers; those past the end of the heap are the
+ * free slots.
+ */
+class LineHeap {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final boolean keepRequests;
+    private int[] heap = new int[0];
+    private long[] timestamps = new long[0];
+    private long[] sequence = new long[0];
+    private int[] statusCodes = new int[0];
+    private long[] bytes = new long[0];
+    private long[] times = new long[0];
+    private long[] clientHashes = new long[0];
+    private byte[][] requests = new byte[0][];
+    private ByteBuffer[] requestBuffers = new ByteBuffer[0];
+    private int[] requestLengths = new int[0];
+    private int size = 0;
+    private long added = 0;
+
+    LineHeap(boolean keepRequests) {
+        this.keepRequests = keepRequests;
+        grow(INITIAL_CAPACITY);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long peekTimestamp() {
+        return timestamps[heap[0]];
+    }
+
+    /**
+     * Adds a line from a batch.
+     */
+    void add(LineBatch batch, int line) {
+        if (size == heap.length) {
+            grow(heap.length * 2);
+        }
+        int slot = heap[size];
+        timestamps[slot] = batch.timestamps[line];
+        sequence[slot] = added++;
+        statusCodes[slot] = batch.statusCodes[line];
+        bytes[slot] = batch.bytes[line];
+        times[slot] = batch.times[line];
+        clientHashes[slot] = batch.clientHashes[line];
+        if (keepRequests && batch.statusCodes[line] >= 0) {
+            int length = batch.requestEnds[line] - batch.requestStarts[line];
+            if (requests[slot] == null || requests[slot].length < length) {
+                requests[slot] = new byte[Math.max(length, 64)];
+                requestBuffers[slot] = ByteBuffer.wrap(requests[slot]);
+            }
+            System.arraycopy(batch.requests, batch.requestStarts[line], requests[slot], 0, length);
+            requestLengths[slot] = length;
+        }
+        siftUp(size, slot);
+        size++;
+    }
+
+    /**
+     * Hands the earliest line to the consumer, and forgets it.
+     */
+    void poll(LineDetailsConsumer consumer) {
+        int slot = heap[0];
+        LineBatch.handOn(consumer, timestamps[slot], statusCodes[slot], bytes[slot], times[slot], clientHashes[slot],
+                requestBuffers[slot], 0, requestLengths[slot]);
+        size--;
+        int last = heap[size];
+        heap[size] = slot;
+        if (size > 0) {
+            siftDown(0, last);
+        }
+    }
+
+    private void siftUp(int index, int slot) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!before(slot, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = slot;
+    }
+
+    private void siftDown(int index, int slot) {
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], slot)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = slot;
+    }
+
+    private boolean before(int slot, int other) {
+        return timestamps[slot] < timestamps[other]
+                || timestamps[slot] == timestamps[other] && sequence[slot] < sequence[other];
+    }
+
+    private void grow(int capacity) {
+        int old = heap.length;
+        heap = Arrays.copyOf(heap, capacity);
+        for (int i = old; i < capacity; i++) {
+            heap[i] = i;
+        }
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        sequence = Arrays.copyOf(sequence, capacity);
+        statusCodes = Arrays.copyOf(statusCodes, capacity);
+        bytes = Arrays.copyOf(bytes, capacity);
+        times = Arrays.copyOf(times, capacity);
+        clientHashes = Arrays.copyOf(clientHashes, capacity);
+        requests = Arrays.copyOf(requests, capacity);
+        requestBuffers = Arrays.copyOf(requestBuffers, capacity);
+        requestLengths = Arrays.copyOf(requestLengths, capacity);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses each line from a {@link LogInput} and hands it on, counting what
+ * happens in {@link ParseStats}.
+ *
+ * When timing, one line in every {@link #TIMING_SAMPLE} is timed, and the
+ * times scaled up, so that we can tell parsing from aggregating without
+ * asking the clock twice for every line.
+ *
+ * Given a {@link Sample}, lines it doesn't pick are skipped before parsing.
+ */
+class LineIngester implements LogInput.LineSink {
+    static final int TIMING_SAMPLE = 64;
+
+    private final LineParser parser;
+    private final LineDetailsConsumer consumer;
+    private final ParseStats stats;
+    private final boolean timed;
+    private final Sample sample;
+
+    private final LineDetailsConsumer timedConsumer;
+    private long aggregateSample;
+
+    LineIngester(LineParser parser, LineDetailsConsumer consumer, ParseStats stats, boolean timed) {
+        this(parser, consumer, stats, timed, Sample.ALL);
+    }
+
+    LineIngester(LineParser parser, LineDetailsConsumer consumer, ParseStats stats, boolean timed, Sample sample) {
+        this.parser = parser;
+        this.sample = sample;
+        this.consumer = consumer;
+        this.stats = stats;
+        this.timed = timed;
+        this.timedConsumer = new LineDetailsConsumer() {
+            @Override
+            public void accept(long timestamp, StatusClass status, long bytesTransferred, long timeTaken) {
+                long start = System.nanoTime();
+                consumer.accept(timestamp, status, bytesTransferred, timeTaken);
+                aggregateSample = System.nanoTime() - start;
+            }
+
+            @Override
+            public void acceptRequest(long timestamp, int statusCode, long bytesTransferred, long timeTaken,
+                                      long clientHash, ByteBuffer buffer, int requestStart, int requestEnd) {
+                long start = System.nanoTime();
+                consumer.acceptRequest(timestamp, statusCode, bytesTransferred, timeTaken, clientHash,
+                        buffer, requestStart, requestEnd);
+                aggregateSample = System.nanoTime() - start;
+            }
+        };
+    }
+
+    @Override
+    public void line(ByteBuffer buffer, int start, int end) {
+        stats.line(end - start + 1);
+        if (!sample.picks(buffer, start, end)) {
+            stats.skipped++;
+            return;
+        }
+        if (LogLineParser.isBlank(buffer, start, end)) {
+            stats.blank();
+            return;
+        }
+        if (timed && stats.lines % TIMING_SAMPLE == 0) {
+            timedLine(buffer, start, end);
+        } else {
+            // Carry on if we don't get a line: the parser counts why.
+            parser.parse(buffer, start, end, consumer);
+        }
+    }
+
+    private void timedLine(ByteBuffer buffer, int start, int end) {
+        aggregateSample = 0;
+        long begin = System.nanoTime();
+        parser.parse(buffer, start, end, timedConsumer);
+        long total = System.nanoTime() - begin;
+        stats.parseNanos += (total - aggregateSample) * TIMING_SAMPLE;
+        stats.aggregateNanos += aggregateSample * TIMING_SAMPLE;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the details we need out of a log line, handing them to a
+ * {@link LineDetailsConsumer} without allocating.
+ */
+public interface LineParser {
+    /**
+     * Parses the line between {@code start} (inclusive) and {@code end}
+     * (exclusive), passing its details to the consumer.
+     *
+     * @return whether the line could be parsed.  If not, we'll have counted
+     * why.
+     */
+    boolean parse(ByteBuffer buffer, int start, int end, LineDetailsConsumer consumer);
+}
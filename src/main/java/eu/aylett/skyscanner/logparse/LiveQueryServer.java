@@ -0,0 +1,243 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Splitter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Answers queries over HTTP about the minutes seen so far, while lines are
+ * still being added, using the JDK's own HTTP server.
+ *
+ * {@code GET /minutes} answers with each minute in the range and the
+ * aggregate over them, shaped like the YAML output but as JSON, and
+ * {@code GET /aggregate} with just the aggregate.  The range is given by
+ * either {@code last=N}, for the last N minutes up to the latest that's seen
+ * a line, or {@code from} and {@code to}, each a time like
+ * {@code 2015-03-30T04:00:00Z} or seconds since the epoch; {@code from} is
+ * inclusive, {@code to} exclusive, and either may be left out.
+ *
+ * Queries read a {@link ConcurrentLineDetailsAggregator}, so they never hold
+ * up the lines being added, and it keeps what earlier queries read, so a
+ * day's aggregate doesn't mean reading every minute again.  Minutes more
+ * than {@code retention} before the latest are forgotten once a minute.
+ */
+public class LiveQueryServer implements AutoCloseable {
+    private static final Logger LOG = Logging.getLogger(LiveQueryServer.class);
+
+    private final HttpServer server;
+    private final ScheduledExecutorService executor;
+    private final ConcurrentLineDetailsAggregator live;
+    private final Percentiles percentiles;
+    private final JsonFactory factory = new JsonFactory();
+
+    /**
+     * Starts serving.
+     *
+     * @param retention how many minutes to keep, counting back from the
+     *                  latest
+     */
+    public LiveQueryServer(InetSocketAddress address, ConcurrentLineDetailsAggregator live, Percentiles percentiles,
+                           long retention) throws IOException {
+        this.live = live;
+        this.percentiles = percentiles;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "logparse-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(() -> {
+            long latest = live.getLatestMinute();
+            if (latest != Long.MIN_VALUE) {
+                live.removeMinutesBefore(latest - retention + 1);
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(executor);
+        server.createContext("/minutes", exchange -> answer(exchange, true));
+        server.createContext("/aggregate", exchange -> answer(exchange, false));
+        server.start();
+        LOG.info("Answering queries on {}", server.getAddress());
+    }
+
+    /**
+     * @return the port we're listening on, which is useful if we were asked
+     * for any free one.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void answer(HttpExchange exchange, boolean detail) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                respond(exchange, 405, "Only GET is supported\n");
+                return;
+            }
+            if (!exchange.getRequestURI().getPath().equals(exchange.getHttpContext().getPath())) {
+                respond(exchange, 404, "Not found\n");
+                return;
+            }
+
+            long from;
+            long to;
+            try {
+                Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+                if (parameters.containsKey("last")) {
+                    long last;
+                    try {
+                        last = Long.parseLong(parameters.get("last"));
+                    } catch (NumberFormatException e) {
+                        last = 0;
+                    }
+                    if (last <= 0 || last > Integer.MAX_VALUE
+                            || parameters.containsKey("from") || parameters.containsKey("to")) {
+                        throw new IllegalArgumentException("last needs a number of minutes above zero, "
+                                + "and can't be used with from or to");
+                    }
+                    long latest = live.getLatestMinute();
+                    to = latest == Long.MIN_VALUE ? Long.MIN_VALUE : latest + 1;
+                    from = latest == Long.MIN_VALUE ? Long.MIN_VALUE : to - last;
+                } else {
+                    from = parameters.containsKey("from") ? minute(parameters.get("from"), false) : Long.MIN_VALUE;
+                    to = parameters.containsKey("to") ? minute(parameters.get("to"), true) : Long.MAX_VALUE;
+                }
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, e.getMessage() + "\n");
+                return;
+            }
+
+            byte[] body = write(from, to, detail);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the answer as JSON: the aggregate, after each minute if asked
+     * for, as the YAML output has them.
+     */
+    byte[] write(long from, long to, boolean detail) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            if (detail) {
+                generator.writeStartObject();
+                generator.writeObjectFieldStart("detail");
+                try {
+                    live.forEachMinute(from, to, percentiles, minute -> {
+                        try {
+                            generator.writeFieldName(Timestamps.format(minute.getStartMillis()));
+                            minute.writeTo(generator);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                generator.writeEndObject();
+                generator.writeFieldName("aggregate");
+            }
+            LogGlobalAggregator aggregate = live.aggregate(from, to, percentiles);
+            if (aggregate == null) {
+                generator.writeNull();
+            } else {
+                aggregate.writeTo(generator);
+            }
+            if (detail) {
+                generator.writeEndObject();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parameters(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = newHashMap();
+        if (query != null) {
+            for (String parameter : Splitter.on('&').omitEmptyStrings().split(query)) {
+                int equals = parameter.indexOf('=');
+                if (equals < 0) {
+                    throw new IllegalArgumentException("Parameters need values: " + parameter);
+                }
+                parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * @param roundUp whether a time part way through a minute counts that
+     *                minute, as the end of a range should
+     * @return the minute a time falls in, given as seconds since the epoch
+     * or an ISO 8601 time.
+     */
+    private static long minute(String time, boolean roundUp) {
+        long seconds;
+        try {
+            seconds = Long.parseLong(time);
+        } catch (NumberFormatException e) {
+            try {
+                seconds = Math.floorDiv(DateTime.parse(time).getMillis(), 1000);
+            } catch (IllegalArgumentException notTime) {
+                throw new IllegalArgumentException("Not a time: " + time, notTime);
+            }
+        }
+        return Math.floorDiv(roundUp ? seconds + 59 : seconds, 60);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * A log format, in Apache's {@code LogFormat} style, like the default of
+ * {@code %a %l %u %t "%r" %>s %b %D}, or with nginx's {@code $variable}s.
+ *
+ * Formats are compiled once into a plan of literal text to match and fields
+ * to pick out, each field ending where the text after it starts; the plan is
+ * run by a {@link FormatLineParser}.  The default format gets the
+ * hand-written {@link LogLineParser} instead.
+ *
+ * We need a timestamp ({@code %t} or {@code $time_local}), a status
+ * ({@code %s}, {@code %>s} or {@code $status}) and the time taken
+ * ({@code %D}, {@code %T}, {@code %{ms}T} or {@code $request_time}); the
+ * client address ({@code %a}, {@code %h} or {@code $remote_addr}), request
+ * ({@code %r} or {@code $request}) and bytes sent ({@code %b}, {@code %B},
+ * {@code %O}, {@code $body_bytes_sent} or {@code $bytes_sent}) are used if
+ * they're there.  Other fields are skipped.  Times are all turned into
+ * microseconds.
+ */
+public class LogFormat {
+    static final String DEFAULT_FORMAT = "%a %l %u %t \"%r\" %>s %b %D";
+    public static final LogFormat DEFAULT = compile(DEFAULT_FORMAT);
+
+    /*
+     * Apache directives that we skip over.
+     */
+    private static final String SKIPPED_DIRECTIVES = "ACefHiIklLmnoPpqRSuUvVX";
+
+    /**
+     * What a field holds.
+     */
+    enum Field {
+        ADDRESS(0), TIMESTAMP(0), REQUEST(0), STATUS(0), BYTES(0),
+        TIME_MICROS(1), TIME_MILLIS(1000), TIME_SECONDS(1000000), SKIPPED(0);
+
+        /*
+         * For times, how many microseconds one unit is.
+         */
+        final long micros;
+
+        Field(long micros) {
+            this.micros = micros;
+        }
+
+        boolean isTime() {
+            return micros != 0;
+        }
+    }
+
+    private final String format;
+
+    // The plan: each step is either literal text or a field.
+    final byte[][] literals;
+    final Field[] fields;
+    // For a field, the text that ends it, or null if it runs to the end.
+    final byte[][] terminators;
+    // For a field, whether it's in quotes, so a backslash escapes the next byte.
+    final boolean[] quoted;
+
+    private LogFormat(String format, List<byte[]> literals, List<Field> fields) {
+        this.format = format;
+        int steps = literals.size();
+        this.literals = literals.toArray(new byte[steps][]);
+        this.fields = fields.toArray(new Field[steps]);
+        this.terminators = new byte[steps][];
+        this.quoted = new boolean[steps];
+        for (int i = 0; i < steps; i++) {
+            if (this.fields[i] != null) {
+                terminators[i] = i + 1 < steps ? this.literals[i + 1] : null;
+                byte[] before = i > 0 ? this.literals[i - 1] : null;
+                quoted[i] = before != null && before[before.length - 1] == '"';
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the format can't be used: it
+     * doesn't have the fields we need, uses a directive we don't know, or has
+     * two fields with nothing between them.
+     */
+    public static LogFormat compile(String format) {
+        List<byte[]> literals = newArrayList();
+        List<Field> fields = newArrayList();
+        Set<Field> seen = EnumSet.noneOf(Field.class);
+        StringBuilder literal = new StringBuilder();
+
+        int i = 0;
+        while (i < format.length()) {
+            char c = format.charAt(i);
+            Field field;
+            if (c == '%') {
+                if (i + 1 < format.length() && format.charAt(i + 1) == '%') {
+                    literal.append('%');
+                    i += 2;
+                    continue;
+                }
+                int directiveStart = i;
+                i++;
+                // Conditions and the original/final request markers.
+                while (i < format.length() && "<>!,0123456789".indexOf(format.charAt(i)) >= 0) {
+                    i++;
+                }
+                String parameter = null;
+                if (i < format.length() && format.charAt(i) == '{') {
+                    int close = format.indexOf('}', i);
+                    if (close < 0) {
+                        throw new IllegalArgumentException("Unclosed { in " + format.substring(directiveStart));
+                    }
+                    parameter = format.substring(i + 1, close);
+                    i = close + 1;
+                }
+                if (i == format.length()) {
+                    throw new IllegalArgumentException("Incomplete directive at the end of the format");
+                }
+                char directive = format.charAt(i++);
+                if (directive == 't') {
+                    if (parameter != null) {
+                        throw new IllegalArgumentException("Custom time formats aren't supported: "
+                                + format.substring(directiveStart, i));
+                    }
+                    // Apache writes %t in brackets.
+                    literal.append('[');
+                    addField(literals, fields, seen, literal, Field.TIMESTAMP, format);
+                    literal.append(']');
+                    continue;
+                }
+                field = directive(directive, parameter, format.substring(directiveStart, i));
+            } else if (c == '$' && i + 1 < format.length() && isVariableChar(format.charAt(i + 1))) {
+                int nameStart = ++i;
+                while (i < format.length() && isVariableChar(format.charAt(i))) {
+                    i++;
+                }
+                field = variable(format.substring(nameStart, i));
+            } else {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            addField(literals, fields, seen, literal, field, format);
+        }
+        if (literal.length() > 0) {
+            literals.add(literal.toString().getBytes(StandardCharsets.UTF_8));
+            fields.add(null);
+        }
+
+        if (!seen.contains(Field.TIMESTAMP) || !seen.contains(Field.STATUS)
+                || !(seen.contains(Field.TIME_MICROS) || seen.contains(Field.TIME_MILLIS)
+                        || seen.contains(Field.TIME_SECONDS))) {
+            throw new IllegalArgumentException("The format needs a timestamp, a status and the time taken: " + format);
+        }
+        return new LogFormat(format, literals, fields);
+    }
+
+    private static void addField(List<byte[]> literals, List<Field> fields, Set<Field> seen,
+                                 StringBuilder literal, Field field, String format) {
+        if (literal.length() > 0) {
+            literals.add(literal.toString().getBytes(StandardCharsets.UTF_8));
+            fields.add(null);
+            literal.setLength(0);
+        } else if (!fields.isEmpty() && fields.get(fields.size() - 1) != null) {
+            throw new IllegalArgumentException("Fields need something between them to tell where they end: " + format);
+        }
+        boolean needed = field != Field.SKIPPED;
+        if (needed && (field.isTime() ? seen.stream().anyMatch(Field::isTime) : seen.contains(field))) {
+            throw new IllegalArgumentException("The format has more than one " + field.name().toLowerCase()
+                    + " field: " + format);
+        }
+        seen.add(field);
+        literals.add(null);
+        fields.add(field);
+    }
+
+    private static Field directive(char directive, String parameter, String text) {
+        switch (directive) {
+            case 'a':
+            case 'h':
+                return Field.ADDRESS;
+            case 'r':
+                return Field.REQUEST;
+            case 's':
+                return Field.STATUS;
+            case 'b':
+            case 'B':
+            case 'O':
+                return Field.BYTES;
+            case 'D':
+                return Field.TIME_MICROS;
+            case 'T':
+                if (parameter == null || parameter.equals("s")) {
+                    return Field.TIME_SECONDS;
+                } else if (parameter.equals("ms")) {
+                    return Field.TIME_MILLIS;
+                } else if (parameter.equals("us")) {
+                    return Field.TIME_MICROS;
+                }
+                throw new IllegalArgumentException("Unknown time unit: " + text);
+            default:
+                if (SKIPPED_DIRECTIVES.indexOf(directive) >= 0) {
+                    return Field.SKIPPED;
+                }
+                throw new IllegalArgumentException("Unknown directive: " + text);
+        }
+    }
+
+    private static Field variable(String name) {
+        switch (name) {
+            case "remote_addr":
+                return Field.ADDRESS;
+            case "time_local":
+                return Field.TIMESTAMP;
+            case "request":
+                return Field.REQUEST;
+            case "status":
+                return Field.STATUS;
+            case "body_bytes_sent":
+            case "bytes_sent":
+                return Field.BYTES;
+            case "request_time":
+                return Field.TIME_SECONDS;
+            default:
+                return Field.SKIPPED;
+        }
+    }
+
+    private static boolean isVariableChar(char c) {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * @return a parser for lines in this format.
+     */
+    public LineParser parser(ParseStats stats, FailureSampler sampler) {
+        if (format.equals(DEFAULT_FORMAT)) {
+            return new LogLineParser(stats, sampler);
+        }
+        return new FormatLineParser(this, stats, sampler);
+    }
+
+    @Override
+    public String toString() {
+        return format;
+    }
+}
@@ -16,16 +16,27 @@
 
 package eu.aylett.skyscanner.logparse;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.joda.time.Duration;
-import org.joda.time.Instant;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonGenerator;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 
 /**
  * When fed {@link LogMinuteAggregator} instances, can output global aggregated
  * statistics.
+ *
+ * Like the minutes, it's written with {@link #writeTo}, which matches what
+ * Jackson makes of the annotations without the time it takes to do so.
  */
+@JsonPropertyOrder({"meanResponseTime", "responseTimePercentiles", "durationInMinutes", "distinctClients", "successfulPerMinute", "failuresPerMinute",
+        "timeSpentRespondingPerMinute", "mbSentPerMinute", "confidenceIntervals", "breakdown"})
 public class LogGlobalAggregator implements Consumer<LogMinuteAggregator> {
 
     private long totalSuccessful = 0;
@@ -34,8 +45,22 @@ public class LogGlobalAggregator implements Consumer<LogMinuteAggregator> {
     private long totalBytes = 0;
     private long totalCount = 0;
 
-    private Instant earliest = null;
-    private Instant latest = null;
+    private long earliest = Long.MAX_VALUE;
+    private long latest = Long.MIN_VALUE;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final HyperLogLog clients = new HyperLogLog();
+    private final Percentiles percentiles;
+    private Breakdown breakdown;
+    private Sample sample = Sample.ALL;
+
+    public LogGlobalAggregator() {
+        this(Percentiles.DEFAULT);
+    }
+
+    public LogGlobalAggregator(Percentiles percentiles) {
+        this.percentiles = percentiles;
+    }
 
     @Override
     public void accept(LogMinuteAggregator minuteAggregation) {
@@ -44,19 +69,63 @@ public class LogGlobalAggregator implements Consumer<LogMinuteAggregator> {
         totalTime += minuteAggregation.getTime();
         totalBytes += minuteAggregation.getBytes();
         totalCount += minuteAggregation.getCount();
+        histogram.merge(minuteAggregation.getHistogram());
+        clients.merge(minuteAggregation.getClients());
+        Breakdown minuteBreakdown = minuteAggregation.getBreakdown();
+        if (minuteBreakdown != null) {
+            if (breakdown == null) {
+                breakdown = new Breakdown(minuteBreakdown.getTopPathsCapacity());
+            }
+            breakdown.merge(minuteBreakdown);
+        }
+
+        if (!minuteAggregation.getSample().isAll()) {
+            sample = minuteAggregation.getSample();
+        }
+
+        long minute = minuteAggregation.getMinute();
+        earliest = Math.min(earliest, minute);
+        latest = Math.max(latest, minute);
+    }
 
-        Instant i = minuteAggregation.getMinute().toInstant();
-        if (earliest == null || earliest.compareTo(i) > 0) {
-            earliest = i;
+    /**
+     * Adds everything another aggregate has seen, as if its minutes had been
+     * fed to this one too.
+     */
+    public void merge(LogGlobalAggregator other) {
+        totalSuccessful += other.totalSuccessful;
+        totalFailures += other.totalFailures;
+        totalTime += other.totalTime;
+        totalBytes += other.totalBytes;
+        totalCount += other.totalCount;
+        histogram.merge(other.histogram);
+        clients.merge(other.clients);
+        if (other.breakdown != null) {
+            if (breakdown == null) {
+                breakdown = new Breakdown(other.breakdown.getTopPathsCapacity());
+            }
+            breakdown.merge(other.breakdown);
         }
-        if (latest == null || latest.compareTo(i) < 0) {
-            latest = i;
+        if (!other.sample.isAll()) {
+            sample = other.sample;
         }
+        earliest = Math.min(earliest, other.earliest);
+        latest = Math.max(latest, other.latest);
     }
 
     @JsonProperty
     public long getDurationInMinutes() {
-        return new Duration(earliest, latest.plus(Duration.standardMinutes(1))).getStandardMinutes();
+        return latest - earliest + 1;
+    }
+
+    /**
+     * @return roughly how many different clients there were over the whole
+     * time, from merging each minute's registers, so a client seen in many
+     * minutes only counts once.
+     */
+    @JsonProperty
+    public long getDistinctClients() {
+        return clients.estimate();
     }
 
     @JsonProperty
@@ -74,6 +143,14 @@ public class LogGlobalAggregator implements Consumer<LogMinuteAggregator> {
         return totalTime/totalCount;
     }
 
+    /**
+     * Percentiles over every line, from the merged histograms of each minute.
+     */
+    @JsonProperty
+    public Map<String, Long> getResponseTimePercentiles() {
+        return percentiles.of(histogram);
+    }
+
     @JsonProperty
     public long getTimeSpentRespondingPerMinute() {
         return totalTime/getDurationInMinutes();
@@ -83,4 +160,81 @@ public class LogGlobalAggregator implements Consumer<LogMinuteAggregator> {
     public double getMbSentPerMinute() {
         return (double)totalBytes/(1024*1024*getDurationInMinutes());
     }
+
+    /**
+     * @return 95% confidence intervals for the estimates, as the lowest and
+     * highest likely values, or null if every line was counted.  They're
+     * only as good as the minutes' sample was random.
+     */
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Map<String, List<Double>> getConfidenceIntervals() {
+        if (sample.isAll()) {
+            return null;
+        }
+        long oneIn = sample.getOneIn();
+        double duration = getDurationInMinutes();
+        Map<String, List<Double>> intervals = new LinkedHashMap<>();
+        intervals.put("successfulPerMinute", interval(getSuccessfulPerMinute(),
+                sample.totalMargin(totalSuccessful / oneIn) / duration));
+        intervals.put("failuresPerMinute", interval(getFailuresPerMinute(),
+                sample.totalMargin(totalFailures / oneIn) / duration));
+        intervals.put("meanResponseTime", interval(getMeanResponseTime(),
+                sample.meanMargin(histogram.variance((double) totalTime / totalCount), histogram.getTotal())));
+        intervals.put("timeSpentRespondingPerMinute", interval(getTimeSpentRespondingPerMinute(),
+                sample.totalMargin(histogram.sumOfSquares()) / duration));
+        return intervals;
+    }
+
+    private static List<Double> interval(double estimate, double margin) {
+        return Arrays.asList(Math.max(0, estimate - margin), estimate + margin);
+    }
+
+    /**
+     * Writes the aggregate as an object, as Jackson would from the
+     * annotations.
+     */
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("meanResponseTime", getMeanResponseTime());
+        generator.writeObjectFieldStart("responseTimePercentiles");
+        for (Map.Entry<String, Long> percentile : getResponseTimePercentiles().entrySet()) {
+            generator.writeNumberField(percentile.getKey(), percentile.getValue());
+        }
+        generator.writeEndObject();
+        generator.writeNumberField("durationInMinutes", getDurationInMinutes());
+        generator.writeNumberField("distinctClients", getDistinctClients());
+        generator.writeNumberField("successfulPerMinute", getSuccessfulPerMinute());
+        generator.writeNumberField("failuresPerMinute", getFailuresPerMinute());
+        generator.writeNumberField("timeSpentRespondingPerMinute", getTimeSpentRespondingPerMinute());
+        generator.writeNumberField("mbSentPerMinute", getMbSentPerMinute());
+        Map<String, List<Double>> intervals = getConfidenceIntervals();
+        if (intervals != null) {
+            generator.writeObjectFieldStart("confidenceIntervals");
+            for (Map.Entry<String, List<Double>> interval : intervals.entrySet()) {
+                generator.writeArrayFieldStart(interval.getKey());
+                for (double value : interval.getValue()) {
+                    generator.writeNumber(value);
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+        }
+        if (breakdown != null) {
+            generator.writeFieldName("breakdown");
+            breakdown.writeTo(generator);
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Totals, rather than per minute, merged from each minute's breakdown.
+     * The top paths are only as good as merging sketches allows, so their
+     * possible overestimates add up.
+     */
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Breakdown getBreakdown() {
+        return breakdown;
+    }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A source of log lines.
+ */
+public interface LogInput extends Closeable {
+    /**
+     * Receives lines, without their line terminators.  The range is only valid
+     * until the call returns.
+     */
+    interface LineSink {
+        void line(ByteBuffer buffer, int start, int end);
+
+        /**
+         * Called when an input that waits for more lines has caught up and is
+         * about to wait.
+         */
+        default void idle() {
+        }
+    }
+
+    /**
+     * Hands every line to the sink, in order.
+     */
+    void readLines(LineSink sink) throws IOException;
+}
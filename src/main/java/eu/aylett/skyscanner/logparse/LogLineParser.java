@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.slf4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Scans log lines in the format {@code %a %l %u %t "%r" %>s %b %D} straight
+ * out of a byte buffer, without allocating.
+ *
+ * This accepts exactly the lines the old regular expression
+ * {@code \S+ \S+ \S+ \[(\S+ \S+)] .* (\d{3}) (\d+|-) (\d+)} did: the first
+ * four fields are read forwards, and the last three backwards so that the
+ * request may contain anything at all.
+ *
+ * Lines that don't parse are counted in {@link ParseStats} by why, and some
+ * of them logged, as chosen by a {@link FailureSampler}.
+ */
+public class LogLineParser implements LineParser {
+    private static final Logger LOG = Logging.getLogger(LogLineParser.class);
+
+    private final TimestampDecoder timestampDecoder = new TimestampDecoder();
+    private final ParseStats stats;
+    private final FailureSampler sampler;
+
+    public LogLineParser() {
+        this(new ParseStats(), new FailureSampler());
+    }
+
+    public LogLineParser(ParseStats stats, FailureSampler sampler) {
+        this.stats = stats;
+        this.sampler = sampler;
+    }
+
+    @Override
+    public boolean parse(ByteBuffer buffer, int start, int end, LineDetailsConsumer consumer) {
+        // Address, logname and user: three tokens, each followed by a space.
+        int p = start;
+        int addressEnd = start;
+        for (int i = 0; i < 3; i++) {
+            int tokenStart = p;
+            while (p < end && !isWhitespace(buffer.get(p))) {
+                p++;
+            }
+            if (p == tokenStart || p == end || buffer.get(p) != ' ') {
+                return mismatch(buffer, start, end);
+            }
+            if (i == 0) {
+                addressEnd = p;
+            }
+            p++;
+        }
+
+        // Timestamp: "[" token " " token "] "
+        if (p == end || buffer.get(p) != '[') {
+            return mismatch(buffer, start, end);
+        }
+        int timestampStart = ++p;
+        int spaces = 0;
+        while (p < end && buffer.get(p) != ']') {
+            byte b = buffer.get(p);
+            if (b == ' ') {
+                spaces++;
+            } else if (isWhitespace(b)) {
+                return mismatch(buffer, start, end);
+            }
+            p++;
+        }
+        int timestampEnd = p;
+        if (p + 1 >= end || buffer.get(p + 1) != ' ' || spaces != 1
+                || buffer.get(timestampStart) == ' ' || buffer.get(timestampEnd - 1) == ' ') {
+            return mismatch(buffer, start, end);
+        }
+        int requestStart = p + 2;
+
+        // Time taken, bytes and status, reading backwards from the end.
+        int q = end;
+        int timeStart = digitsBefore(buffer, requestStart, q);
+        if (timeStart == q || timeStart == requestStart || buffer.get(timeStart - 1) != ' ') {
+            return mismatch(buffer, start, end);
+        }
+        int timeEnd = q;
+        q = timeStart - 1;
+
+        int bytesEnd = q;
+        int bytesStart = q > requestStart && buffer.get(q - 1) == '-' ? q - 1 : digitsBefore(buffer, requestStart, q);
+        if (bytesStart == bytesEnd || bytesStart == requestStart || buffer.get(bytesStart - 1) != ' ') {
+            return mismatch(buffer, start, end);
+        }
+        q = bytesStart - 1;
+
+        int statusStart = q - 3;
+        if (statusStart <= requestStart || digitsBefore(buffer, statusStart, q) != statusStart
+                || buffer.get(statusStart - 1) != ' ') {
+            return mismatch(buffer, start, end);
+        }
+
+        long timestamp = timestampDecoder.decode(buffer, timestampStart, timestampEnd);
+        if (timestamp == TimestampDecoder.INVALID) {
+            stats.failed(ParseFailure.TIMESTAMP);
+            if (sampler.shouldLog(ParseFailure.TIMESTAMP)) {
+                LOG.error("Failed to parse timestamp \"{}\" from {}", describe(buffer, timestampStart, timestampEnd), describe(buffer, start, end));
+            }
+            return false;
+        }
+
+        int statusCode = (buffer.get(statusStart) - '0') * 100 + (buffer.get(statusStart + 1) - '0') * 10
+                + buffer.get(statusStart + 2) - '0';
+
+        long bytesTransferred;
+        if (buffer.get(bytesStart) == '-') {
+            bytesTransferred = 0;
+        } else {
+            bytesTransferred = parseLong(buffer, bytesStart, bytesEnd);
+            if (bytesTransferred < 0) {
+                stats.failed(ParseFailure.BYTES);
+                if (sampler.shouldLog(ParseFailure.BYTES)) {
+                    LOG.error("Failed to read number of bytes \"{}\" from {}", describe(buffer, bytesStart, bytesEnd), describe(buffer, start, end));
+                }
+                return false;
+            }
+        }
+
+        long timeTaken = parseLong(buffer, timeStart, timeEnd);
+        if (timeTaken < 0) {
+            stats.failed(ParseFailure.TIME);
+            if (sampler.shouldLog(ParseFailure.TIME)) {
+                LOG.error("Failed to read time taken \"{}\" from {}", describe(buffer, timeStart, timeEnd), describe(buffer, start, end));
+            }
+            return false;
+        }
+
+        long clientHash = HyperLogLog.hash(buffer, start, addressEnd);
+        consumer.acceptRequest(timestamp, statusCode, bytesTransferred, timeTaken, clientHash,
+                buffer, requestStart, statusStart - 1);
+        return true;
+    }
+
+    /**
+     * Whether the line is empty or only contains whitespace, in which case we
+     * should skip it rather than failing to parse it.
+     */
+    public static boolean isBlank(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if ((buffer.get(i) & 0xff) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the value of the digits, or -1 if it doesn't fit in a long.
+     */
+    private static long parseLong(ByteBuffer buffer, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int d = buffer.get(i) - '0';
+            if (value > (Long.MAX_VALUE - d) / 10) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    /**
+     * @return the start of the run of digits ending at {@code end}, but no
+     * earlier than {@code limit}.
+     */
+    private static int digitsBefore(ByteBuffer buffer, int limit, int end) {
+        int p = end;
+        while (p > limit) {
+            byte b = buffer.get(p - 1);
+            if (b < '0' || b > '9') {
+                break;
+            }
+            p--;
+        }
+        return p;
+    }
+
+    /*
+     * Whitespace as far as the regex's \s is concerned.
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0b || b == '\f' || b == '\r';
+    }
+
+    private boolean mismatch(ByteBuffer buffer, int start, int end) {
+        stats.failed(ParseFailure.MISMATCH);
+        if (sampler.shouldLog(ParseFailure.MISMATCH)) {
+            LOG.error("Failed to match line: {}", describe(buffer, start, end));
+        }
+        return false;
+    }
+
+    static String describe(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -17,40 +17,106 @@
 package eu.aylett.skyscanner.logparse;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.base.Preconditions;
-import org.joda.time.DateTime;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 
 /**
  * Takes a collection of {@link LineDetails} from a single minute and aggregates
  * their stats.
+ *
+ * {@link LineDetailsAggregator} keeps its counters in a {@link MinuteStore},
+ * and only makes one of these for each minute when it needs to report on it.
+ *
+ * If only a {@link Sample} of lines were counted, the counters are scaled up
+ * to estimates for every line, and come with confidence intervals.
+ *
+ * The Jackson annotations describe the output, but our writers use
+ * {@link #writeTo}, which writes the same by hand: working out a serializer
+ * from the annotations takes longer than a small log does to parse.
  */
-public class LogMinuteAggregator implements Consumer<LineDetails> {
-    private final DateTime minute;
+@JsonPropertyOrder({"successful", "failures", "distinctClients", "meanResponseTime", "responseTimePercentiles", "mbSent", "confidenceIntervals",
+        "breakdown"})
+public class LogMinuteAggregator implements Consumer<LineDetails>, LineDetailsConsumer {
+    private final Resolution resolution;
+    private final long minute;
     private long count;
     private long bytes;
     private long time;
     private long successful;
     private long failures;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final HyperLogLog clients = new HyperLogLog();
+    private final Percentiles percentiles;
+    private Breakdown breakdown;
+    private Sample sample = Sample.ALL;
 
-    public LogMinuteAggregator(DateTime minute) {
+    /**
+     * @param minute minutes since the epoch
+     */
+    public LogMinuteAggregator(long minute) {
+        this.resolution = Resolution.MINUTE;
         this.minute = minute;
         count = 0;
         bytes = 0;
         time = 0;
         successful = 0;
         failures = 0;
+        percentiles = Percentiles.DEFAULT;
+    }
+
+    /**
+     * @param histogram bucket counts, as kept by {@link MinuteStore}
+     * @param clients client registers, as kept by {@link MinuteStore}
+     */
+    public LogMinuteAggregator(long minute, long count, long bytes, long time, long successful, long failures,
+                               int[] histogram, byte[] clients, Percentiles percentiles) {
+        this(Resolution.MINUTE, minute, count, bytes, time, successful, failures, histogram, clients, percentiles);
+    }
+
+    /**
+     * For a bucket of another length, which this otherwise treats as a
+     * minute.
+     *
+     * @param bucket buckets of that length since the epoch
+     */
+    public LogMinuteAggregator(Resolution resolution, long bucket, long count, long bytes, long time,
+                               long successful, long failures, int[] histogram, byte[] clients,
+                               Percentiles percentiles) {
+        this.resolution = resolution;
+        this.minute = bucket;
+        this.count = count;
+        this.bytes = bytes;
+        this.time = time;
+        this.successful = successful;
+        this.failures = failures;
+        this.histogram.add(histogram);
+        this.clients.merge(clients);
+        this.percentiles = percentiles;
     }
 
     @Override
     public void accept(LineDetails line) {
-        Preconditions.checkState(line.timestamp.withSecondOfMinute(0).equals(minute), "Passed a line with a different minute");
+        accept(line.timestamp, line.status, line.bytesTransferred, line.timeTaken);
+    }
+
+    @Override
+    public void accept(long timestamp, StatusClass status, long bytesTransferred, long timeTaken) {
+        Preconditions.checkState(resolution.bucket(timestamp) == minute, "Passed a line with a different minute");
         count++;
-        bytes += line.bytesTransferred;
-        time += line.timeTaken;
-        switch (line.status) {
+        bytes += bytesTransferred;
+        time += timeTaken;
+        histogram.record(timeTaken);
+        switch (status) {
             case SUCCESS:
                 successful++;
                 break;
@@ -62,6 +128,27 @@ public class LogMinuteAggregator implements Consumer<LineDetails> {
         }
     }
 
+    /**
+     * Adds the lines another aggregator has seen for the same minute.
+     */
+    public void merge(LogMinuteAggregator other) {
+        Preconditions.checkArgument(other.minute == minute && other.resolution.equals(resolution),
+                "Merging a different minute");
+        count += other.count;
+        bytes += other.bytes;
+        time += other.time;
+        successful += other.successful;
+        failures += other.failures;
+        histogram.merge(other.histogram);
+        clients.merge(other.clients);
+        if (other.breakdown != null) {
+            if (breakdown == null) {
+                breakdown = new Breakdown(other.breakdown.getTopPathsCapacity());
+            }
+            breakdown.merge(other.breakdown);
+        }
+    }
+
     @JsonProperty
     public long getSuccessful() {
         return successful;
@@ -72,6 +159,20 @@ public class LogMinuteAggregator implements Consumer<LineDetails> {
         return failures;
     }
 
+    /**
+     * @return roughly how many different client addresses made requests, to
+     * within about 1.6%.  Lines without an address don't count.
+     */
+    @JsonProperty
+    public long getDistinctClients() {
+        return clients.estimate();
+    }
+
+    @JsonIgnore
+    public HyperLogLog getClients() {
+        return clients;
+    }
+
     @JsonIgnore
     public long getCount() {
         return count;
@@ -92,13 +193,139 @@ public class LogMinuteAggregator implements Consumer<LineDetails> {
         return time/count;
     }
 
+    @JsonProperty
+    public Map<String, Long> getResponseTimePercentiles() {
+        return percentiles.of(histogram);
+    }
+
+    @JsonIgnore
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
     @JsonProperty
     public double getMbSent() {
         return (double)bytes/(1024*1024);
     }
 
+    /**
+     * @return the minute broken down by status code and path, or null if
+     * we weren't asked to.
+     */
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Breakdown getBreakdown() {
+        return breakdown;
+    }
+
+    void setBreakdown(Breakdown breakdown) {
+        this.breakdown = breakdown;
+    }
+
+    /**
+     * Scales the counters up, from the lines the sample picked to estimates
+     * for every line.
+     */
+    void setSample(Sample sample) {
+        Preconditions.checkState(this.sample.isAll(), "Already scaled up from a sample");
+        this.sample = sample;
+        count = sample.scale(count);
+        bytes = sample.scale(bytes);
+        time = sample.scale(time);
+        successful = sample.scale(successful);
+        failures = sample.scale(failures);
+    }
+
     @JsonIgnore
-    public DateTime getMinute() {
+    public Sample getSample() {
+        return sample;
+    }
+
+    /**
+     * @return 95% confidence intervals for the estimates, as the lowest and
+     * highest likely values, or null if every line was counted.  The
+     * histogram's buckets stand in for the response times.
+     */
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Map<String, List<Long>> getConfidenceIntervals() {
+        if (sample.isAll()) {
+            return null;
+        }
+        long oneIn = sample.getOneIn();
+        Map<String, List<Long>> intervals = new LinkedHashMap<>();
+        intervals.put("successful", interval(successful, sample.totalMargin(successful / oneIn)));
+        intervals.put("failures", interval(failures, sample.totalMargin(failures / oneIn)));
+        intervals.put("meanResponseTime", interval(getMeanResponseTime(),
+                sample.meanMargin(histogram.variance((double) time / count), histogram.getTotal())));
+        return intervals;
+    }
+
+    private static List<Long> interval(long estimate, double margin) {
+        return Arrays.asList(Math.max(0, Math.round(estimate - margin)), Math.round(estimate + margin));
+    }
+
+    /**
+     * Writes the minute as an object, as Jackson would from the annotations.
+     */
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        writeFields(generator);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes the minute's fields into an object that's already been
+     * started, as Jackson would unwrap them.
+     */
+    public void writeFields(JsonGenerator generator) throws IOException {
+        generator.writeNumberField("successful", successful);
+        generator.writeNumberField("failures", failures);
+        generator.writeNumberField("distinctClients", getDistinctClients());
+        generator.writeNumberField("meanResponseTime", getMeanResponseTime());
+        generator.writeObjectFieldStart("responseTimePercentiles");
+        for (Map.Entry<String, Long> percentile : getResponseTimePercentiles().entrySet()) {
+            generator.writeNumberField(percentile.getKey(), percentile.getValue());
+        }
+        generator.writeEndObject();
+        generator.writeNumberField("mbSent", getMbSent());
+        Map<String, List<Long>> intervals = getConfidenceIntervals();
+        if (intervals != null) {
+            generator.writeObjectFieldStart("confidenceIntervals");
+            for (Map.Entry<String, List<Long>> interval : intervals.entrySet()) {
+                generator.writeArrayFieldStart(interval.getKey());
+                for (long value : interval.getValue()) {
+                    generator.writeNumber(value);
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+        }
+        if (breakdown != null) {
+            generator.writeFieldName("breakdown");
+            breakdown.writeTo(generator);
+        }
+    }
+
+    /**
+     * @return minutes since the epoch, or buckets for other resolutions
+     */
+    @JsonIgnore
+    public long getMinute() {
         return minute;
     }
+
+    @JsonIgnore
+    public Resolution getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @return when the minute or bucket starts, in milliseconds since the
+     * epoch.
+     */
+    @JsonIgnore
+    public long getStartMillis() {
+        return minute * resolution.getSeconds() * 1000;
+    }
 }
@@ -17,144 +17,902 @@
 package eu.aylett.skyscanner.logparse;
 
 import ch.qos.logback.classic.Level;
-import ch.qos.logback.classic.LoggerContext;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.google.common.base.Throwables;
 import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.collect.Lists.newArrayList;
-import static org.slf4j.Logger.ROOT_LOGGER_NAME;
 
 /**
  * Main log-parsing class.  Puts everything together and runs it.
  */
 public class LogParse {
-    private static final Logger LOG = LoggerFactory.getLogger(LogParse.class);
-    private final boolean aggregate;
-    private final boolean detail;
-    private final List<BufferedReader> inputs;
-    private final ObjectMapper mapper;
-
-    public LogParse(boolean aggregate, boolean detail, List<BufferedReader> inputs, ObjectMapper mapper) {
-        this.aggregate = aggregate;
-        this.detail = detail;
+    private static final Logger LOG = Logging.getLogger(LogParse.class);
+    private static final long FOLLOW_POLL_MILLIS = 250;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+    /*
+     * Every minute keeps an entry for each path, so don't let a typo cost
+     * gigabytes.
+     */
+    private static final long MAX_TOP_PATHS = 10000;
+
+    private final LogParseOptions options;
+    private final List<LogInput> inputs;
+    private final JsonFactory factory;
+    private final IngestionState state;
+    private final FailureSampler sampler;
+    // What --http queries read, if asked for.
+    private final ConcurrentLineDetailsAggregator live;
+    // Standard output, shared by the results and alerts.
+    private final Writer out = new OutputStreamWriter(System.out);
+
+    public LogParse(LogParseOptions options, List<LogInput> inputs, JsonFactory factory) {
+        this(options, inputs, factory, null);
+    }
+
+    /**
+     * @param state what earlier runs saw, with the inputs covering only
+     * what's new since; it's saved to {@link LogParseOptions#state} once
+     * the new lines are merged in.
+     */
+    public LogParse(LogParseOptions options, List<LogInput> inputs, JsonFactory factory, IngestionState state) {
+        this.options = options;
         this.inputs = inputs;
-        this.mapper = mapper;
+        this.factory = factory;
+        this.state = state;
+        this.sampler = new FailureSampler(options.failureExamples, options.failureLogEvery);
+        this.live = options.http == null ? null : new ConcurrentLineDetailsAggregator();
     }
 
     public static void main(String args[]) throws IOException {
 
         // Read arguments
 
-        boolean aggregate = true;
-        boolean detail = true;
+        LogParseOptions options = new LogParseOptions();
         boolean verbose = false;
-        List<BufferedReader> inputs = newArrayList();
-        for (String arg : args) {
+        boolean mmap = true;
+        List<String> files = newArrayList();
+        Iterator<String> argIterator = Arrays.asList(args).iterator();
+        while (argIterator.hasNext()) {
+            String arg = argIterator.next();
             switch (arg) {
                 case "--no-aggregate":
-                    aggregate = false;
+                    options.aggregate = false;
                     break;
                 case "--no-detail":
-                    detail = false;
+                    options.detail = false;
+                    break;
+                case "--no-mmap":
+                    mmap = false;
+                    break;
+                case "--threads":
+                    options.threads = (int) numberArgument(arg, argIterator, 1, Integer.MAX_VALUE);
+                    break;
+                case "--follow":
+                    options.follow = true;
+                    break;
+                case "--lateness":
+                    options.lateness = numberArgument(arg, argIterator, 0, Long.MAX_VALUE / 2);
+                    break;
+                case "--merge":
+                    options.merge = true;
+                    break;
+                case "--merge-window":
+                    options.merge = true;
+                    options.mergeWindow = numberArgument(arg, argIterator, 0, Long.MAX_VALUE / 2);
+                    break;
+                case "--http":
+                    options.http = addressArgument(arg, argIterator);
+                    break;
+                case "--http-minutes":
+                    options.httpMinutes = numberArgument(arg, argIterator, 1, Integer.MAX_VALUE);
+                    break;
+                case "--format":
+                    options.format = formatArgument(arg, argIterator);
+                    break;
+                case "--percentiles":
+                    options.percentiles = percentilesArgument(arg, argIterator);
+                    break;
+                case "--log-format":
+                    options.logFormat = logFormatArgument(arg, argIterator);
+                    break;
+                case "--resolution":
+                    options.resolutions = resolutionsArgument(arg, argIterator);
+                    break;
+                case "--sample":
+                    options.sample = sampleArgument(arg, argIterator);
+                    break;
+                case "--top-paths":
+                    options.topPaths = (int) numberArgument(arg, argIterator, 1, MAX_TOP_PATHS);
+                    break;
+                case "--rollup":
+                    options.readRollups.add(Paths.get(pathArgument(arg, argIterator)));
+                    break;
+                case "--write-rollup":
+                    options.writeRollup = Paths.get(pathArgument(arg, argIterator));
+                    break;
+                case "--state":
+                    options.state = Paths.get(pathArgument(arg, argIterator));
+                    break;
+                case "--history":
+                    options.history = Paths.get(pathArgument(arg, argIterator));
+                    break;
+                case "--alerts":
+                    options.alerts = alertsArgument(arg, argIterator);
+                    break;
+                case "--alert-log":
+                    options.alertLog = Paths.get(pathArgument(arg, argIterator));
+                    break;
+                case "--stats":
+                    options.stats = true;
+                    break;
+                case "--stats-interval":
+                    options.stats = true;
+                    options.statsInterval = numberArgument(arg, argIterator, 1, Long.MAX_VALUE / 1000);
+                    break;
+                case "--failure-examples":
+                    options.failureExamples = numberArgument(arg, argIterator, 0, Long.MAX_VALUE / 2);
+                    break;
+                case "--failure-log-every":
+                    options.failureLogEvery = numberArgument(arg, argIterator, 0, Long.MAX_VALUE);
                     break;
                 case "--verbose":
                 case "-v":
                     verbose = true;
                     break;
-                case "-":
-                    inputs.add(new BufferedReader(new InputStreamReader(System.in)));
-                    break;
                 case "--help":
-                    System.out.println("Options: [--no-aggregate] [--no-detail] [files...]");
+                    System.out.println("Options: [--no-aggregate] [--no-detail] [--no-mmap] [--threads N]");
+                    System.out.println("         [--format yaml|jsonl|csv] [--percentiles LIST] [--top-paths K]");
+                    System.out.println("         [--resolution LIST] [--sample RATE]");
+                    System.out.println("         [--log-format FORMAT] [--follow [--lateness SECONDS]]");
+                    System.out.println("         [--merge [--merge-window SECONDS]]");
+                    System.out.println("         [--http [HOST:]PORT [--http-minutes N]]");
+                    System.out.println("         [--rollup FILE]... [--write-rollup FILE] [--state FILE]");
+                    System.out.println("         [--history DIRECTORY] [--alerts RULES [--alert-log FILE]]");
+                    System.out.println("         [--stats] [--stats-interval SECONDS] [--failure-examples N]");
+                    System.out.println("         [--failure-log-every N] [files...]");
                     System.out.println("StdIn can be represented by '-' or by not providing any files");
+                    System.out.println("--follow reads a single file as it grows, writing each minute once it's");
+                    System.out.println("seen lines at least --lateness seconds (default 60) after its end");
+                    System.out.println("--merge reads every file at once, merging their lines in time order and");
+                    System.out.println("writing each minute as it closes; lines more than --merge-window seconds");
+                    System.out.println("(default 60) behind others from the same file are dropped");
+                    System.out.println("--http answers queries for /minutes and /aggregate, with ?last=N or");
+                    System.out.println("?from=TIME&to=TIME, about the last --http-minutes (default 1440) minutes");
+                    System.out.println("while following or merging, on localhost unless a host is given");
+                    System.out.println("CSV holds the minutes, or with --no-detail the aggregate, but not both");
+                    System.out.println("--percentiles sets the response time percentiles to report, like the");
+                    System.out.println("default of " + Percentiles.DEFAULT.toString().replace("p", ""));
+                    System.out.println("--log-format reads logs in another Apache LogFormat or nginx log_format,");
+                    System.out.println("instead of the default of " + LogFormat.DEFAULT);
+                    System.out.println("--resolution reports buckets of each length given, like 1s,1m,1h,1d,");
+                    System.out.println("instead of minutes; each must fit a whole number of times in the next");
+                    System.out.println("--sample counts only a fraction of the lines, like 0.01, picked before");
+                    System.out.println("parsing, and scales up the results, with 95% confidence intervals");
+                    System.out.println("--top-paths breaks each minute down by status code and the K busiest");
+                    System.out.println("paths; it only covers lines parsed in this run, and isn't in CSV");
+                    System.out.println("--write-rollup appends the per-minute totals to a file that later runs");
+                    System.out.println("can read with --rollup instead of parsing the logs again");
+                    System.out.println("--stats reports throughput, timings and failures on stderr at the end,");
+                    System.out.println("and with --stats-interval every so often while running");
+                    System.out.println("Only the first --failure-examples (default 10) lines that fail to parse");
+                    System.out.println("for each reason are logged, then one in every --failure-log-every");
+                    System.out.println("--state remembers how far each file has been read, and what was in it,");
+                    System.out.println("so that the next run with the same state file only reads new lines");
+                    System.out.println("--history keeps every minute in memory-mapped files in a directory, and");
+                    System.out.println("reports on all of them; each run adds the lines new since the last, so");
+                    System.out.println("logs need --state");
+                    System.out.println("--alerts checks each minute against the rules in a YAML file, writing");
+                    System.out.println("a JSON line when one starts or stops firing, to --alert-log if given");
                     return;
                 default:
-                    try {
-                        inputs.add(Files.newBufferedReader(Paths.get(arg)));
-                    } catch (NoSuchFileException e) {
-                        LOG.error("File \"{}\" does not exist.", arg);
-                        System.exit(1);
-                    }
+                    files.add(arg);
                     break;
             }
         }
 
-        // Set up logging
-        Level loggerLevel = verbose ? Level.DEBUG : Level.ERROR;
-        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
-        loggerContext.getLogger(ROOT_LOGGER_NAME).setLevel(loggerLevel);
+        // Set up logging, which only starts Logback if something's logged.
+        Logging.setLevel(verbose ? Level.DEBUG : Level.ERROR);
 
         // Sanity Checks
 
         LOG.debug("Verbose: {}", verbose);
-        LOG.debug("Detail: {}", detail);
-        LOG.debug("Aggregate: {}", aggregate);
+        LOG.debug("Options: {}", options);
+
+        if (options.follow && files.size() > 1) {
+            LOG.error("Can only follow one file");
+            System.exit(1);
+        }
+
+        if (options.follow && options.merge) {
+            LOG.error("Can not merge logs while following a log");
+            System.exit(1);
+        }
+
+        if (options.http != null && !(options.follow || options.merge)) {
+            LOG.error("Can only answer queries when following or merging logs");
+            System.exit(1);
+        }
+
+        if ((options.follow || options.merge)
+                && !options.resolutions.equals(Collections.singletonList(Resolution.MINUTE))) {
+            LOG.error("Can only report minutes when following or merging logs");
+            System.exit(1);
+        }
+
+        if ((options.follow || options.merge) && (options.writeRollup != null || !options.readRollups.isEmpty())) {
+            LOG.error("Can not use rollup files when following or merging logs");
+            System.exit(1);
+        }
 
-        if (inputs.isEmpty()) {
+        if (options.history != null && (options.follow || options.merge || options.writeRollup != null)) {
+            LOG.error("--history can not be used when following or merging logs, or with --write-rollup");
+            System.exit(1);
+        }
+
+        // Anything read without a state would be added to the history again
+        // by the next run, or a retry.
+        if (options.history != null && !options.readRollups.isEmpty()) {
+            LOG.error("--history can not be used with --rollup, which would add the rollup to it on every run");
+            System.exit(1);
+        }
+
+        if (options.history != null && !files.isEmpty() && options.state == null) {
+            LOG.error("--history needs --state to read logs, so that each line is only added to it once");
+            System.exit(1);
+        }
+
+        if (!options.sample.isAll() && (options.http != null || options.writeRollup != null
+                || !options.readRollups.isEmpty() || options.state != null || options.history != null)) {
+            LOG.error("--sample can not be used with --http, or with rollup, state or history files");
+            System.exit(1);
+        }
+
+        if (options.state != null && (options.follow || options.merge || files.isEmpty() || files.contains("-"))) {
+            LOG.error("--state needs log files, and can not be used when following or merging logs");
+            System.exit(1);
+        }
+
+        if (options.alertLog != null && options.alerts == null) {
+            LOG.error("--alert-log needs --alerts");
+            System.exit(1);
+        }
+
+        if (options.alerts != null && options.alertLog == null && (options.detail || options.aggregate)) {
+            LOG.error("Alerts go to standard output without --alert-log, so need --no-detail --no-aggregate");
+            System.exit(1);
+        }
+
+        for (Path rollup : options.readRollups) {
+            if (!Files.isRegularFile(rollup)) {
+                LOG.error("Rollup file \"{}\" does not exist.", rollup);
+                System.exit(1);
+            }
+        }
+
+        // Inputs are only opened as they're read, so any number of files can
+        // be given.
+        IngestionState state = options.state == null ? null : IngestionState.load(options.state);
+        List<LogInput> inputs = newArrayList();
+        boolean readingStdIn = false;
+        for (String file : files) {
+            if (file.equals("-")) {
+                if (readingStdIn) {
+                    LOG.warn("Standard input was given more than once, but will only be read once");
+                } else {
+                    inputs.add(new StreamLogInput(System.in));
+                    readingStdIn = true;
+                }
+                continue;
+            }
+            try {
+                Path path = Paths.get(file);
+                if (!Files.exists(path)) {
+                    LOG.error("File \"{}\" does not exist.", file);
+                    System.exit(1);
+                }
+                if (options.follow) {
+                    inputs.add(new FollowLogInput(path, FOLLOW_POLL_MILLIS));
+                } else if (state != null) {
+                    if (!Files.isRegularFile(path)) {
+                        LOG.error("\"{}\" is not a regular file, so can not be read incrementally.", file);
+                        System.exit(1);
+                    }
+                    inputs.addAll(state.newData(path));
+                } else if (mmap && Files.isRegularFile(path)) {
+                    inputs.add(new MappedLogInput(path));
+                } else {
+                    // Pipes and devices can't be mapped, so stream those.
+                    inputs.add(new StreamLogInput(path));
+                }
+            } catch (NoSuchFileException e) {
+                LOG.error("File \"{}\" does not exist.", file);
+                System.exit(1);
+            }
+        }
+
+        if (files.isEmpty() && options.readRollups.isEmpty() && options.history == null) {
             LOG.info("No files given: using std input");
-            inputs.add(new BufferedReader(new InputStreamReader(System.in)));
+            inputs.add(new StreamLogInput(System.in));
         }
 
-        if (!(detail || aggregate)) {
+        if (!(options.detail || options.aggregate || options.writeRollup != null || options.alerts != null)) {
             LOG.error("No detail or aggregate makes no output");
             System.exit(1);
         }
 
-        ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
-
-        LogParse app = new LogParse(aggregate, detail, inputs, mapper);
+        LogParse app = new LogParse(options, inputs, options.format.factory(), state);
         app.run();
     }
 
-    public void run() throws IOException {
-        LineDetailsAggregator lineDetailsAggregator = aggregateLogs();
-        writeYAML(lineDetailsAggregator);
+    private static long numberArgument(String option, Iterator<String> argIterator, long minimum, long maximum) {
+        if (argIterator.hasNext()) {
+            String value = argIterator.next();
+            try {
+                long result = Long.parseLong(value);
+                if (result >= minimum && result <= maximum) {
+                    return result;
+                }
+            } catch (NumberFormatException e) {
+                // Fall through to complain.
+            }
+            LOG.error("{} needs a number from {} to {}, not \"{}\"", option, minimum, maximum, value);
+        } else {
+            LOG.error("{} needs a number", option);
+        }
+        System.exit(1);
+        throw new IllegalStateException("Should have exited");
     }
 
-    private LineDetailsAggregator aggregateLogs() throws IOException {
-        LineDetailsAggregator lineDetailsAggregator = new LineDetailsAggregator();
-        for (BufferedReader in: inputs) {
-            while (true) {
-                String logLine = in.readLine();
-                if (logLine == null) {
-                    // Done
-                    in.close();
-                    break;
+    private static String pathArgument(String option, Iterator<String> argIterator) {
+        if (!argIterator.hasNext()) {
+            LOG.error("{} needs a file", option);
+            System.exit(1);
+        }
+        return argIterator.next();
+    }
+
+    private static OutputFormat formatArgument(String option, Iterator<String> argIterator) {
+        if (argIterator.hasNext()) {
+            String value = argIterator.next();
+            try {
+                return OutputFormat.valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                LOG.error("{} needs one of yaml, jsonl or csv, not \"{}\"", option, value);
+            }
+        } else {
+            LOG.error("{} needs one of yaml, jsonl or csv", option);
+        }
+        System.exit(1);
+        throw new IllegalStateException("Should have exited");
+    }
+
+    private static Percentiles percentilesArgument(String option, Iterator<String> argIterator) {
+        if (argIterator.hasNext()) {
+            String value = argIterator.next();
+            try {
+                return Percentiles.parse(value);
+            } catch (IllegalArgumentException e) {
+                LOG.error("{} needs a comma-separated list of percentiles: {}", option, e.getMessage());
+            }
+        } else {
+            LOG.error("{} needs a comma-separated list of percentiles", option);
+        }
+        System.exit(1);
+        throw new IllegalStateException("Should have exited");
+    }
+
+    private static Sample sampleArgument(String option, Iterator<String> argIterator) {
+        if (argIterator.hasNext()) {
+            String value = argIterator.next();
+            try {
+                return Sample.ofRate(Double.parseDouble(value));
+            } catch (IllegalArgumentException e) {
+                LOG.error("{} needs a fraction of lines to count: {}", option, e.getMessage());
+            }
+        } else {
+            LOG.error("{} needs a fraction of lines to count", option);
+        }
+        System.exit(1);
+        throw new IllegalStateException("Should have exited");
+    }
+
+    private static List<AlertRule> alertsArgument(String option, Iterator<String> argIterator) {
+        Path path = Paths.get(pathArgument(option, argIterator));
+        try {
+            return AlertRule.load(path);
+        } catch (IOException e) {
+            LOG.error("{} can't use the rules in \"{}\": {}", option, path, e.getMessage());
+        }
+        System.exit(1);
+        throw new IllegalStateException("Should have exited");
+    }
+
+    private static InetSocketAddress addressArgument(String option, Iterator<String> argIterator) {
+        if (argIterator.hasNext()) {
+            String value = argIterator.next();
+            int colon = value.lastIndexOf(':');
+            try {
+                int port = Integer.parseInt(value.substring(colon + 1));
+                if (port >= 0 && port <= 65535) {
+                    return colon < 0
+                            ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                            : new InetSocketAddress(value.substring(0, colon), port);
                 }
-                if (logLine.trim().isEmpty()) {
-                    continue;
+            } catch (NumberFormatException e) {
+                // Fall through to complain.
+            }
+            LOG.error("{} needs a port from 0 to 65535, optionally after a host and a colon, not \"{}\"",
+                    option, value);
+        } else {
+            LOG.error("{} needs a port", option);
+        }
+        System.exit(1);
+        throw new IllegalStateException("Should have exited");
+    }
+
+    private static List<Resolution> resolutionsArgument(String option, Iterator<String> argIterator) {
+        if (argIterator.hasNext()) {
+            String value = argIterator.next();
+            try {
+                return Resolution.parseList(value);
+            } catch (IllegalArgumentException e) {
+                LOG.error("{} needs a comma-separated list of resolutions: {}", option, e.getMessage());
+            }
+        } else {
+            LOG.error("{} needs a comma-separated list of resolutions", option);
+        }
+        System.exit(1);
+        throw new IllegalStateException("Should have exited");
+    }
+
+    private static LogFormat logFormatArgument(String option, Iterator<String> argIterator) {
+        if (argIterator.hasNext()) {
+            String value = argIterator.next();
+            try {
+                return LogFormat.compile(value);
+            } catch (IllegalArgumentException e) {
+                LOG.error("{} can't use that log format: {}", option, e.getMessage());
+            }
+        } else {
+            LOG.error("{} needs a log format", option);
+        }
+        System.exit(1);
+        throw new IllegalStateException("Should have exited");
+    }
+
+    public void run() throws IOException {
+        LiveQueryServer server = live == null ? null
+                : new LiveQueryServer(options.http, live, options.percentiles, options.httpMinutes);
+        try (AlertEvaluator alerts = openAlerts();
+             StatsReporter reporter = new StatsReporter(System.err, options.statsInterval)) {
+            if (options.follow) {
+                follow(reporter, alerts);
+            } else if (options.merge) {
+                merge(reporter, alerts);
+            } else {
+                aggregateAndWrite(reporter, alerts);
+                if (options.stats) {
+                    reporter.report();
                 }
-                Optional<LineDetails> details = LineDetails.parseLogLine(logLine);
-                if (details.isPresent()) {
-                    lineDetailsAggregator.accept(details.get());
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * @return somewhere to check each minute against the alert rules, or
+     * null if there aren't any.
+     */
+    private AlertEvaluator openAlerts() throws IOException {
+        if (options.alerts == null) {
+            return null;
+        }
+        Writer alertOut = options.alertLog == null ? out
+                : Files.newBufferedWriter(options.alertLog, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND);
+        return new AlertEvaluator(options.alerts, alertOut);
+    }
+
+    /**
+     * @return a writer for the results, or {@link ResultWriter#NONE} if
+     * none are wanted, which leaves standard output to the alerts.
+     */
+    private ResultWriter openResults() throws IOException {
+        if (!(options.detail || options.aggregate)) {
+            return ResultWriter.NONE;
+        }
+        return options.format.writer(out, factory, options);
+    }
+
+    /**
+     * @param alerts checks each minute as it's written, if not null
+     */
+    private void aggregateAndWrite(StatsReporter reporter, AlertEvaluator alerts) throws IOException {
+        try (MappedMinuteStore history = options.history == null ? null : MappedMinuteStore.open(options.history)) {
+            LineDetailsAggregator lineDetailsAggregator = aggregateLogs(reporter,
+                    history == null ? new MinuteStore() : history);
+            lineDetailsAggregator.rollUp();
+            // Only the lines we've just parsed go in the rollup, so that
+            // nothing is counted twice when it's read back alongside other
+            // rollups.
+            if (options.writeRollup != null) {
+                RollupFile.append(options.writeRollup, lineDetailsAggregator.minutes);
+            }
+            if (state != null) {
+                // The history keeps the minutes, so the state only needs
+                // them without one.  A state file from before there was a
+                // history hands its minutes over to it.
+                lineDetailsAggregator.minutes.merge(state.minutes);
+                if (history == null) {
+                    state.save(options.state, lineDetailsAggregator.minutes);
+                } else {
+                    history.flush();
+                    state.save(options.state, new MinuteStore());
                 }
-                // Continue if we don't get a line: the parser will log why.
             }
+            for (Path rollup : options.readRollups) {
+                RollupFile.read(rollup, lineDetailsAggregator.minutes::add);
+            }
+            if (options.detail || options.aggregate || alerts != null) {
+                long start = System.nanoTime();
+                writeResults(lineDetailsAggregator, alerts);
+                reporter.phase("write", System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * @param minutes where the aggregator we return counts its minutes
+     */
+    private LineDetailsAggregator aggregateLogs(StatsReporter reporter, MinuteStore minutes) throws IOException {
+        if (options.threads > 1) {
+            return aggregateLogsInParallel(reporter, minutes);
+        }
+        LineDetailsAggregator lineDetailsAggregator = newAggregator(minutes);
+        ParseStats stats = reporter.start();
+        for (LogInput input : inputs) {
+            aggregateInput(input, lineDetailsAggregator, stats);
         }
+        reporter.finish(stats);
         return lineDetailsAggregator;
     }
 
-    private void writeYAML(LineDetailsAggregator lineDetailsAggregator) throws IOException {
-        try (OutputStreamWriter writer = new OutputStreamWriter(System.out)) {
-            if (detail && aggregate) {
-                mapper.writeValue(writer, lineDetailsAggregator);
-            } else if (detail) {
-                mapper.writeValue(writer, lineDetailsAggregator.detail());
-            } else if (aggregate) {
-                mapper.writeValue(writer, lineDetailsAggregator.aggregate());
+    /**
+     * Splits files into chunks, aggregates each chunk separately on a
+     * fork-join pool, then merges the results.  Streams can't be split, so
+     * each gets a single task.  Inputs are only opened when a task starts
+     * reading them, so no more files are open at once than there are
+     * threads.
+     */
+    private LineDetailsAggregator aggregateLogsInParallel(StatsReporter reporter, MinuteStore minutes)
+            throws IOException {
+        List<LogInput> chunks = newArrayList();
+        for (LogInput input : inputs) {
+            if (input instanceof MappedLogInput) {
+                try (LogInput whole = input) {
+                    chunks.addAll(((MappedLogInput) whole).split(options.threads));
+                }
+            } else {
+                chunks.add(input);
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(options.threads);
+        try {
+            List<ForkJoinTask<LineDetailsAggregator>> tasks = newArrayList();
+            List<ParseStats> chunkStats = newArrayList();
+            for (LogInput chunk : chunks) {
+                ParseStats stats = reporter.start();
+                chunkStats.add(stats);
+                tasks.add(pool.submit(() -> {
+                    LineDetailsAggregator chunkAggregator = newAggregator(new MinuteStore());
+                    aggregateInput(chunk, chunkAggregator, stats);
+                    return chunkAggregator;
+                }));
+            }
+
+            LineDetailsAggregator lineDetailsAggregator = newAggregator(minutes);
+            for (int i = 0; i < tasks.size(); i++) {
+                LineDetailsAggregator chunkAggregator = tasks.get(i).get();
+                reporter.finish(chunkStats.get(i));
+                long start = System.nanoTime();
+                lineDetailsAggregator.merge(chunkAggregator);
+                reporter.phase("merge", System.nanoTime() - start);
+            }
+            return lineDetailsAggregator;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while aggregating logs");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private LineDetailsAggregator newAggregator(MinuteStore minutes) {
+        LineDetailsAggregator aggregator = new LineDetailsAggregator(options.percentiles, options.topPaths,
+                options.resolutions.get(0), minutes);
+        aggregator.setSample(options.sample);
+        return aggregator;
+    }
+
+    private void aggregateInput(LogInput input, LineDetailsConsumer consumer, ParseStats stats) throws IOException {
+        LineParser parser = options.logFormat.parser(stats, sampler);
+        long start = System.nanoTime();
+        try (LogInput in = input) {
+            in.readLines(new LineIngester(parser, consumer, stats, options.stats, options.sample));
+        }
+        stats.ingestNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Follows a single input, writing out each minute as soon as it closes
+     * and only holding on to the minutes that are still open.  The aggregate
+     * is written when the input ends or we're asked to shut down.
+     */
+    private void follow(StatsReporter reporter, AlertEvaluator alerts) throws IOException {
+        LogInput input = inputs.get(0);
+        CountDownLatch finished = new CountDownLatch(1);
+        if (input instanceof FollowLogInput) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                ((FollowLogInput) input).stop();
+                try {
+                    finished.await(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "logparse-shutdown"));
+        }
+
+        try (ResultWriter writer = openResults()) {
+            StreamingAggregator streamingAggregator = streamingAggregator(options.lateness, writer, alerts);
+            ParseStats stats = reporter.start();
+            LineParser parser = options.logFormat.parser(stats, sampler);
+            long start = System.nanoTime();
+            try (LogInput in = input) {
+                in.readLines(new LineIngester(parser, withLive(streamingAggregator), stats, options.stats,
+                        options.sample) {
+                    @Override
+                    public void idle() {
+                        stats.publish();
+                        long watermark = System.currentTimeMillis() / 1000 - options.lateness;
+                        streamingAggregator.advanceTo(watermark);
+                        if (alerts != null) {
+                            try {
+                                alerts.advanceTo(Math.floorDiv(watermark, 60));
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            try {
+                streamingAggregator.closeAll();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.aggregate(streamingAggregator.aggregate());
+            stats.ingestNanos += System.nanoTime() - start;
+            stats.late += streamingAggregator.getLateLines();
+            reporter.finish(stats);
+
+            if (streamingAggregator.getLateLines() > 0) {
+                LOG.warn("Dropped {} lines that arrived after their minute had closed", streamingAggregator.getLateLines());
+            }
+            warnAhead(streamingAggregator);
+            if (options.stats) {
+                reporter.report();
+            }
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Reads every input at once, each on its own thread, and merges their
+     * lines in time order, writing out each minute as soon as every input
+     * has moved past it.  Every input has to be open at once, to take the
+     * earliest line from each.
+     */
+    private void merge(StatsReporter reporter, AlertEvaluator alerts) throws IOException {
+        ExecutorService pool = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "logparse-merge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (ResultWriter writer = openResults()) {
+            // The lines arrive in order, so each minute closes as soon as
+            // the next one starts.
+            StreamingAggregator streamingAggregator = streamingAggregator(0, writer, alerts);
+            TimeOrderedMerge merge = new TimeOrderedMerge(inputs.size(), options.mergeWindow, options.topPaths > 0,
+                    withLive(streamingAggregator));
+            List<Future<?>> readers = newArrayList();
+            List<ParseStats> inputStats = newArrayList();
+            for (int i = 0; i < inputs.size(); i++) {
+                LogInput input = inputs.get(i);
+                TimeOrderedMerge.Source source = merge.source(i);
+                ParseStats stats = reporter.start();
+                inputStats.add(stats);
+                readers.add(pool.submit(() -> {
+                    try {
+                        aggregateInput(input, source, stats);
+                    } finally {
+                        source.finish();
+                    }
+                    return null;
+                }));
+            }
+
+            ParseStats mergeStats = reporter.start();
+            long start = System.nanoTime();
+            try {
+                merge.run();
+                streamingAggregator.closeAll();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.aggregate(streamingAggregator.aggregate());
+            reporter.phase("merge", System.nanoTime() - start);
+
+            for (int i = 0; i < readers.size(); i++) {
+                readers.get(i).get();
+                reporter.finish(inputStats.get(i));
+            }
+            mergeStats.late += merge.getLateLines();
+            reporter.finish(mergeStats);
+
+            if (merge.getLateLines() > 0) {
+                LOG.warn("Dropped {} lines that were more than {} seconds behind others from the same input",
+                        merge.getLateLines(), options.mergeWindow);
+            }
+            warnAhead(streamingAggregator);
+            if (options.stats) {
+                reporter.report();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while merging logs");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return a consumer that also hands lines to {@link #live}, if we're
+     * answering queries.
+     */
+    private LineDetailsConsumer withLive(LineDetailsConsumer consumer) {
+        if (live == null) {
+            return consumer;
+        }
+        return new LineDetailsConsumer() {
+            @Override
+            public void accept(long timestamp, StatusClass status, long bytesTransferred, long timeTaken) {
+                consumer.accept(timestamp, status, bytesTransferred, timeTaken);
+                live.accept(timestamp, status, bytesTransferred, timeTaken);
+            }
+
+            @Override
+            public void acceptRequest(long timestamp, int statusCode, long bytesTransferred, long timeTaken,
+                                      long clientHash, ByteBuffer buffer, int requestStart, int requestEnd) {
+                consumer.acceptRequest(timestamp, statusCode, bytesTransferred, timeTaken, clientHash,
+                        buffer, requestStart, requestEnd);
+                live.acceptRequest(timestamp, statusCode, bytesTransferred, timeTaken, clientHash,
+                        buffer, requestStart, requestEnd);
+            }
+        };
+    }
+
+    /**
+     * Warns about lines that were too far ahead of the clock, if there were
+     * any.
+     */
+    private static void warnAhead(StreamingAggregator streamingAggregator) {
+        if (streamingAggregator.getAheadLines() > 0) {
+            LOG.warn("Counted {} lines stamped more than {} seconds ahead of the clock without closing any minutes",
+                    streamingAggregator.getAheadLines(), StreamingAggregator.MAX_AHEAD);
+        }
+    }
+
+    /**
+     * @return an aggregator that writes out each minute as soon as it's
+     * closed, and checks it against the alert rules if there are any.
+     */
+    private StreamingAggregator streamingAggregator(long lateness, ResultWriter writer, AlertEvaluator alerts) {
+        return new StreamingAggregator(lateness, options.percentiles, options.topPaths, options.sample, minute -> {
+            try {
+                writer.minute(minute);
+                writer.flush();
+                if (alerts != null) {
+                    alerts.minute(minute);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Writes each minute in turn, working out the aggregate as we go, so
+     * that nothing is held on to besides the minutes themselves.
+     */
+    private void writeResults(LineDetailsAggregator lineDetailsAggregator, AlertEvaluator alerts) throws IOException {
+        try (ResultWriter writer = openResults()) {
+            LogGlobalAggregator aggregate = new LogGlobalAggregator(options.percentiles);
+            try {
+                lineDetailsAggregator.forEachBucket(options.resolutions, bucket -> {
+                    try {
+                        if (bucket.getResolution().equals(Resolution.MINUTE)) {
+                            aggregate.accept(bucket);
+                            if (alerts != null) {
+                                alerts.minute(bucket);
+                            }
+                        }
+                        writer.minute(bucket);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                if (!options.resolutions.contains(Resolution.MINUTE)) {
+                    // The aggregate and alerts are always over minutes.
+                    lineDetailsAggregator.forEachMinute(minute -> {
+                        aggregate.accept(minute);
+                        if (alerts != null) {
+                            try {
+                                alerts.minute(minute);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    });
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             }
+            writer.aggregate(lineDetailsAggregator.isEmpty() ? null : aggregate);
         }
     }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.google.common.base.MoreObjects;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * The options {@link LogParse} runs with, as set from the command line.
+ */
+public class LogParseOptions {
+    public boolean aggregate = true;
+    public boolean detail = true;
+    public int threads = Runtime.getRuntime().availableProcessors();
+    public Percentiles percentiles = Percentiles.DEFAULT;
+    public OutputFormat format = OutputFormat.YAML;
+    public LogFormat logFormat = LogFormat.DEFAULT;
+    /**
+     * Break each minute and the aggregate down by status code and this many
+     * of the busiest paths, if not zero.
+     */
+    public int topPaths = 0;
+    /**
+     * The lengths of bucket to report, finest first.
+     */
+    public List<Resolution> resolutions = Collections.singletonList(Resolution.MINUTE);
+
+    /**
+     * Which lines to count, scaling up what they add up to.
+     */
+    public Sample sample = Sample.ALL;
+
+    /**
+     * Keep reading the input as it grows, writing out each minute as it
+     * closes.
+     */
+    public boolean follow = false;
+    /**
+     * How long to wait for late lines before closing a minute, in seconds.
+     */
+    public long lateness = 60;
+
+    /**
+     * Read every input at once and merge their lines in time order, writing
+     * out each minute as it closes.
+     */
+    public boolean merge = false;
+    /**
+     * How far out of order each input's lines may be, in seconds, when
+     * merging.
+     */
+    public long mergeWindow = 60;
+
+    /**
+     * Where to answer queries about the minutes seen so far while following
+     * or merging, or null not to.
+     */
+    public InetSocketAddress http = null;
+    /**
+     * How many minutes to answer queries about, counting back from the
+     * latest.
+     */
+    public long httpMinutes = 1440;
+
+    /**
+     * Rollup files to merge in alongside the logs.
+     */
+    public List<Path> readRollups = newArrayList();
+    /**
+     * A rollup file to append this run's minutes to, or null.
+     */
+    public Path writeRollup = null;
+    /**
+     * A file recording how far through each log we've read, or null to read
+     * every log from the start.
+     */
+    public Path state = null;
+    /**
+     * A directory holding every minute seen, kept from one run to the next,
+     * or null to only hold this run's minutes, on the heap.
+     */
+    public Path history = null;
+
+    /**
+     * Rules to check each minute against as it closes, or null for none.
+     */
+    public List<AlertRule> alerts = null;
+    /**
+     * A file to append alerts to, or null to write them to standard output.
+     */
+    public Path alertLog = null;
+
+    /**
+     * Report throughput, timings and failures on stderr at the end, and
+     * every {@code statsInterval} seconds if that's not zero.
+     */
+    public boolean stats = false;
+    public long statsInterval = 0;
+    /**
+     * Log this many lines that fail to parse for each reason, and one in
+     * every {@code failureLogEvery} after that, if that's not zero.
+     */
+    public long failureExamples = FailureSampler.DEFAULT_EXAMPLES;
+    public long failureLogEvery = 0;
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("aggregate", aggregate)
+                .add("detail", detail)
+                .add("threads", threads)
+                .add("percentiles", percentiles)
+                .add("logFormat", logFormat)
+                .add("topPaths", topPaths)
+                .add("resolutions", resolutions)
+                .add("sample", sample)
+                .add("format", format)
+                .add("follow", follow)
+                .add("lateness", lateness)
+                .add("merge", merge)
+                .add("mergeWindow", mergeWindow)
+                .add("http", http)
+                .add("httpMinutes", httpMinutes)
+                .add("readRollups", readRollups)
+                .add("writeRollup", writeRollup)
+                .add("state", state)
+                .add("history", history)
+                .add("alerts", alerts)
+                .add("alertLog", alertLog)
+                .add("stats", stats)
+                .add("statsInterval", statsInterval)
+                .add("failureExamples", failureExamples)
+                .add("failureLogEvery", failureLogEvery)
+                .toString();
+    }
+}
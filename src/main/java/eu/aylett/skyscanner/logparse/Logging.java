@@ -0,0 +1,300 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.MarkerIgnoringBase;
+
+import static org.slf4j.Logger.ROOT_LOGGER_NAME;
+
+/**
+ * Hands out loggers that don't start Logback until something is logged at a
+ * level we've asked for.  Setting Logback up takes about a quarter of a
+ * second, longer than reading a small log, and a run that goes well logs
+ * nothing at the default level.
+ */
+public final class Logging {
+    // Below this, nothing is logged, and Logback isn't asked.
+    private static volatile int threshold = Level.ALL_INT;
+    private static Level level = null;
+    private static boolean started = false;
+
+    private Logging() {
+    }
+
+    public static Logger getLogger(Class<?> type) {
+        return new LazyLogger(type.getName());
+    }
+
+    /**
+     * Sets the level to log at, now if Logback has started, or else when it
+     * does.
+     */
+    public static synchronized void setLevel(Level level) {
+        Logging.level = level;
+        threshold = level.toInt();
+        if (started) {
+            apply();
+        }
+    }
+
+    private static synchronized Logger start(String name) {
+        Logger logger = LoggerFactory.getLogger(name);
+        if (!started) {
+            started = true;
+            if (level != null) {
+                apply();
+            }
+        }
+        return logger;
+    }
+
+    private static void apply() {
+        LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        loggerContext.getLogger(ROOT_LOGGER_NAME).setLevel(level);
+    }
+
+    /*
+     * Passes everything at the threshold or above on to the Logback logger,
+     * made the first time it's needed.
+     */
+    private static final class LazyLogger extends MarkerIgnoringBase {
+        private static final long serialVersionUID = 1L;
+
+        private transient volatile Logger delegate;
+
+        LazyLogger(String name) {
+            this.name = name;
+        }
+
+        private Logger delegate() {
+            Logger logger = delegate;
+            if (logger == null) {
+                logger = start(name);
+                delegate = logger;
+            }
+            return logger;
+        }
+
+        private static boolean below(int levelInt) {
+            return levelInt < threshold;
+        }
+
+        @Override
+        public boolean isTraceEnabled() {
+            return !below(Level.TRACE_INT) && delegate().isTraceEnabled();
+        }
+
+        @Override
+        public void trace(String msg) {
+            if (!below(Level.TRACE_INT)) {
+                delegate().trace(msg);
+            }
+        }
+
+        @Override
+        public void trace(String format, Object arg) {
+            if (!below(Level.TRACE_INT)) {
+                delegate().trace(format, arg);
+            }
+        }
+
+        @Override
+        public void trace(String format, Object arg1, Object arg2) {
+            if (!below(Level.TRACE_INT)) {
+                delegate().trace(format, arg1, arg2);
+            }
+        }
+
+        @Override
+        public void trace(String format, Object... arguments) {
+            if (!below(Level.TRACE_INT)) {
+                delegate().trace(format, arguments);
+            }
+        }
+
+        @Override
+        public void trace(String msg, Throwable t) {
+            if (!below(Level.TRACE_INT)) {
+                delegate().trace(msg, t);
+            }
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return !below(Level.DEBUG_INT) && delegate().isDebugEnabled();
+        }
+
+        @Override
+        public void debug(String msg) {
+            if (!below(Level.DEBUG_INT)) {
+                delegate().debug(msg);
+            }
+        }
+
+        @Override
+        public void debug(String format, Object arg) {
+            if (!below(Level.DEBUG_INT)) {
+                delegate().debug(format, arg);
+            }
+        }
+
+        @Override
+        public void debug(String format, Object arg1, Object arg2) {
+            if (!below(Level.DEBUG_INT)) {
+                delegate().debug(format, arg1, arg2);
+            }
+        }
+
+        @Override
+        public void debug(String format, Object... arguments) {
+            if (!below(Level.DEBUG_INT)) {
+                delegate().debug(format, arguments);
+            }
+        }
+
+        @Override
+        public void debug(String msg, Throwable t) {
+            if (!below(Level.DEBUG_INT)) {
+                delegate().debug(msg, t);
+            }
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return !below(Level.INFO_INT) && delegate().isInfoEnabled();
+        }
+
+        @Override
+        public void info(String msg) {
+            if (!below(Level.INFO_INT)) {
+                delegate().info(msg);
+            }
+        }
+
+        @Override
+        public void info(String format, Object arg) {
+            if (!below(Level.INFO_INT)) {
+                delegate().info(format, arg);
+            }
+        }
+
+        @Override
+        public void info(String format, Object arg1, Object arg2) {
+            if (!below(Level.INFO_INT)) {
+                delegate().info(format, arg1, arg2);
+            }
+        }
+
+        @Override
+        public void info(String format, Object... arguments) {
+            if (!below(Level.INFO_INT)) {
+                delegate().info(format, arguments);
+            }
+        }
+
+        @Override
+        public void info(String msg, Throwable t) {
+            if (!below(Level.INFO_INT)) {
+                delegate().info(msg, t);
+            }
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return !below(Level.WARN_INT) && delegate().isWarnEnabled();
+        }
+
+        @Override
+        public void warn(String msg) {
+            if (!below(Level.WARN_INT)) {
+                delegate().warn(msg);
+            }
+        }
+
+        @Override
+        public void warn(String format, Object arg) {
+            if (!below(Level.WARN_INT)) {
+                delegate().warn(format, arg);
+            }
+        }
+
+        @Override
+        public void warn(String format, Object arg1, Object arg2) {
+            if (!below(Level.WARN_INT)) {
+                delegate().warn(format, arg1, arg2);
+            }
+        }
+
+        @Override
+        public void warn(String format, Object... arguments) {
+            if (!below(Level.WARN_INT)) {
+                delegate().warn(format, arguments);
+            }
+        }
+
+        @Override
+        public void warn(String msg, Throwable t) {
+            if (!below(Level.WARN_INT)) {
+                delegate().warn(msg, t);
+            }
+        }
+
+        @Override
+        public boolean isErrorEnabled() {
+            return !below(Level.ERROR_INT) && delegate().isErrorEnabled();
+        }
+
+        @Override
+        public void error(String msg) {
+            if (!below(Level.ERROR_INT)) {
+                delegate().error(msg);
+            }
+        }
+
+        @Override
+        public void error(String format, Object arg) {
+            if (!below(Level.ERROR_INT)) {
+                delegate().error(format, arg);
+            }
+        }
+
+        @Override
+        public void error(String format, Object arg1, Object arg2) {
+            if (!below(Level.ERROR_INT)) {
+                delegate().error(format, arg1, arg2);
+            }
+        }
+
+        @Override
+        public void error(String format, Object... arguments) {
+            if (!below(Level.ERROR_INT)) {
+                delegate().error(format, arguments);
+            }
+        }
+
+        @Override
+        public void error(String msg, Throwable t) {
+            if (!below(Level.ERROR_INT)) {
+                delegate().error(msg, t);
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Reads a regular file by mapping it into memory a window at a time and
+ * handing out lines as ranges of the mapped bytes, so nothing is copied or
+ * decoded.
+ *
+ * It may also be {@link #split} into chunks that can be read in parallel.
+ * The file is only opened once it's split or read, so that inputs for many
+ * files can be set up without holding them all open.
+ */
+public class MappedLogInput implements LogInput {
+    static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+    /*
+     * Below this, the cost of merging a chunk's results isn't worth it.
+     */
+    static final long MINIMUM_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private final Path path;
+    private FileChannel channel;
+    private final long start;
+    private final long end;
+    private final int windowSize;
+
+    public MappedLogInput(Path path) {
+        this(path, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedLogInput(Path path, int windowSize) {
+        this(path, 0, Long.MAX_VALUE, windowSize);
+    }
+
+    /**
+     * Reads the lines that start between {@code start} and {@code end}, which
+     * should both be at the start of a line.
+     */
+    MappedLogInput(Path path, long start, long end, int windowSize) {
+        this.path = path;
+        this.start = start;
+        this.end = end;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Splits this input into at most {@code chunks} inputs, each starting at
+     * the beginning of a line, which between them cover every line once.
+     * Each chunk opens the file again when it's read, and must be closed
+     * separately.
+     */
+    public List<MappedLogInput> split(int chunks) throws IOException {
+        return split(chunks, MINIMUM_CHUNK_SIZE);
+    }
+
+    List<MappedLogInput> split(int chunks, long minimumChunkSize) throws IOException {
+        long limit = Math.min(end, channel().size());
+        long length = limit - start;
+        int count = (int) Math.max(1, Math.min(chunks, length / minimumChunkSize));
+
+        List<MappedLogInput> result = newArrayList();
+        long chunkStart = start;
+        for (int i = 1; i <= count && chunkStart < limit; i++) {
+            long chunkEnd = i == count ? limit : nextLineStart(start + length * i / count, limit);
+            if (chunkEnd > chunkStart) {
+                result.add(new MappedLogInput(path, chunkStart, chunkEnd, windowSize));
+            }
+            chunkStart = chunkEnd;
+        }
+        return result;
+    }
+
+    /**
+     * @return the start of the first line at or after {@code position}.
+     */
+    private long nextLineStart(long position, long limit) throws IOException {
+        if (position <= start) {
+            return start;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        // Start one back, in case position is already at a line start.
+        long p = position - 1;
+        while (p < limit) {
+            buffer.clear();
+            int read = channel().read(buffer, p);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return Math.min(p + i + 1, limit);
+                }
+            }
+            p += read;
+        }
+        return limit;
+    }
+
+    @Override
+    public void readLines(LineSink sink) throws IOException {
+        FileChannel channel = channel();
+        long size = Math.min(end, channel.size());
+        long position = start;
+        int window = windowSize;
+        while (position < size) {
+            int length = (int) Math.min(window, size - position);
+            boolean last = position + length == size;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+            int lineStart = 0;
+            int newline;
+            while ((newline = ByteScanner.indexOf(buffer, lineStart, length, (byte) '\n')) >= 0) {
+                sink.line(buffer, lineStart, lineEnd(buffer, lineStart, newline));
+                lineStart = newline + 1;
+            }
+
+            if (last) {
+                if (lineStart < length) {
+                    sink.line(buffer, lineStart, lineEnd(buffer, lineStart, length));
+                }
+                return;
+            }
+
+            if (lineStart == 0) {
+                // The line doesn't fit in the window: map it again, bigger.
+                if (window == Integer.MAX_VALUE) {
+                    throw new IOException("Line at offset " + position + " is too long");
+                }
+                window = (int) Math.min(2L * window, Integer.MAX_VALUE);
+            } else {
+                // Start the next window at the first incomplete line.
+                position += lineStart;
+                window = windowSize;
+            }
+        }
+    }
+
+    /*
+     * Drop a carriage return, as BufferedReader would.
+     */
+    private static int lineEnd(MappedByteBuffer buffer, int lineStart, int newline) {
+        return newline > lineStart && buffer.get(newline - 1) == '\r' ? newline - 1 : newline;
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A {@link MinuteStore} that keeps its minutes in memory-mapped files rather
+ * than on the heap, so that it can hold years of them and keep them from one
+ * run to the next.
+ *
+ * The store is a directory with a file for each calendar month, UTC, named
+ * like {@code 2015-04.minutes}.  Each file has a header, followed by a
+ * fixed-width record for every minute in the month, so a minute's record is
+ * found from its number alone and updated in place.  The header holds a
+ * magic number and a format version as ints, the month's first minute as a
+ * long, then the number of minutes in the month and how many of them have
+ * seen a line, as ints.  Each record holds the five counters as longs, the
+ * {@link LatencyHistogram} bucket counts as ints and the {@link HyperLogLog}
+ * registers as bytes, all big-endian, in about 6.5KB.  Minutes without lines
+ * are never written, so on filesystems with sparse files they take no space.
+ *
+ * Only one store may have the directory open at once.  Changes reach the
+ * files when the operating system gets round to it, or on {@link #flush}.
+ * Not thread-safe.
+ */
+public class MappedMinuteStore extends MinuteStore implements Closeable {
+    static final int MAGIC = 0x4c50484d; // "LPHM"
+    /*
+     * Version 1 uses LatencyHistogram's 592-bucket layout and HyperLogLog's
+     * 4096 registers.  Change the version if either changes.
+     */
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    private static final int USED_POSITION = 20;
+    private static final int HISTOGRAM_OFFSET = FIELDS * 8;
+    private static final int CLIENTS_OFFSET = HISTOGRAM_OFFSET + LatencyHistogram.BUCKETS * 4;
+    static final int RECORD_SIZE = CLIENTS_OFFSET + HyperLogLog.REGISTERS;
+    private static final String SUFFIX = ".minutes";
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    /*
+     * One month's file.
+     */
+    private static class Month implements Closeable {
+        final Path file;
+        final long first;
+        final int length;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int used;
+        boolean changed = false;
+
+        Month(Path file, long first, int length, FileChannel channel, MappedByteBuffer buffer, int used) {
+            this.file = file;
+            this.first = first;
+            this.length = length;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.used = used;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private final Path directory;
+    private final FileChannel lockChannel;
+    // Months by their first minute.
+    private final TreeMap<Long, Month> months = new TreeMap<>();
+    private final int[] histogram = new int[LatencyHistogram.BUCKETS];
+    private final byte[] clients = new byte[HyperLogLog.REGISTERS];
+
+    // Where locate() found the minute.
+    private Month month;
+    private int offset;
+
+    private MappedMinuteStore(Path directory, FileChannel lockChannel) {
+        this.directory = directory;
+        this.lockChannel = lockChannel;
+    }
+
+    /**
+     * Opens the store in the directory, creating it if need be.
+     *
+     * @throws IOException if another store has it open, or it holds a file
+     * we don't understand.
+     */
+    public static MappedMinuteStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        MappedMinuteStore store = new MappedMinuteStore(directory, lockChannel);
+        try {
+            FileLock lock;
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                throw new IOException(directory + " is already in use");
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+                for (Path file : files) {
+                    store.openMonth(file);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private void openMonth(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        YearMonth yearMonth;
+        try {
+            yearMonth = YearMonth.parse(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (DateTimeParseException e) {
+            throw new IOException(file + " is not named for a month", e);
+        }
+        long first = yearMonth.atDay(1).toEpochDay() * MINUTES_PER_DAY;
+        int length = yearMonth.lengthOfMonth() * MINUTES_PER_DAY;
+        if (Files.size(file) < HEADER_SIZE) {
+            throw new IOException(file + " is not a minute history file");
+        }
+
+        Month opened = map(file, first, length, false);
+        MappedByteBuffer buffer = opened.buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            opened.close();
+            throw new IOException(file + " is not a minute history file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            opened.close();
+            throw new IOException(file + " has minute history format version " + buffer.getInt(4)
+                    + ", but we only read version " + VERSION);
+        }
+        if (buffer.getLong(8) != first || buffer.getInt(16) != length) {
+            opened.close();
+            throw new IOException(file + " holds minutes for a different month");
+        }
+        opened.used = buffer.getInt(USED_POSITION);
+        months.put(first, opened);
+    }
+
+    private Month map(Path file, long first, int length, boolean create) throws IOException {
+        FileChannel channel = create
+                ? FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // Mapping past the end of the file grows it, without writing
+            // anything to the new part.
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + (long) length * RECORD_SIZE);
+            return new Month(file, first, length, channel, buffer, 0);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void add(long minute, long bytesTransferred, long timeTaken, StatusClass status) {
+        locate(minute);
+        int bucket = offset + HISTOGRAM_OFFSET + LatencyHistogram.bucket(timeTaken) * 4;
+        month.buffer.putInt(bucket, month.buffer.getInt(bucket) + 1);
+        add(1, bytesTransferred, timeTaken,
+                status == StatusClass.SUCCESS ? 1 : 0, status == StatusClass.FAILURE ? 1 : 0);
+    }
+
+    @Override
+    public void add(long minute, long bytesTransferred, long timeTaken, StatusClass status, long clientHash) {
+        add(minute, bytesTransferred, timeTaken, status);
+        int register = offset + CLIENTS_OFFSET + (int) (clientHash >>> (64 - HyperLogLog.PRECISION));
+        byte rank = (byte) HyperLogLog.rank(clientHash);
+        if (month.buffer.get(register) < rank) {
+            month.buffer.put(register, rank);
+        }
+    }
+
+    @Override
+    public void add(long minute, long count, long bytes, long time, long successful, long failures,
+                    int[] minuteHistogram, byte[] minuteClients) {
+        locate(minute);
+        MappedByteBuffer buffer = month.buffer;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            if (minuteHistogram[i] != 0) {
+                int bucket = offset + HISTOGRAM_OFFSET + i * 4;
+                buffer.putInt(bucket, buffer.getInt(bucket) + minuteHistogram[i]);
+            }
+        }
+        for (int i = 0; i < HyperLogLog.REGISTERS; i++) {
+            int register = offset + CLIENTS_OFFSET + i;
+            if (buffer.get(register) < minuteClients[i]) {
+                buffer.put(register, minuteClients[i]);
+            }
+        }
+        add(count, bytes, time, successful, failures);
+    }
+
+    private void add(long count, long bytes, long time, long successful, long failures) {
+        MappedByteBuffer buffer = month.buffer;
+        long oldCount = buffer.getLong(offset + COUNT * 8);
+        if (oldCount == 0 && count > 0) {
+            month.used++;
+            buffer.putInt(USED_POSITION, month.used);
+        }
+        buffer.putLong(offset + COUNT * 8, oldCount + count);
+        buffer.putLong(offset + BYTES * 8, buffer.getLong(offset + BYTES * 8) + bytes);
+        buffer.putLong(offset + TIME * 8, buffer.getLong(offset + TIME * 8) + time);
+        buffer.putLong(offset + SUCCESSFUL * 8, buffer.getLong(offset + SUCCESSFUL * 8) + successful);
+        buffer.putLong(offset + FAILURES * 8, buffer.getLong(offset + FAILURES * 8) + failures);
+        month.changed = true;
+    }
+
+    /**
+     * Finds the record for the minute, creating its month's file if need
+     * be.  Lines usually come in order, so it's nearly always in the same
+     * month as the last one.
+     */
+    private void locate(long minute) {
+        if (month == null || minute < month.first || minute - month.first >= month.length) {
+            Map.Entry<Long, Month> entry = months.floorEntry(minute);
+            month = entry == null || minute - entry.getKey() >= entry.getValue().length
+                    ? createMonth(minute) : entry.getValue();
+        }
+        offset = HEADER_SIZE + (int) (minute - month.first) * RECORD_SIZE;
+    }
+
+    private Month createMonth(long minute) {
+        YearMonth yearMonth = YearMonth.from(LocalDate.ofEpochDay(Math.floorDiv(minute, MINUTES_PER_DAY)));
+        long first = yearMonth.atDay(1).toEpochDay() * MINUTES_PER_DAY;
+        int length = yearMonth.lengthOfMonth() * MINUTES_PER_DAY;
+        Month created;
+        try {
+            created = map(directory.resolve(yearMonth + SUFFIX), first, length, true);
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not add a month to " + directory, e);
+        }
+        created.buffer.putInt(0, MAGIC);
+        created.buffer.putInt(4, VERSION);
+        created.buffer.putLong(8, first);
+        created.buffer.putInt(16, length);
+        created.buffer.putInt(USED_POSITION, 0);
+        created.changed = true;
+        months.put(first, created);
+        return created;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Month stored : months.values()) {
+            size += stored.used;
+        }
+        return size;
+    }
+
+    @Override
+    public void forEach(MinuteVisitor visitor) {
+        for (Month stored : months.values()) {
+            visit(stored, stored.length, visitor);
+        }
+    }
+
+    /*
+     * Visits the minutes with lines among the month's first few.
+     */
+    private void visit(Month stored, int end, MinuteVisitor visitor) {
+        if (stored.used == 0) {
+            return;
+        }
+        MappedByteBuffer buffer = stored.buffer;
+        ByteBuffer view = buffer.duplicate();
+        for (int i = 0; i < end; i++) {
+            int record = HEADER_SIZE + i * RECORD_SIZE;
+            long count = buffer.getLong(record + COUNT * 8);
+            if (count == 0) {
+                continue;
+            }
+            view.position(record + HISTOGRAM_OFFSET);
+            view.asIntBuffer().get(histogram);
+            view.position(record + CLIENTS_OFFSET);
+            view.get(clients);
+            visitor.visit(stored.first + i, count, buffer.getLong(record + BYTES * 8),
+                    buffer.getLong(record + TIME * 8), buffer.getLong(record + SUCCESSFUL * 8),
+                    buffer.getLong(record + FAILURES * 8), histogram, clients);
+        }
+    }
+
+    /**
+     * Visits every minute before the given one, in time order, and then
+     * forgets them: months that end before it have their files deleted,
+     * and the minutes before it in the month it falls in are cleared.
+     */
+    @Override
+    public void removeBefore(long minute, MinuteVisitor visitor) {
+        Iterator<Month> iterator = months.headMap(minute).values().iterator();
+        while (iterator.hasNext()) {
+            Month stored = iterator.next();
+            int end = (int) Math.min(stored.length, minute - stored.first);
+            visit(stored, end, visitor);
+            if (end == stored.length) {
+                iterator.remove();
+                if (month == stored) {
+                    month = null;
+                }
+                try {
+                    stored.close();
+                    Files.delete(stored.file);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Can not remove a month from " + directory, e);
+                }
+            } else {
+                clear(stored, end);
+            }
+        }
+    }
+
+    /*
+     * Zeroes the records of the month's first minutes.
+     */
+    private static void clear(Month stored, int end) {
+        MappedByteBuffer buffer = stored.buffer;
+        byte[] zeroes = new byte[RECORD_SIZE];
+        for (int i = 0; i < end && stored.used > 0; i++) {
+            int record = HEADER_SIZE + i * RECORD_SIZE;
+            if (buffer.getLong(record + COUNT * 8) != 0) {
+                ByteBuffer view = buffer.duplicate();
+                view.position(record);
+                view.put(zeroes);
+                stored.used--;
+            }
+        }
+        buffer.putInt(USED_POSITION, stored.used);
+        stored.changed = true;
+    }
+
+    /**
+     * Writes any changes out to the files, returning once they're on disk.
+     */
+    public void flush() {
+        for (Month stored : months.values()) {
+            if (stored.changed) {
+                stored.buffer.force();
+                stored.changed = false;
+            }
+        }
+    }
+
+    /**
+     * Flushes the files and lets another store open the directory.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            for (Month stored : months.values()) {
+                stored.close();
+            }
+        } finally {
+            months.clear();
+            month = null;
+            lockChannel.close();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Holds the counters for each minute, keyed by minutes since the epoch.  It
+ * holds buckets of other lengths just as well, for other {@link Resolution}s,
+ * keyed by buckets since the epoch.
+ *
+ * Counters live in one array, five longs per minute, offset from the earliest
+ * minute it covers; the array grows in either direction as new minutes turn
+ * up.  Each minute also has a {@link LatencyHistogram} worth of bucket counts
+ * and {@link HyperLogLog} registers for its clients, allocated when the
+ * minute sees its first line.  A minute so far away that covering it would
+ * make the array huge goes into a sparse map instead, so one bad timestamp
+ * doesn't cost us a decade of empty slots.  Iteration is always in time
+ * order.  Not thread-safe.
+ *
+ * When following a log, old minutes are {@link #removeBefore removed} once
+ * they're done with, and the array slides forwards so that it stays small.
+ *
+ * {@link MappedMinuteStore} keeps its minutes in files instead.
+ */
+public class MinuteStore {
+    static final int COUNT = 0;
+    static final int BYTES = 1;
+    static final int TIME = 2;
+    static final int SUCCESSFUL = 3;
+    static final int FAILURES = 4;
+    static final int FIELDS = 5;
+
+    private static final int INITIAL_CAPACITY = 64;
+    /*
+     * About two years, or 40MB of counters.
+     */
+    static final int MAX_DENSE_MINUTES = 1 << 20;
+
+    /**
+     * Receives the counters for a minute.  The histogram and client registers
+     * are the store's own, so they mustn't be kept or changed.
+     */
+    public interface MinuteVisitor {
+        void visit(long minute, long count, long bytes, long time, long successful, long failures,
+                   int[] histogram, byte[] clients);
+    }
+
+    /*
+     * A minute outside the dense range.
+     */
+    private static class SparseMinute {
+        final long[] counters = new long[FIELDS];
+        final int[] histogram = new int[LatencyHistogram.BUCKETS];
+        final byte[] clients = new byte[HyperLogLog.REGISTERS];
+    }
+
+    private long base = 0;
+    private int capacity = 0;
+    private long[] dense = new long[0];
+    private int[][] histograms = new int[0][];
+    private byte[][] clients = new byte[0][];
+    private final TreeMap<Long, SparseMinute> sparse = new TreeMap<>();
+    private int size = 0;
+
+    // Where locate() found the minute.
+    private long[] slotCounters;
+    private int slotOffset;
+    private int[] slotHistogram;
+    private byte[] slotClients;
+
+    public void add(long minute, long bytesTransferred, long timeTaken, StatusClass status) {
+        locate(minute);
+        slotHistogram[LatencyHistogram.bucket(timeTaken)]++;
+        add(1, bytesTransferred, timeTaken,
+                status == StatusClass.SUCCESS ? 1 : 0, status == StatusClass.FAILURE ? 1 : 0);
+    }
+
+    /**
+     * @param clientHash the client's address, hashed with
+     *                   {@link HyperLogLog#hash}
+     */
+    public void add(long minute, long bytesTransferred, long timeTaken, StatusClass status, long clientHash) {
+        add(minute, bytesTransferred, timeTaken, status);
+        HyperLogLog.add(slotClients, clientHash);
+    }
+
+    public void add(long minute, long count, long bytes, long time, long successful, long failures,
+                    int[] histogram, byte[] clients) {
+        locate(minute);
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            slotHistogram[i] += histogram[i];
+        }
+        for (int i = 0; i < HyperLogLog.REGISTERS; i++) {
+            if (slotClients[i] < clients[i]) {
+                slotClients[i] = clients[i];
+            }
+        }
+        add(count, bytes, time, successful, failures);
+    }
+
+    private void add(long count, long bytes, long time, long successful, long failures) {
+        long[] counters = slotCounters;
+        int offset = slotOffset;
+        if (counters[offset + COUNT] == 0 && count > 0) {
+            size++;
+        }
+        counters[offset + COUNT] += count;
+        counters[offset + BYTES] += bytes;
+        counters[offset + TIME] += time;
+        counters[offset + SUCCESSFUL] += successful;
+        counters[offset + FAILURES] += failures;
+    }
+
+    /**
+     * Finds the slot for the minute, making room for it if need be.
+     */
+    private void locate(long minute) {
+        long index = minute - base;
+        if ((index < 0 || index >= capacity) && !grow(minute)) {
+            SparseMinute sparseMinute = sparse.computeIfAbsent(minute, m -> new SparseMinute());
+            slotCounters = sparseMinute.counters;
+            slotOffset = 0;
+            slotHistogram = sparseMinute.histogram;
+            slotClients = sparseMinute.clients;
+            return;
+        }
+
+        int slot = (int) (minute - base);
+        int[] histogram = histograms[slot];
+        if (histogram == null) {
+            histogram = new int[LatencyHistogram.BUCKETS];
+            histograms[slot] = histogram;
+            clients[slot] = new byte[HyperLogLog.REGISTERS];
+        }
+        slotCounters = dense;
+        slotOffset = slot * FIELDS;
+        slotHistogram = histogram;
+        slotClients = clients[slot];
+    }
+
+    /**
+     * Adds all of another store's counters to ours.
+     */
+    public void merge(MinuteStore other) {
+        other.forEach(this::add);
+    }
+
+    /**
+     * @param factor how many of our buckets make up one of the new ones
+     * @return a store of longer buckets, each holding the totals of the
+     * buckets it covers.  Keys are divided by the factor, rounding down, so
+     * minutes become hours with a factor of 60.
+     */
+    public MinuteStore coarsen(long factor) {
+        MinuteStore coarser = new MinuteStore();
+        forEach((bucket, count, bytes, time, successful, failures, histogram, bucketClients) ->
+                coarser.add(Math.floorDiv(bucket, factor), count, bytes, time, successful, failures,
+                        histogram, bucketClients));
+        return coarser;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the number of minutes that have seen at least one line.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Visits every minute that has seen at least one line, in time order.
+     */
+    public void forEach(MinuteVisitor visitor) {
+        long denseEnd = base + capacity;
+        for (Map.Entry<Long, SparseMinute> entry : sparse.headMap(base).entrySet()) {
+            visit(visitor, entry.getKey(), entry.getValue());
+        }
+        for (int i = 0; i < capacity; i++) {
+            if (dense[i * FIELDS + COUNT] > 0) {
+                visit(visitor, base + i, dense, i * FIELDS, histograms[i], clients[i]);
+            }
+        }
+        for (Map.Entry<Long, SparseMinute> entry : sparse.tailMap(denseEnd).entrySet()) {
+            visit(visitor, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Visits every minute before the given one, in time order, and then
+     * forgets them.
+     */
+    public void removeBefore(long minute, MinuteVisitor visitor) {
+        removeSparse(sparse.headMap(Math.min(minute, base)), visitor);
+
+        int removed = minute <= base ? 0 : minute >= base + capacity ? capacity : (int) (minute - base);
+        for (int i = 0; i < removed; i++) {
+            int offset = i * FIELDS;
+            if (dense[offset + COUNT] > 0) {
+                visit(visitor, base + i, dense, offset, histograms[i], clients[i]);
+                size--;
+            }
+            Arrays.fill(dense, offset, offset + FIELDS, 0);
+            histograms[i] = null;
+            clients[i] = null;
+        }
+
+        if (minute > base + capacity) {
+            removeSparse(sparse.subMap(base + capacity, minute), visitor);
+        }
+
+        if (size == 0) {
+            // Start again wherever the next minute turns up.
+            base = 0;
+            capacity = 0;
+            dense = new long[0];
+            histograms = new int[0][];
+            clients = new byte[0][];
+        } else if (capacity > 0 && removed >= capacity / 2) {
+            // Slide once at least half the array is behind us, so that
+            // sliding costs no more than the removals did.
+            slide(minute);
+        }
+    }
+
+    private void removeSparse(Map<Long, SparseMinute> minutes, MinuteVisitor visitor) {
+        Iterator<Map.Entry<Long, SparseMinute>> iterator = minutes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, SparseMinute> entry = iterator.next();
+            visit(visitor, entry.getKey(), entry.getValue());
+            size--;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Moves the start of the dense array forward to the given minute, which
+     * must only have empty slots before it and something after it.
+     */
+    private void slide(long minute) {
+        int shift = minute >= base + capacity ? capacity : (int) (minute - base);
+        System.arraycopy(dense, shift * FIELDS, dense, 0, (capacity - shift) * FIELDS);
+        Arrays.fill(dense, (capacity - shift) * FIELDS, capacity * FIELDS, 0);
+        System.arraycopy(histograms, shift, histograms, 0, capacity - shift);
+        Arrays.fill(histograms, capacity - shift, capacity, null);
+        System.arraycopy(clients, shift, clients, 0, capacity - shift);
+        Arrays.fill(clients, capacity - shift, capacity, null);
+        base = minute;
+        coverSparse();
+    }
+
+    /*
+     * The array may now cover minutes it didn't before, some of which might
+     * have been sparse, so move them into it.
+     */
+    private void coverSparse() {
+        Iterator<Map.Entry<Long, SparseMinute>> covered = sparse.subMap(base, base + capacity).entrySet().iterator();
+        while (covered.hasNext()) {
+            Map.Entry<Long, SparseMinute> entry = covered.next();
+            int slot = (int) (entry.getKey() - base);
+            System.arraycopy(entry.getValue().counters, 0, dense, slot * FIELDS, FIELDS);
+            histograms[slot] = entry.getValue().histogram;
+            clients[slot] = entry.getValue().clients;
+            covered.remove();
+        }
+    }
+
+    /**
+     * Visits every minute as a {@link LogMinuteAggregator}, in time order.
+     */
+    public void forEachMinute(Percentiles percentiles, Consumer<LogMinuteAggregator> consumer) {
+        forEach((minute, count, bytes, time, successful, failures, histogram, minuteClients) ->
+                consumer.accept(new LogMinuteAggregator(minute, count, bytes, time, successful, failures,
+                        histogram, minuteClients, percentiles)));
+    }
+
+    private static void visit(MinuteVisitor visitor, long minute, SparseMinute sparseMinute) {
+        visit(visitor, minute, sparseMinute.counters, 0, sparseMinute.histogram, sparseMinute.clients);
+    }
+
+    private static void visit(MinuteVisitor visitor, long minute, long[] counters, int offset, int[] histogram,
+                              byte[] clients) {
+        visitor.visit(minute, counters[offset + COUNT], counters[offset + BYTES], counters[offset + TIME],
+                counters[offset + SUCCESSFUL], counters[offset + FAILURES], histogram, clients);
+    }
+
+    /**
+     * Grows the dense array to cover the minute, if that doesn't make it too
+     * big.
+     *
+     * Once {@link #slide} has moved the array on, growing it can cover a
+     * minute that was too far away before, so sparse minutes it now covers
+     * move into it.
+     *
+     * @return whether the minute is now covered.
+     */
+    private boolean grow(long minute) {
+        long lower = capacity == 0 ? minute : Math.min(base, minute);
+        long upper = capacity == 0 ? minute + 1 : Math.max(base + capacity, minute + 1);
+        long span = upper - lower;
+        if (span > MAX_DENSE_MINUTES) {
+            return false;
+        }
+
+        int newCapacity = (int) Math.min(MAX_DENSE_MINUTES, Math.max(span, Math.max(INITIAL_CAPACITY, 2L * capacity)));
+        // Leave the spare room on the side we're growing towards.
+        long newBase = capacity > 0 && minute < base ? upper - newCapacity : lower;
+        long[] newDense = new long[newCapacity * FIELDS];
+        int[][] newHistograms = new int[newCapacity][];
+        byte[][] newClients = new byte[newCapacity][];
+        if (capacity > 0) {
+            System.arraycopy(dense, 0, newDense, (int) (base - newBase) * FIELDS, capacity * FIELDS);
+            System.arraycopy(histograms, 0, newHistograms, (int) (base - newBase), capacity);
+            System.arraycopy(clients, 0, newClients, (int) (base - newBase), capacity);
+        }
+        base = newBase;
+        capacity = newCapacity;
+        dense = newDense;
+        histograms = newHistograms;
+        clients = newClients;
+        coverSparse();
+        return true;
+    }
+}
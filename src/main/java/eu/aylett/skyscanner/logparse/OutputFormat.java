@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The formats we can write results in, as chosen with {@code --format}.
+ */
+public enum OutputFormat {
+    YAML {
+        @Override
+        public JsonFactory factory() {
+            return new YAMLFactory();
+        }
+
+        @Override
+        public ResultWriter writer(Writer out, JsonFactory factory, LogParseOptions options) throws IOException {
+            return new YamlResultWriter(out, factory, options.detail, options.aggregate, options.resolutions);
+        }
+    },
+    JSONL {
+        @Override
+        public JsonFactory factory() {
+            return new JsonFactory();
+        }
+
+        @Override
+        public ResultWriter writer(Writer out, JsonFactory factory, LogParseOptions options) throws IOException {
+            return new JsonLinesResultWriter(out, factory, options.detail, options.aggregate,
+                    options.resolutions);
+        }
+    },
+    CSV {
+        @Override
+        public JsonFactory factory() {
+            return new JsonFactory();
+        }
+
+        @Override
+        public ResultWriter writer(Writer out, JsonFactory factory, LogParseOptions options) throws IOException {
+            return new CsvResultWriter(out, options.percentiles, options.detail, options.aggregate,
+                    options.resolutions, !options.sample.isAll());
+        }
+    };
+
+    /**
+     * @return a factory for generators that write this format, if it's one
+     * Jackson writes.
+     */
+    public abstract JsonFactory factory();
+
+    /**
+     * @return a mapper that writes this format, if it's one Jackson writes.
+     * The writers don't use one, as setting one up is slow.
+     */
+    public ObjectMapper mapper() {
+        return new ObjectMapper(factory());
+    }
+
+    public abstract ResultWriter writer(Writer out, JsonFactory factory, LogParseOptions options) throws IOException;
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+/**
+ * Why a line couldn't be parsed.
+ */
+public enum ParseFailure {
+    MISMATCH("lines not matching the log format"),
+    TIMESTAMP("bad timestamps"),
+    BYTES("bad byte counts"),
+    TIME("bad times taken");
+
+    final String description;
+
+    ParseFailure(String description) {
+        this.description = description;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts what happened to the lines one thread has read, and roughly how
+ * long it spent on them.  Counting is cheap enough to always do.
+ *
+ * Only the thread doing the reading may update the counters.  Every few
+ * thousand lines it publishes them, so that {@link StatsReporter} can show
+ * progress from another thread.
+ */
+public class ParseStats {
+    private static final int PUBLISH_MASK = 4096 - 1;
+    private static final int PUBLISHED_LINES = 0;
+    private static final int PUBLISHED_BYTES = 1;
+    private static final int PUBLISHED_FAILURES = 2;
+
+    long lines = 0;
+    long bytes = 0;
+    long blank = 0;
+    /*
+     * Lines that parsed, but turned up too long after the lines around them
+     * to be counted.
+     */
+    long late = 0;
+    /*
+     * Lines left out by --sample, without being parsed.
+     */
+    long skipped = 0;
+    final long[] failures = new long[ParseFailure.values().length];
+
+    /*
+     * Time spent, in nanoseconds.  Parsing and aggregating are estimated
+     * from a sample of lines; reading is whatever's left.
+     */
+    long ingestNanos = 0;
+    long parseNanos = 0;
+    long aggregateNanos = 0;
+
+    private final AtomicLongArray published = new AtomicLongArray(3);
+
+    /**
+     * Counts a line read, including its line ending.
+     */
+    void line(int length) {
+        lines++;
+        bytes += length;
+        if ((lines & PUBLISH_MASK) == 0) {
+            publish();
+        }
+    }
+
+    void blank() {
+        blank++;
+    }
+
+    void failed(ParseFailure failure) {
+        failures[failure.ordinal()]++;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getBlank() {
+        return blank;
+    }
+
+    public long getLate() {
+        return late;
+    }
+
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getFailures(ParseFailure failure) {
+        return failures[failure.ordinal()];
+    }
+
+    public long getFailures() {
+        long total = 0;
+        for (long count : failures) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Makes the counters so far visible to {@link #publishedLines} and
+     * friends on other threads.
+     */
+    void publish() {
+        published.lazySet(PUBLISHED_LINES, lines);
+        published.lazySet(PUBLISHED_BYTES, bytes);
+        published.lazySet(PUBLISHED_FAILURES, getFailures());
+    }
+
+    long publishedLines() {
+        return published.get(PUBLISHED_LINES);
+    }
+
+    long publishedBytes() {
+        return published.get(PUBLISHED_BYTES);
+    }
+
+    long publishedFailures() {
+        return published.get(PUBLISHED_FAILURES);
+    }
+
+    /**
+     * Adds another thread's counts to ours, once it's finished.
+     */
+    public void add(ParseStats other) {
+        lines += other.lines;
+        bytes += other.bytes;
+        blank += other.blank;
+        late += other.late;
+        skipped += other.skipped;
+        for (int i = 0; i < failures.length; i++) {
+            failures[i] += other.failures[i];
+        }
+        ingestNanos += other.ingestNanos;
+        parseNanos += other.parseNanos;
+        aggregateNanos += other.aggregateNanos;
+    }
+}
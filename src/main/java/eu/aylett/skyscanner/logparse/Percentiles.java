@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * The response time percentiles we report, named like {@code p50} and
+ * {@code p99.9}.
+ */
+public class Percentiles {
+    public static final Percentiles DEFAULT = parse("50,90,99,99.9");
+
+    private final double[] values;
+    private final String[] names;
+
+    private Percentiles(double[] values, String[] names) {
+        this.values = values;
+        this.names = names;
+    }
+
+    /**
+     * @param list comma-separated percentiles, each above 0 and at most 100
+     * @throws IllegalArgumentException if the list can't be parsed
+     */
+    public static Percentiles parse(String list) {
+        List<String> parts = newArrayList(Splitter.on(',').trimResults().omitEmptyStrings().split(list));
+        if (parts.isEmpty()) {
+            throw new IllegalArgumentException("No percentiles given");
+        }
+        double[] values = new double[parts.size()];
+        String[] names = new String[parts.size()];
+        for (int i = 0; i < parts.size(); i++) {
+            BigDecimal value;
+            try {
+                value = new BigDecimal(parts.get(i));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number: " + parts.get(i), e);
+            }
+            if (value.signum() <= 0 || value.compareTo(BigDecimal.valueOf(100)) > 0) {
+                throw new IllegalArgumentException("Percentiles must be above 0 and at most 100: " + parts.get(i));
+            }
+            values[i] = value.doubleValue();
+            names[i] = "p" + value.stripTrailingZeros().toPlainString();
+        }
+        return new Percentiles(values, names);
+    }
+
+    /**
+     * @return the names, like {@code p50}, in the order they were given.
+     */
+    public List<String> names() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * @return each percentile of the histogram, by name, in the order they
+     * were given.
+     */
+    public Map<String, Long> of(LatencyHistogram histogram) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            result.put(names[i], histogram.percentile(values[i]));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return Joiner.on(',').join(names);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.google.common.base.Splitter;
+
+import java.util.List;
+import java.util.TreeSet;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * How long a bucket of lines covers: some seconds, minutes, hours or days,
+ * named like {@code 10s} or {@code 1h}.  Buckets start at whole multiples of
+ * their length since the epoch, so days run midnight to midnight, UTC.
+ *
+ * Lines are counted at the finest resolution asked for, and each coarser one
+ * is built by merging the buckets of the one below, so every resolution must
+ * fit a whole number of times into the next, with minutes always among them
+ * for the aggregate.
+ */
+public final class Resolution implements Comparable<Resolution> {
+    public static final Resolution MINUTE = new Resolution(60);
+
+    private static final long[] UNITS = {86400, 3600, 60, 1};
+    private static final String UNIT_NAMES = "dhms";
+
+    private final long seconds;
+
+    private Resolution(long seconds) {
+        this.seconds = seconds;
+    }
+
+    /**
+     * @param value a whole number followed by {@code s}, {@code m}, {@code h}
+     *              or {@code d}
+     * @throws IllegalArgumentException if it can't be parsed
+     */
+    public static Resolution parse(String value) {
+        int unit = value.isEmpty() ? -1 : UNIT_NAMES.indexOf(value.charAt(value.length() - 1));
+        if (unit < 0) {
+            throw new IllegalArgumentException("Resolutions need a unit of s, m, h or d: " + value);
+        }
+        long count;
+        try {
+            count = Long.parseLong(value.substring(0, value.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value, e);
+        }
+        if (count <= 0 || count > Integer.MAX_VALUE / UNITS[unit]) {
+            throw new IllegalArgumentException("Resolutions must be above zero and below 68 years: " + value);
+        }
+        return new Resolution(count * UNITS[unit]);
+    }
+
+    /**
+     * @param list comma-separated resolutions
+     * @return the resolutions, finest first, without repeats
+     * @throws IllegalArgumentException if the list can't be parsed, or the
+     * resolutions can't each be built from the one below
+     */
+    public static List<Resolution> parseList(String list) {
+        TreeSet<Resolution> resolutions = new TreeSet<>();
+        for (String value : Splitter.on(',').trimResults().omitEmptyStrings().split(list)) {
+            resolutions.add(parse(value));
+        }
+        if (resolutions.isEmpty()) {
+            throw new IllegalArgumentException("No resolutions given");
+        }
+        TreeSet<Resolution> withMinutes = new TreeSet<>(resolutions);
+        withMinutes.add(MINUTE);
+        Resolution finer = null;
+        for (Resolution resolution : withMinutes) {
+            if (finer != null && resolution.seconds % finer.seconds != 0) {
+                throw new IllegalArgumentException(resolution + " is not a whole number of " + finer
+                        + (finer.equals(MINUTE) || resolution.equals(MINUTE) ? ", as minutes are always counted" : ""));
+            }
+            finer = resolution;
+        }
+        return newArrayList(resolutions);
+    }
+
+    /**
+     * @return how long each bucket is, in seconds.
+     */
+    public long getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * @return the bucket a time falls in, counting from the epoch.
+     */
+    public long bucket(long timestamp) {
+        return Math.floorDiv(timestamp, seconds);
+    }
+
+    @Override
+    public int compareTo(Resolution other) {
+        return Long.compare(seconds, other.seconds);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Resolution && ((Resolution) other).seconds == seconds;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(seconds);
+    }
+
+    /**
+     * @return the name in the largest unit that fits, like {@code 90s} or
+     * {@code 2h}.
+     */
+    @Override
+    public String toString() {
+        for (int i = 0; i < UNITS.length; i++) {
+            if (seconds % UNITS[i] == 0) {
+                return seconds / UNITS[i] + UNIT_NAMES.substring(i, i + 1);
+            }
+        }
+        throw new IllegalStateException("Every resolution is a whole number of seconds");
+    }
+}
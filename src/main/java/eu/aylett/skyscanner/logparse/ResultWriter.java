@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Writes out each minute as it's handed over, then the aggregate, without
+ * holding on to anything, so output costs the same however many minutes
+ * there are.
+ */
+public interface ResultWriter extends Closeable, Flushable {
+    /**
+     * Writes nothing, for when neither minutes nor the aggregate are asked
+     * for.
+     */
+    ResultWriter NONE = new ResultWriter() {
+        @Override
+        public void minute(LogMinuteAggregator minute) {
+        }
+
+        @Override
+        public void aggregate(LogGlobalAggregator aggregate) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * Writes a minute.  Minutes are passed in time order.
+     */
+    void minute(LogMinuteAggregator minute) throws IOException;
+
+    /**
+     * Writes the aggregate, after the last minute.
+     *
+     * @param aggregate null if there were no lines
+     */
+    void aggregate(LogGlobalAggregator aggregate) throws IOException;
+}
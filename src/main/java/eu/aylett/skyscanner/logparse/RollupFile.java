@@ -0,0 +1,256 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads and writes per-minute aggregates in a compact binary file, so that
+ * logs only need parsing once.
+ *
+ * The file starts with a magic number and a format version, as two ints.
+ * After that come records, one per minute: the epoch minute and the five
+ * counters as longs, then the number of non-empty histogram buckets as a
+ * short, followed by each one's index as a short and count as an int.  Then
+ * come the {@link HyperLogLog} client registers: the number of non-zero ones
+ * as a short, followed by each one's index as a short and value as a byte,
+ * or, if that would be longer, every register as a byte.  All numbers are
+ * big-endian.  Version 1 files, from before we counted clients, have no
+ * registers; we still read them, but won't append to them.
+ *
+ * Files are only ever appended to, and the same minute may appear in more
+ * than one record; readers add them together.  A record cut short by a crash
+ * is ignored when reading, and cut off before the next append.
+ */
+public class RollupFile {
+    private static final Logger LOG = Logging.getLogger(RollupFile.class);
+
+    static final int MAGIC = 0x4c505255; // "LPRU"
+    /*
+     * Versions 1 and 2 use LatencyHistogram's 592-bucket layout, and version
+     * 2 HyperLogLog's 4096 registers.  Change the version if either changes.
+     */
+    static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 6 * 8 + 2;
+    private static final int BUCKET_SIZE = 2 + 4;
+    private static final int REGISTER_SIZE = 2 + 1;
+
+    private RollupFile() {
+    }
+
+    /**
+     * Appends every minute in the store to the file, creating it if need be.
+     */
+    public static void append(Path path, MinuteStore minutes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size > 0) {
+                long valid = read(path, (minute, count, bytes, time, successful, failures, histogram, clients) -> { },
+                        VERSION);
+                if (valid < size) {
+                    LOG.warn("Removing an incomplete record from the end of {}", path);
+                    channel.truncate(valid);
+                }
+                channel.position(valid);
+            }
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            if (size == 0) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            writeMinutes(out, minutes);
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes a record for every minute in the store.
+     */
+    static void writeMinutes(DataOutputStream out, MinuteStore minutes) throws IOException {
+        try {
+            minutes.forEach((minute, count, bytes, time, successful, failures, histogram, clients) -> {
+                try {
+                    writeRecord(out, minute, count, bytes, time, successful, failures, histogram, clients);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, long minute, long count, long bytes, long time,
+                                    long successful, long failures, int[] histogram, byte[] clients)
+            throws IOException {
+        out.writeLong(minute);
+        out.writeLong(count);
+        out.writeLong(bytes);
+        out.writeLong(time);
+        out.writeLong(successful);
+        out.writeLong(failures);
+
+        int buckets = 0;
+        for (int value : histogram) {
+            if (value != 0) {
+                buckets++;
+            }
+        }
+        out.writeShort(buckets);
+        for (int i = 0; i < histogram.length; i++) {
+            if (histogram[i] != 0) {
+                out.writeShort(i);
+                out.writeInt(histogram[i]);
+            }
+        }
+
+        int registers = 0;
+        for (byte value : clients) {
+            if (value != 0) {
+                registers++;
+            }
+        }
+        out.writeShort(registers);
+        if (registers * REGISTER_SIZE < HyperLogLog.REGISTERS) {
+            for (int i = 0; i < clients.length; i++) {
+                if (clients[i] != 0) {
+                    out.writeShort(i);
+                    out.writeByte(clients[i]);
+                }
+            }
+        } else {
+            out.write(clients);
+        }
+    }
+
+    /**
+     * Visits every record in the file, in the order they were written.
+     * Passing {@link MinuteStore#add} as the visitor merges the file into a
+     * store.
+     *
+     * @return the length of the file up to the end of the last complete
+     * record.
+     * @throws IOException if the file isn't a rollup file we understand.
+     */
+    public static long read(Path path, MinuteStore.MinuteVisitor visitor) throws IOException {
+        return read(path, visitor, 1);
+    }
+
+    /**
+     * @param oldestVersion the oldest format version to accept
+     */
+    private static long read(Path path, MinuteStore.MinuteVisitor visitor, int oldestVersion) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int version;
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException(path + " is not a rollup file");
+                }
+                version = in.readInt();
+            } catch (EOFException e) {
+                throw new IOException(path + " is not a rollup file", e);
+            }
+            if (version > VERSION) {
+                throw new IOException(path + " has rollup format version " + version + ", but we only read up to version " + VERSION);
+            }
+            if (version < oldestVersion) {
+                throw new IOException(path + " has rollup format version " + version + ", so can't be appended to; "
+                        + "write to a new rollup file instead");
+            }
+
+            return readMinutes(in, path, HEADER_SIZE, version, visitor);
+        }
+    }
+
+    /**
+     * Reads records up to the end of the stream.
+     *
+     * @param position how far into the file the stream is
+     * @param version the format version the records are in
+     * @return the position of the end of the last complete record.
+     */
+    static long readMinutes(DataInputStream in, Path path, long position, int version,
+                            MinuteStore.MinuteVisitor visitor) throws IOException {
+        long valid = position;
+        int[] histogram = new int[LatencyHistogram.BUCKETS];
+        byte[] clients = new byte[HyperLogLog.REGISTERS];
+        while (true) {
+            long minute;
+            try {
+                minute = in.readLong();
+            } catch (EOFException e) {
+                return valid;
+            }
+            try {
+                long count = in.readLong();
+                long bytes = in.readLong();
+                long time = in.readLong();
+                long successful = in.readLong();
+                long failures = in.readLong();
+                int buckets = in.readUnsignedShort();
+                for (int i = 0; i < buckets; i++) {
+                    int bucket = in.readUnsignedShort();
+                    if (bucket >= LatencyHistogram.BUCKETS) {
+                        throw new IOException(path + " has a histogram bucket out of range at byte " + valid);
+                    }
+                    histogram[bucket] += in.readInt();
+                }
+                long registersSize = 0;
+                if (version >= 2) {
+                    int registers = in.readUnsignedShort();
+                    if (registers * REGISTER_SIZE < HyperLogLog.REGISTERS) {
+                        for (int i = 0; i < registers; i++) {
+                            int register = in.readUnsignedShort();
+                            if (register >= HyperLogLog.REGISTERS) {
+                                throw new IOException(path + " has a client register out of range at byte " + valid);
+                            }
+                            clients[register] = in.readByte();
+                        }
+                        registersSize = 2 + (long) registers * REGISTER_SIZE;
+                    } else {
+                        in.readFully(clients);
+                        registersSize = 2 + HyperLogLog.REGISTERS;
+                    }
+                }
+                visitor.visit(minute, count, bytes, time, successful, failures, histogram, clients);
+                Arrays.fill(histogram, 0);
+                Arrays.fill(clients, (byte) 0);
+                valid += RECORD_HEADER_SIZE + (long) buckets * BUCKET_SIZE + registersSize;
+            } catch (EOFException e) {
+                LOG.warn("Ignoring an incomplete record at the end of {}", path);
+                return valid;
+            }
+        }
+    }
+}
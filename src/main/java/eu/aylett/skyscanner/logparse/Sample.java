@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Picks one line in every so many to count, and scales what the picked
+ * lines add up to back up to an estimate for all of them.
+ *
+ * Lines are picked by a hash of their bytes, before they're parsed, so the
+ * same line is always picked or always left out, and a run picks the same
+ * lines however it reads them.  Each line is picked independently with
+ * probability 1/N, so a total over the picked lines, times N, is an unbiased
+ * estimate, with a variance of N(N-1) times the sum of the squares of the
+ * picked values.  Intervals are that many {@link #Z} standard errors either
+ * side, about 95% confidence.
+ */
+public final class Sample {
+    public static final Sample ALL = new Sample(1);
+    static final double Z = 1.96;
+
+    private static final long MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+    private final long oneIn;
+    // Lines whose hash is below this, unsigned, are picked.
+    private final long threshold;
+
+    private Sample(long oneIn) {
+        this.oneIn = oneIn;
+        this.threshold = Long.divideUnsigned(-1L, oneIn);
+    }
+
+    /**
+     * @param rate the fraction of lines to pick, above 0 and at most 1; it's
+     *             rounded to one in a whole number of lines
+     * @throws IllegalArgumentException if it's out of range
+     */
+    public static Sample ofRate(double rate) {
+        if (!(rate > 0 && rate <= 1)) {
+            throw new IllegalArgumentException("A sample rate must be above 0 and at most 1, not " + rate);
+        }
+        long oneIn = Math.round(1 / rate);
+        if (oneIn >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A sample rate must pick more than one line in " + Integer.MAX_VALUE);
+        }
+        return oneIn == 1 ? ALL : new Sample(oneIn);
+    }
+
+    /**
+     * @return N, where we pick one line in N.
+     */
+    public long getOneIn() {
+        return oneIn;
+    }
+
+    public boolean isAll() {
+        return oneIn == 1;
+    }
+
+    /**
+     * @return whether to count the line.  It reads the line eight bytes at a
+     * time, so costs about as much as finding the end of it did.
+     */
+    public boolean picks(ByteBuffer buffer, int start, int end) {
+        if (oneIn == 1) {
+            return true;
+        }
+        long hash = end - start;
+        int i = start;
+        for (; i + 8 <= end; i += 8) {
+            hash = (hash ^ buffer.getLong(i)) * MULTIPLIER;
+        }
+        for (; i < end; i++) {
+            hash = (hash ^ buffer.get(i)) * MULTIPLIER;
+        }
+        hash ^= hash >>> 29;
+        hash *= MULTIPLIER;
+        hash ^= hash >>> 32;
+        return Long.compareUnsigned(hash, threshold) < 0;
+    }
+
+    /**
+     * @return the estimated total over every line, from the total over the
+     * picked lines.
+     */
+    public long scale(long picked) {
+        return picked * oneIn;
+    }
+
+    /**
+     * @param pickedSquares the sum of the squares of the picked lines' values
+     * @return how far either side of an estimated total its interval goes.
+     */
+    public double totalMargin(double pickedSquares) {
+        return Z * Math.sqrt(pickedSquares * oneIn * (oneIn - 1));
+    }
+
+    /**
+     * @param variance the variance of the picked lines' values
+     * @param picked how many lines were picked
+     * @return how far either side of the picked lines' mean its interval
+     * goes, as an estimate of the mean over every line.
+     */
+    public double meanMargin(double variance, long picked) {
+        if (picked == 0) {
+            return 0;
+        }
+        return Z * Math.sqrt(variance / picked * (1 - 1.0 / oneIn));
+    }
+
+    @Override
+    public String toString() {
+        return "1/" + oneIn;
+    }
+}
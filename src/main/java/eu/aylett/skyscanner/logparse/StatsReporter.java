@@ -0,0 +1,149 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Maps.newLinkedHashMap;
+
+/**
+ * Collects the {@link ParseStats} for a run, and reports throughput, where
+ * the time went and why lines failed: at the end, and optionally every so
+ * often while it's running.
+ *
+ * Phase times are summed over every thread, so with more than one they may
+ * add up to more than the time taken.
+ */
+public class StatsReporter implements Closeable {
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    private final PrintStream out;
+    private final long startNanos = System.nanoTime();
+    private final List<ParseStats> running = new CopyOnWriteArrayList<>();
+    private final ParseStats finished = new ParseStats();
+    private final Map<String, Long> phases = newLinkedHashMap();
+    private final ScheduledExecutorService progress;
+
+    /**
+     * @param intervalSeconds how often to report progress, or zero for never
+     */
+    public StatsReporter(PrintStream out, long intervalSeconds) {
+        this.out = out;
+        if (intervalSeconds > 0) {
+            progress = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "logparse-stats");
+                thread.setDaemon(true);
+                return thread;
+            });
+            progress.scheduleAtFixedRate(this::reportProgress, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        } else {
+            progress = null;
+        }
+    }
+
+    /**
+     * @return counters for one thread to use, whose progress we'll report.
+     */
+    public ParseStats start() {
+        ParseStats stats = new ParseStats();
+        running.add(stats);
+        return stats;
+    }
+
+    /**
+     * Adds in a thread's counters once it's finished with them.  Must be
+     * called on a thread that can see everything it counted, such as the one
+     * that waited for it.
+     */
+    public synchronized void finish(ParseStats stats) {
+        finished.add(stats);
+        running.remove(stats);
+    }
+
+    /**
+     * Records time spent in a phase other than reading, parsing and
+     * aggregating.
+     */
+    public synchronized void phase(String name, long nanos) {
+        phases.merge(name, nanos, Long::sum);
+    }
+
+    private synchronized void reportProgress() {
+        long lines = finished.lines;
+        long bytes = finished.bytes;
+        long failures = finished.getFailures();
+        for (ParseStats stats : running) {
+            lines += stats.publishedLines();
+            bytes += stats.publishedBytes();
+            failures += stats.publishedFailures();
+        }
+        out.println(String.format(Locale.ROOT, "Progress: %s, %d failed", throughput(lines, bytes), failures));
+    }
+
+    /**
+     * Reports everything, once every thread has {@link #finish}ed.
+     */
+    public synchronized void report() {
+        ParseStats stats = finished;
+        out.println(String.format(Locale.ROOT, "Read %s", throughput(stats.lines, stats.bytes)));
+
+        StringBuilder failures = new StringBuilder();
+        for (ParseFailure failure : ParseFailure.values()) {
+            failures.append(failures.length() == 0 ? "" : ", ")
+                    .append(failure.name().toLowerCase(Locale.ROOT)).append(' ').append(stats.getFailures(failure));
+        }
+        String late = stats.late == 0 ? "" : String.format(Locale.ROOT, " (%d too late, so dropped)", stats.late);
+        String skipped = stats.skipped == 0 ? "" : String.format(Locale.ROOT, ", %d skipped by sampling", stats.skipped);
+        out.println(String.format(Locale.ROOT, "Lines: %d parsed%s, %d blank, %d failed (%s)%s",
+                stats.lines - stats.skipped - stats.blank - stats.getFailures(), late, stats.blank,
+                stats.getFailures(), failures, skipped));
+
+        StringBuilder times = new StringBuilder();
+        times.append(String.format(Locale.ROOT, "read %.3fs, parse %.3fs, aggregate %.3fs",
+                seconds(stats.ingestNanos - stats.parseNanos - stats.aggregateNanos),
+                seconds(stats.parseNanos), seconds(stats.aggregateNanos)));
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            times.append(String.format(Locale.ROOT, ", %s %.3fs", phase.getKey(), seconds(phase.getValue())));
+        }
+        out.println("Time: " + times);
+    }
+
+    private String throughput(long lines, long bytes) {
+        double elapsed = seconds(System.nanoTime() - startNanos);
+        return String.format(Locale.ROOT, "%d lines (%.1f MB) in %.3fs: %.0f lines/s, %.1f MB/s",
+                lines, bytes / BYTES_PER_MB, elapsed, lines / elapsed, bytes / BYTES_PER_MB / elapsed);
+    }
+
+    private static double seconds(long nanos) {
+        return Math.max(0, nanos) / NANOS_PER_SECOND;
+    }
+
+    @Override
+    public void close() {
+        if (progress != null) {
+            progress.shutdownNow();
+        }
+    }
+}
@@ -20,5 +20,12 @@ package eu.aylett.skyscanner.logparse;
  * Whether the request succeeded or not.
  */
 public enum StatusClass {
-    SUCCESS, FAILURE
+    SUCCESS, FAILURE;
+
+    /**
+     * A 2xx or 3xx response is a success, and anything else a failure.
+     */
+    public static StatusClass of(int statusCode) {
+        return statusCode >= 200 && statusCode < 400 ? SUCCESS : FAILURE;
+    }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Splits an input stream into lines, handing each to a {@link LineSink} as a
+ * range of bytes in a reused buffer.  We use this for standard input and
+ * pipes; regular files are better read by {@link MappedLogInput}.
+ *
+ * Given a path rather than a stream, it only opens it once it's read.
+ */
+public class StreamLogInput implements LogInput {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private InputStream in;
+    private byte[] bytes = new byte[BUFFER_SIZE];
+    private ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+    public StreamLogInput(InputStream in) {
+        this.path = null;
+        this.in = in;
+    }
+
+    public StreamLogInput(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public void readLines(LineSink sink) throws IOException {
+        if (in == null) {
+            in = Files.newInputStream(path);
+        }
+        int lineStart = 0;
+        int limit = 0;
+        int scanned = 0;
+        while (true) {
+            int newline;
+            while ((newline = ByteScanner.indexOf(buffer, scanned, limit, (byte) '\n')) >= 0) {
+                sink.line(buffer, lineStart, lineEnd(lineStart, newline));
+                lineStart = newline + 1;
+                scanned = lineStart;
+            }
+            scanned = limit;
+
+            if (limit == bytes.length) {
+                if (lineStart == 0) {
+                    // The line is longer than the buffer.
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                    buffer = ByteBuffer.wrap(bytes);
+                } else {
+                    System.arraycopy(bytes, lineStart, bytes, 0, limit - lineStart);
+                    limit -= lineStart;
+                    scanned -= lineStart;
+                    lineStart = 0;
+                }
+            }
+
+            int read = in.read(bytes, limit, bytes.length - limit);
+            if (read < 0) {
+                if (lineStart < limit) {
+                    sink.line(buffer, lineStart, lineEnd(lineStart, limit));
+                }
+                return;
+            }
+            limit += read;
+        }
+    }
+
+    /*
+     * Drop a carriage return, as BufferedReader would.
+     */
+    private int lineEnd(int lineStart, int newline) {
+        return newline > lineStart && bytes[newline - 1] == '\r' ? newline - 1 : newline;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Aggregates a log that may never end, handing each minute on as soon as it's
+ * closed and then forgetting it, so memory doesn't grow with the time covered.
+ *
+ * A minute is closed once we've seen a line at least {@code lateness} seconds
+ * after its end, or once the clock has passed that point while the log is
+ * idle.  Lines that turn up for a closed minute are counted and dropped.  Only
+ * the global totals are kept for closed minutes.
+ *
+ * A line stamped more than {@link #MAX_AHEAD} seconds after the clock is
+ * counted in its minute, but doesn't close anything, so that one bad
+ * timestamp can't make every line after it late.
+ */
+public class StreamingAggregator implements LineDetailsConsumer {
+    /*
+     * An hour, which leaves room for clocks that disagree.
+     */
+    static final long MAX_AHEAD = 60 * 60;
+
+    private final LineDetailsAggregator open;
+    private final LogGlobalAggregator global;
+    private final long lateness;
+    private final Consumer<LogMinuteAggregator> closedMinutes;
+    private final LongSupplier clock;
+
+    private long latestTimestamp = Long.MIN_VALUE;
+    private long closedBefore = Long.MIN_VALUE;
+    // Lines after this are too far ahead, unless the clock has moved on.
+    private long aheadAfter = Long.MIN_VALUE;
+    private long lateLines = 0;
+    private long aheadLines = 0;
+    private boolean seenAny = false;
+
+    /**
+     * @param lateness how long to wait for stragglers, in seconds
+     * @param percentiles the response time percentiles to report
+     * @param closedMinutes receives each minute once it's closed, in order
+     */
+    public StreamingAggregator(long lateness, Percentiles percentiles, Consumer<LogMinuteAggregator> closedMinutes) {
+        this(lateness, percentiles, 0, closedMinutes);
+    }
+
+    /**
+     * @param topPaths how many paths to break each minute down by, or zero
+     *                 for no breakdown
+     */
+    public StreamingAggregator(long lateness, Percentiles percentiles, int topPaths,
+                               Consumer<LogMinuteAggregator> closedMinutes) {
+        this(lateness, percentiles, topPaths, Sample.ALL, closedMinutes);
+    }
+
+    /**
+     * @param sample the sample of lines we're given, to scale up from
+     */
+    public StreamingAggregator(long lateness, Percentiles percentiles, int topPaths, Sample sample,
+                               Consumer<LogMinuteAggregator> closedMinutes) {
+        this(lateness, percentiles, topPaths, sample, closedMinutes, () -> System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * @param clock the time now, in seconds since the epoch
+     */
+    StreamingAggregator(long lateness, Percentiles percentiles, int topPaths, Sample sample,
+                        Consumer<LogMinuteAggregator> closedMinutes, LongSupplier clock) {
+        this.open = new LineDetailsAggregator(percentiles, topPaths);
+        this.open.setSample(sample);
+        this.global = new LogGlobalAggregator(percentiles);
+        this.lateness = lateness;
+        this.closedMinutes = closedMinutes;
+        this.clock = clock;
+    }
+
+    @Override
+    public void accept(long timestamp, StatusClass status, long bytesTransferred, long timeTaken) {
+        if (Math.floorDiv(timestamp, 60) < closedBefore) {
+            lateLines++;
+            return;
+        }
+        open.accept(timestamp, status, bytesTransferred, timeTaken);
+        advance(timestamp);
+    }
+
+    @Override
+    public void acceptRequest(long timestamp, int statusCode, long bytesTransferred, long timeTaken,
+                              long clientHash, ByteBuffer buffer, int requestStart, int requestEnd) {
+        if (Math.floorDiv(timestamp, 60) < closedBefore) {
+            lateLines++;
+            return;
+        }
+        open.acceptRequest(timestamp, statusCode, bytesTransferred, timeTaken, clientHash,
+                buffer, requestStart, requestEnd);
+        advance(timestamp);
+    }
+
+    private void advance(long timestamp) {
+        if (timestamp > latestTimestamp) {
+            if (timestamp > aheadAfter) {
+                aheadAfter = clock.getAsLong() + MAX_AHEAD;
+                if (timestamp > aheadAfter) {
+                    aheadLines++;
+                    return;
+                }
+            }
+            latestTimestamp = timestamp;
+            advanceTo(timestamp - lateness);
+        }
+    }
+
+    /**
+     * Closes minutes that have ended by the given time, in seconds since the
+     * epoch.  Used when the log goes quiet, so that the last minutes don't
+     * wait for lines that may not come.
+     */
+    public void advanceTo(long watermark) {
+        long minute = Math.floorDiv(watermark, 60);
+        if (minute > closedBefore) {
+            closedBefore = minute;
+            open.removeMinutesBefore(minute, this::close);
+        }
+    }
+
+    /**
+     * Closes every open minute, for when the log has ended.
+     */
+    public void closeAll() {
+        closedBefore = Long.MAX_VALUE;
+        open.removeMinutesBefore(Long.MAX_VALUE, this::close);
+    }
+
+    private void close(LogMinuteAggregator minute) {
+        seenAny = true;
+        global.accept(minute);
+        closedMinutes.accept(minute);
+    }
+
+    /**
+     * @return totals for the closed minutes, or null if there haven't been
+     * any.
+     */
+    public LogGlobalAggregator aggregate() {
+        return seenAny ? global : null;
+    }
+
+    /**
+     * @return how many lines arrived after their minute was closed.
+     */
+    public long getLateLines() {
+        return lateLines;
+    }
+
+    /**
+     * @return how many lines were stamped too far ahead of the clock to close
+     * any minutes.
+     */
+    public long getAheadLines() {
+        return aheadLines;
+    }
+}
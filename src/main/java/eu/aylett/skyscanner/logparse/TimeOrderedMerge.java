@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Merges lines from several inputs, each read on its own thread, into a
+ * single stream in time order.
+ *
+ * Each input may be out of order by up to {@code window} seconds: a line
+ * more than that before the latest one from the same input is late, and is
+ * counted and dropped.  So once every input has a line at or after a time,
+ * plus the window, nothing earlier than it can still arrive, and all the
+ * lines up to it can be handed on.
+ *
+ * The inputs are kept in a heap ordered by how far they've got, and more
+ * lines are always taken from the one furthest behind, while the others
+ * wait on their bounded queues.  Lines waiting to be handed on are kept in
+ * another heap, ordered by time.  So memory grows with the number of inputs
+ * and the window, not with the time covered.
+ */
+public class TimeOrderedMerge {
+    private static final int QUEUED_BATCHES = 4;
+    private static final LineBatch END = new LineBatch(false);
+
+    private final long window;
+    private final boolean keepRequests;
+    private final LineDetailsConsumer consumer;
+    private final List<Source> sources = newArrayList();
+    private final LineHeap lines;
+    private long lateLines = 0;
+
+    /**
+     * @param inputs the number of inputs, each of which must be fed from
+     *               its own thread through {@link #source}
+     * @param window how far out of order each input may be, in seconds
+     * @param keepRequests whether to hand on request lines; they're copied
+     *                     to cross threads, so don't ask if they're unused
+     * @param consumer receives the lines in time order, on the thread that
+     *                 calls {@link #run}
+     */
+    public TimeOrderedMerge(int inputs, long window, boolean keepRequests, LineDetailsConsumer consumer) {
+        this.window = window;
+        this.keepRequests = keepRequests;
+        this.consumer = consumer;
+        this.lines = new LineHeap(keepRequests);
+        for (int i = 0; i < inputs; i++) {
+            sources.add(new Source());
+        }
+    }
+
+    /**
+     * @return where to hand the lines from an input; call
+     * {@link Source#finish} once it's ended.
+     */
+    public Source source(int input) {
+        return sources.get(input);
+    }
+
+    /**
+     * Hands on every line, in time order, until every input has finished.
+     */
+    public void run() throws InterruptedException {
+        PriorityQueue<Source> behind = new PriorityQueue<>(Math.max(1, sources.size()),
+                Comparator.comparingLong(source -> source.complete));
+        behind.addAll(sources);
+        while (true) {
+            long complete = behind.isEmpty() ? Long.MAX_VALUE : behind.peek().complete;
+            while (!lines.isEmpty() && lines.peekTimestamp() <= complete) {
+                lines.poll(consumer);
+            }
+            if (behind.isEmpty()) {
+                return;
+            }
+
+            Source source = behind.poll();
+            LineBatch batch = source.queue.take();
+            if (batch == END) {
+                continue;
+            }
+            for (int i = 0; i < batch.size; i++) {
+                long timestamp = batch.timestamps[i];
+                if (timestamp < source.complete) {
+                    lateLines++;
+                } else {
+                    lines.add(batch, i);
+                    if (timestamp - window > source.complete) {
+                        source.complete = timestamp - window;
+                    }
+                }
+            }
+            behind.add(source);
+        }
+    }
+
+    /**
+     * @return how many lines were dropped for being more than the window
+     * behind their input.
+     */
+    public long getLateLines() {
+        return lateLines;
+    }
+
+    /**
+     * Collects lines from one input into batches for {@link #run} to merge.
+     * Blocks while the merge is busy with other inputs.
+     */
+    public class Source implements LineDetailsConsumer {
+        private final BlockingQueue<LineBatch> queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+        private LineBatch batch = new LineBatch(keepRequests);
+
+        // Only used by the merge: no line from this input before this time,
+        // in seconds, can still be merged.
+        private long complete = Long.MIN_VALUE;
+
+        @Override
+        public void accept(long timestamp, StatusClass status, long bytesTransferred, long timeTaken) {
+            batch.accept(timestamp, status, bytesTransferred, timeTaken);
+            if (batch.isFull()) {
+                send();
+            }
+        }
+
+        @Override
+        public void acceptRequest(long timestamp, int statusCode, long bytesTransferred, long timeTaken,
+                                  long clientHash, ByteBuffer buffer, int requestStart, int requestEnd) {
+            batch.acceptRequest(timestamp, statusCode, bytesTransferred, timeTaken, clientHash,
+                    buffer, requestStart, requestEnd);
+            if (batch.isFull()) {
+                send();
+            }
+        }
+
+        /**
+         * Sends any lines still waiting, and lets the merge know there are
+         * no more.
+         */
+        public void finish() {
+            if (batch.size > 0) {
+                send();
+            }
+            put(END);
+        }
+
+        private void send() {
+            put(batch);
+            batch = new LineBatch(keepRequests);
+        }
+
+        private void put(LineBatch batch) {
+            try {
+                queue.put(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new InterruptedIOException("Interrupted while merging lines"));
+            }
+        }
+    }
+}
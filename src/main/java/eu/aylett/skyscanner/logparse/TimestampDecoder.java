@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes "dd/MMM/yyyy:HH:mm:ss Z" timestamps into seconds since the epoch.
+ *
+ * Consecutive log lines almost always share their minute and zone, so we
+ * remember the last "dd/MMM/yyyy:HH:mm" prefix and zone we saw and only need
+ * to read the seconds when they match.  Not thread-safe: use one per parser.
+ */
+public class TimestampDecoder {
+    /**
+     * Returned when the timestamp isn't valid.
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    /*
+     * Timestamps are always this long.
+     */
+    static final int LENGTH = 26;
+    private static final int SECONDS = 18;
+    private static final int ZONE = 21;
+    private static final String[] MONTHS = {
+            "jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec"
+    };
+
+    /*
+     * The cached prefix is bytes 0-16, held as two longs and a byte; the zone
+     * is bytes 21-25, held as an int and a byte.
+     */
+    private boolean cached = false;
+    private long cachedPrefixHigh;
+    private long cachedPrefixLow;
+    private byte cachedPrefixLast;
+    private int cachedZone;
+    private byte cachedZoneLast;
+    private long cachedMinuteStart;
+
+    /**
+     * @return seconds since the epoch, or {@link #INVALID}.
+     */
+    public long decode(ByteBuffer buffer, int start, int end) {
+        if (end - start != LENGTH || buffer.get(start + SECONDS - 1) != ':' || buffer.get(start + ZONE - 1) != ' ') {
+            return INVALID;
+        }
+        int second = digits(buffer, start + SECONDS, 2);
+        if (second < 0 || second > 59) {
+            return INVALID;
+        }
+
+        long prefixHigh = buffer.getLong(start);
+        long prefixLow = buffer.getLong(start + 8);
+        byte prefixLast = buffer.get(start + 16);
+        int zone = buffer.getInt(start + ZONE);
+        byte zoneLast = buffer.get(start + ZONE + 4);
+        if (!(cached && prefixHigh == cachedPrefixHigh && prefixLow == cachedPrefixLow && prefixLast == cachedPrefixLast
+                && zone == cachedZone && zoneLast == cachedZoneLast)) {
+            long minuteStart = decodeMinute(buffer, start);
+            if (minuteStart == INVALID) {
+                return INVALID;
+            }
+            cached = true;
+            cachedPrefixHigh = prefixHigh;
+            cachedPrefixLow = prefixLow;
+            cachedPrefixLast = prefixLast;
+            cachedZone = zone;
+            cachedZoneLast = zoneLast;
+            cachedMinuteStart = minuteStart;
+        }
+        return cachedMinuteStart + second;
+    }
+
+    /**
+     * Decodes everything but the seconds.
+     *
+     * @return the start of the minute in seconds since the epoch, or
+     * {@link #INVALID}.
+     */
+    private static long decodeMinute(ByteBuffer buffer, int start) {
+        if (buffer.get(start + 2) != '/' || buffer.get(start + 6) != '/' || buffer.get(start + 11) != ':'
+                || buffer.get(start + 14) != ':') {
+            return INVALID;
+        }
+        int day = digits(buffer, start, 2);
+        int month = month(buffer, start + 3);
+        int year = digits(buffer, start + 7, 4);
+        int hour = digits(buffer, start + 12, 2);
+        int minute = digits(buffer, start + 15, 2);
+        int offset = offsetSeconds(buffer, start + ZONE);
+        if (day < 1 || month < 1 || year < 0 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || offset == Integer.MIN_VALUE || day > daysInMonth(year, month)) {
+            return INVALID;
+        }
+        return daysSinceEpoch(year, month, day) * 86400 + hour * 3600 + minute * 60 - offset;
+    }
+
+    /**
+     * Days from 1970-01-01 to the given date in the proleptic Gregorian
+     * calendar.
+     */
+    static long daysSinceEpoch(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * @return the month number (1-12), or -1 if it's not an English month
+     * abbreviation.
+     */
+    private static int month(ByteBuffer buffer, int start) {
+        int a = buffer.get(start) | 0x20;
+        int b = buffer.get(start + 1) | 0x20;
+        int c = buffer.get(start + 2) | 0x20;
+        for (int i = 0; i < MONTHS.length; i++) {
+            String m = MONTHS[i];
+            if (m.charAt(0) == a && m.charAt(1) == b && m.charAt(2) == c) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the zone offset of "+hhmm" in seconds, or
+     * {@link Integer#MIN_VALUE} if it's not valid.
+     */
+    private static int offsetSeconds(ByteBuffer buffer, int start) {
+        byte sign = buffer.get(start);
+        int hours = digits(buffer, start + 1, 2);
+        int minutes = digits(buffer, start + 3, 2);
+        if ((sign != '+' && sign != '-') || hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+            return Integer.MIN_VALUE;
+        }
+        int offset = hours * 3600 + minutes * 60;
+        return sign == '-' ? -offset : offset;
+    }
+
+    /**
+     * @return the value of a fixed number of decimal digits, or -1 if they're
+     * not all digits.
+     */
+    private static int digits(ByteBuffer buffer, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int d = buffer.get(i) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+}
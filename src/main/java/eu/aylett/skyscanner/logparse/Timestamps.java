@@ -0,0 +1,45 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Writes times in our output as Joda's {@code DateTime.toString()} does,
+ * like {@code 2015-04-27T03:00:00.000+01:00} or {@code ...00.000Z} in UTC,
+ * in the default time zone.  We use java.time for it, because loading Joda's
+ * own zone data can take longer than parsing a small log.
+ */
+final class Timestamps {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSSXXX");
+
+    private Timestamps() {
+    }
+
+    /**
+     * @param millis since the epoch
+     */
+    static String format(long millis) {
+        return format(millis, ZoneId.systemDefault());
+    }
+
+    static String format(long millis, ZoneId zone) {
+        return FORMAT.format(Instant.ofEpochMilli(millis).atZone(zone));
+    }
+}
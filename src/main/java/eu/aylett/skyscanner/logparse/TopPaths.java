@@ -0,0 +1,335 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Keeps track of the busiest paths in bounded memory, using the Space-Saving
+ * algorithm: there are a fixed number of entries, and a path that isn't
+ * tracked takes over the entry with the fewest requests, inheriting its
+ * count.  A path's count is never less than its true count, and is too high
+ * by at most its {@code requestsOverestimate}.  Any path seen more than
+ * {@code 1/capacity} of the time is certain to be tracked.
+ *
+ * Bytes and response times are only added up from when a path was last
+ * taken on, so they're exact for the requests in that time.
+ *
+ * Paths are told apart by a 64-bit hash of their bytes, so recording a path
+ * we already track doesn't allocate.  Entries sit in a min-heap by count to
+ * find the one to replace, and in an open-addressed table by hash to find a
+ * path's entry.  Not thread-safe.
+ */
+public class TopPaths {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int capacity;
+    private int size = 0;
+
+    // By entry.
+    private final long[] hashes;
+    private final byte[][] paths;
+    private final int[] pathLengths;
+    private final long[] counts;
+    private final long[] errors;
+    private final long[] bytes;
+    private final long[] times;
+    private final int[] heapIndex;
+
+    // Entries, least count first.
+    private final int[] heap;
+
+    // Entry plus one, by hash; zero is empty.
+    private final int[] table;
+    private final int mask;
+
+    public TopPaths(int capacity) {
+        this.capacity = capacity;
+        hashes = new long[capacity];
+        paths = new byte[capacity][];
+        pathLengths = new int[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        bytes = new long[capacity];
+        times = new long[capacity];
+        heapIndex = new int[capacity];
+        heap = new int[capacity];
+        int tableSize = Integer.highestOneBit(Math.max(capacity, 1) * 4 - 1) << 1;
+        table = new int[tableSize];
+        mask = tableSize - 1;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Records a request for the path between {@code start} (inclusive) and
+     * {@code end} (exclusive).
+     */
+    public void add(ByteBuffer buffer, int start, int end, long bytesTransferred, long timeTaken) {
+        if (capacity == 0) {
+            return;
+        }
+        long hash = FNV_OFFSET;
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ (buffer.get(i) & 0xff)) * FNV_PRIME;
+        }
+        int entry = find(hash);
+        if (entry < 0) {
+            entry = claim(hash, end - start);
+            for (int i = start; i < end; i++) {
+                paths[entry][i - start] = buffer.get(i);
+            }
+        }
+        update(entry, 1, 0, bytesTransferred, timeTaken);
+    }
+
+    /**
+     * Adds the paths another sketch has tracked, for example from another
+     * minute.  Paths we track that the other didn't may have been among its
+     * untracked ones, so if it was full they get its smallest count added as
+     * possible error; that keeps every count an overestimate.
+     */
+    public void merge(TopPaths other) {
+        if (capacity == 0) {
+            return;
+        }
+        if (other.size == other.capacity && other.size > 0) {
+            long otherMin = other.counts[other.heap[0]];
+            for (int entry = 0; entry < size; entry++) {
+                if (other.find(hashes[entry]) < 0) {
+                    counts[entry] += otherMin;
+                    errors[entry] += otherMin;
+                }
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+        for (int otherEntry = 0; otherEntry < other.size; otherEntry++) {
+            int entry = find(other.hashes[otherEntry]);
+            if (entry < 0) {
+                entry = claim(other.hashes[otherEntry], other.pathLengths[otherEntry]);
+                System.arraycopy(other.paths[otherEntry], 0, paths[entry], 0, other.pathLengths[otherEntry]);
+            }
+            update(entry, other.counts[otherEntry], other.errors[otherEntry],
+                    other.bytes[otherEntry], other.times[otherEntry]);
+        }
+    }
+
+    /**
+     * @return the tracked paths, most requested first.
+     */
+    public List<PathCount> getPaths() {
+        List<PathCount> result = newArrayList();
+        for (int entry = 0; entry < size; entry++) {
+            result.add(new PathCount(new String(paths[entry], 0, pathLengths[entry], StandardCharsets.UTF_8),
+                    counts[entry], errors[entry], bytes[entry], times[entry]));
+        }
+        result.sort((a, b) -> Long.compare(b.requests, a.requests));
+        return result;
+    }
+
+    private int find(long hash) {
+        for (int i = (int) mix(hash) & mask; table[i] != 0; i = (i + 1) & mask) {
+            if (hashes[table[i] - 1] == hash) {
+                return table[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds an entry for a path we don't track, taking over the one with
+     * the least requests if we're full.
+     */
+    private int claim(long hash, int length) {
+        int entry;
+        if (size < capacity) {
+            entry = size++;
+            heap[entry] = entry;
+            heapIndex[entry] = entry;
+            siftUp(entry);
+        } else {
+            entry = heap[0];
+            remove(hashes[entry]);
+            errors[entry] = counts[entry];
+            bytes[entry] = 0;
+            times[entry] = 0;
+        }
+        hashes[entry] = hash;
+        int i = (int) mix(hash) & mask;
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = entry + 1;
+        if (paths[entry] == null || paths[entry].length < length) {
+            paths[entry] = new byte[Math.max(length, 16)];
+        }
+        pathLengths[entry] = length;
+        return entry;
+    }
+
+    private void update(int entry, long count, long error, long bytesTransferred, long timeTaken) {
+        counts[entry] += count;
+        errors[entry] += error;
+        bytes[entry] += bytesTransferred;
+        times[entry] += timeTaken;
+        siftDown(heapIndex[entry]);
+    }
+
+    /*
+     * Removes a hash from the table, moving later entries in its run back so
+     * that lookups don't need tombstones.
+     */
+    private void remove(long hash) {
+        int i = (int) mix(hash) & mask;
+        while (hashes[table[i] - 1] != hash) {
+            i = (i + 1) & mask;
+        }
+        int gap = i;
+        for (int j = (gap + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = (int) mix(hashes[table[j] - 1]) & mask;
+            // Move it into the gap unless its home is after the gap.
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                table[gap] = table[j];
+                gap = j;
+            }
+        }
+        table[gap] = 0;
+    }
+
+    private void siftUp(int position) {
+        int entry = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (counts[heap[parent]] <= counts[entry]) {
+                break;
+            }
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(entry, position);
+    }
+
+    private void siftDown(int position) {
+        int entry = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+                child++;
+            }
+            if (counts[entry] <= counts[heap[child]]) {
+                break;
+            }
+            place(heap[child], position);
+            position = child;
+        }
+        place(entry, position);
+    }
+
+    private void place(int entry, int position) {
+        heap[position] = entry;
+        heapIndex[entry] = position;
+    }
+
+    /*
+     * FNV's low bits aren't well mixed, and they pick the table slot.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * A tracked path's counts, for reporting.
+     */
+    @JsonPropertyOrder({"path", "requests", "requestsOverestimate", "meanResponseTime", "mbSent"})
+    public static class PathCount {
+        private final String path;
+        private final long requests;
+        private final long requestsOverestimate;
+        private final long bytes;
+        private final long time;
+
+        PathCount(String path, long requests, long requestsOverestimate, long bytes, long time) {
+            this.path = path;
+            this.requests = requests;
+            this.requestsOverestimate = requestsOverestimate;
+            this.bytes = bytes;
+            this.time = time;
+        }
+
+        @JsonProperty
+        public String getPath() {
+            return path;
+        }
+
+        @JsonProperty
+        public long getRequests() {
+            return requests;
+        }
+
+        @JsonProperty
+        public long getRequestsOverestimate() {
+            return requestsOverestimate;
+        }
+
+        /**
+         * Over the requests since the path was last taken on.
+         */
+        @JsonProperty
+        public long getMeanResponseTime() {
+            long tracked = requests - requestsOverestimate;
+            return tracked == 0 ? 0 : time / tracked;
+        }
+
+        @JsonProperty
+        public double getMbSent() {
+            return (double)bytes/(1024*1024);
+        }
+
+        /**
+         * Writes the counts as an object, as Jackson would from the
+         * annotations.
+         */
+        public void writeTo(JsonGenerator generator) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("path", path);
+            generator.writeNumberField("requests", requests);
+            generator.writeNumberField("requestsOverestimate", requestsOverestimate);
+            generator.writeNumberField("meanResponseTime", getMeanResponseTime());
+            generator.writeNumberField("mbSent", getMbSent());
+            generator.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.aylett.skyscanner.logparse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes a YAML document with a {@code detail} map of minutes, keyed by when
+ * they start, followed by the {@code aggregate}.  With only one of those, it's
+ * the whole document.
+ *
+ * Buckets at another resolution take the minutes' place.  With more than one
+ * resolution, {@code detail} holds a map of buckets for each, keyed by its
+ * name, like {@code 1h}.
+ */
+public class YamlResultWriter implements ResultWriter {
+    private final JsonGenerator generator;
+    private final boolean detail;
+    private final boolean aggregate;
+    private final boolean byResolution;
+    private Resolution resolution = null;
+
+    /**
+     * @param factory a YAML factory
+     */
+    public YamlResultWriter(Writer out, JsonFactory factory, boolean detail, boolean aggregate) throws IOException {
+        this(out, factory, detail, aggregate, Collections.singletonList(Resolution.MINUTE));
+    }
+
+    /**
+     * @param factory a YAML factory
+     * @param resolutions the resolutions the buckets will be at
+     */
+    public YamlResultWriter(Writer out, JsonFactory factory, boolean detail, boolean aggregate,
+                            List<Resolution> resolutions) throws IOException {
+        this.generator = factory.createGenerator(out);
+        this.detail = detail;
+        this.aggregate = aggregate;
+        this.byResolution = resolutions.size() > 1;
+
+        if (detail && aggregate) {
+            generator.writeStartObject();
+            generator.writeFieldName("detail");
+        }
+        if (detail) {
+            generator.writeStartObject();
+        }
+    }
+
+    @Override
+    public void minute(LogMinuteAggregator minute) throws IOException {
+        if (detail) {
+            if (byResolution && !minute.getResolution().equals(resolution)) {
+                if (resolution != null) {
+                    generator.writeEndObject();
+                }
+                resolution = minute.getResolution();
+                generator.writeFieldName(resolution.toString());
+                generator.writeStartObject();
+            }
+            generator.writeFieldName(Timestamps.format(minute.getStartMillis()));
+            minute.writeTo(generator);
+        }
+    }
+
+    @Override
+    public void aggregate(LogGlobalAggregator aggregate) throws IOException {
+        if (detail && resolution != null) {
+            generator.writeEndObject();
+        }
+        if (detail) {
+            generator.writeEndObject();
+        }
+        if (this.aggregate) {
+            if (detail) {
+                generator.writeFieldName("aggregate");
+            }
+            if (aggregate == null) {
+                generator.writeNull();
+            } else {
+                aggregate.writeTo(generator);
+            }
+        }
+        if (detail && this.aggregate) {
+            generator.writeEndObject();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        generator.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // There's no empty YAML document, so with nothing to write, such as
+        // when only alerts are wanted, leave it unstarted.
+        if (detail || aggregate) {
+            generator.close();
+        } else {
+            generator.flush();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that {@link AlertEvaluator} fires and resolves rules over their
+ * windows, and that {@link AlertRule}s load from YAML.
+ */
+public class AlertEvaluatorTest {
+    private static final long MINUTE = 23803680; // 2015-04-04T00:00Z
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final StringWriter out = new StringWriter();
+
+    @Test
+    public void firesAndResolvesOverTheWindow() throws IOException {
+        AlertEvaluator alerts = evaluator(new AlertRule("failing", AlertRule.Metric.FAILURE_RATE, 3, 0.5, null,
+                null));
+        alerts.minute(minute(MINUTE, 10, 0, 100));
+        alerts.minute(minute(MINUTE + 1, 0, 10, 100));
+        alerts.minute(minute(MINUTE + 2, 0, 10, 100));
+        // Most of the last three minutes' lines have failed, then a third.
+        alerts.minute(minute(MINUTE + 3, 2, 0, 100));
+        alerts.minute(minute(MINUTE + 4, 18, 0, 100));
+
+        List<JsonNode> written = written();
+        assertThat(written.size(), equalTo(2));
+        assertThat(written.get(0).get("state").asText(), equalTo("firing"));
+        assertThat(written.get(0).get("minute").asText(), equalTo(new DateTime((MINUTE + 2) * 60000).toString()));
+        assertThat(written.get(0).get("value").asDouble(), equalTo(20.0 / 30));
+        assertThat(written.get(0).get("threshold").asDouble(), equalTo(0.5));
+        assertThat(written.get(1).get("state").asText(), equalTo("resolved"));
+        assertThat(written.get(1).get("value").asDouble(), equalTo(10.0 / 30));
+    }
+
+    @Test
+    public void minutesWithoutLinesCountAsNone() throws IOException {
+        AlertEvaluator alerts = evaluator(new AlertRule("quiet", AlertRule.Metric.REQUESTS, 2, null, 5.0, null));
+        alerts.minute(minute(MINUTE, 10, 0, 100));
+        alerts.advanceTo(MINUTE + 2);
+        assertThat(written().size(), equalTo(0));
+        alerts.advanceTo(MINUTE + 3);
+        assertThat(written().size(), equalTo(1));
+        alerts.minute(minute(MINUTE + 4, 10, 0, 100));
+        assertThat(written().size(), equalTo(2));
+        assertThat(alerts.getAlerts(), equalTo(2L));
+    }
+
+    @Test
+    public void ratesAreLeftAloneWithoutRequests() throws IOException {
+        AlertEvaluator alerts = evaluator(new AlertRule("slow", AlertRule.Metric.MEAN_RESPONSE_TIME, null, 500.0,
+                null, null));
+        alerts.minute(minute(MINUTE, 10, 0, 1000));
+        alerts.minute(minute(MINUTE + 5, 10, 0, 1000));
+        assertThat(written().size(), equalTo(1));
+    }
+
+    @Test
+    public void relativeRulesCompareWithTheMovingAverage() throws IOException {
+        AlertEvaluator alerts = evaluator(new AlertRule("spike", AlertRule.Metric.MEAN_RESPONSE_TIME, null, 3.0,
+                null, 3));
+        // Not enough minutes to trust the average yet.
+        alerts.minute(minute(MINUTE, 10, 0, 100));
+        alerts.minute(minute(MINUTE + 1, 10, 0, 1000));
+        alerts.minute(minute(MINUTE + 2, 10, 0, 100));
+        assertThat(written().size(), equalTo(0));
+        // The average started at 100, went halfway to 1000, then halfway
+        // back to 100.
+        alerts.minute(minute(MINUTE + 3, 10, 0, 1000));
+
+        List<JsonNode> written = written();
+        assertThat(written.size(), equalTo(1));
+        assertThat(written.get(0).get("average").asDouble(), equalTo(325.0));
+        assertThat(written.get(0).get("threshold").asDouble(), equalTo(975.0));
+    }
+
+    @Test
+    public void loadsRulesFromYaml() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("rules.yaml");
+        Files.write(path, ("rules:\n"
+                + "  - name: failing\n"
+                + "    metric: failureRate\n"
+                + "    window: 5\n"
+                + "    above: 0.02\n"
+                + "  - name: slow\n"
+                + "    metric: meanResponseTime\n"
+                + "    relativeTo: 60\n"
+                + "    above: 3\n").getBytes(StandardCharsets.UTF_8));
+        List<AlertRule> rules = AlertRule.load(path);
+        assertThat(rules.size(), equalTo(2));
+        assertThat(rules.get(0).getMetric(), equalTo(AlertRule.Metric.FAILURE_RATE));
+        assertThat(rules.get(0).getWindow(), equalTo(5));
+        assertThat(rules.get(1).getWindow(), equalTo(1));
+        assertThat(rules.get(1).getRelativeTo(), equalTo(60));
+    }
+
+    @Test
+    public void rejectsRulesWithoutAThreshold() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("rules.yaml");
+        Files.write(path, "rules:\n  - name: failing\n    metric: failureRate\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            AlertRule.load(path);
+            fail("Loaded a rule without a threshold");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    private AlertEvaluator evaluator(AlertRule rule) throws IOException {
+        return new AlertEvaluator(Collections.singletonList(rule), out);
+    }
+
+    /**
+     * @return a minute with lines that each took the given time.
+     */
+    private static LogMinuteAggregator minute(long minute, int successful, int failures, long timeTaken) {
+        LogMinuteAggregator aggregator = new LogMinuteAggregator(minute);
+        for (int i = 0; i < successful; i++) {
+            aggregator.accept(minute * 60, StatusClass.SUCCESS, 100, timeTaken);
+        }
+        for (int i = 0; i < failures; i++) {
+            aggregator.accept(minute * 60, StatusClass.FAILURE, 100, timeTaken);
+        }
+        return aggregator;
+    }
+
+    private List<JsonNode> written() throws IOException {
+        List<JsonNode> written = newArrayList();
+        ObjectMapper mapper = new ObjectMapper();
+        for (String line : out.toString().split("\n")) {
+            if (!line.isEmpty()) {
+                written.add(mapper.readTree(line));
+            }
+        }
+        return written;
+    }
+}
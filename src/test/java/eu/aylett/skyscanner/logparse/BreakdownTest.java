@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests that {@link Breakdown} picks paths out of requests, and that lines
+ * from the parser get broken down by minute.
+ */
+public class BreakdownTest {
+    @Test
+    public void findsPaths() {
+        assertThat(path("\"GET /a/b?c=d HTTP/1.1\""), equalTo("/a/b"));
+        assertThat(path("\"GET /a#top HTTP/1.1\""), equalTo("/a"));
+        assertThat(path("\"POST  /a\""), equalTo("/a"));
+        assertThat(path("GET /a HTTP/1.0"), equalTo("/a"));
+        assertThat(path("\"-\""), equalTo("-"));
+        assertThat(path("\"\""), equalTo(""));
+        assertThat(path("\"GET /a\"b HTTP/1.1\""), equalTo("/a"));
+    }
+
+    @Test
+    public void breaksDownParsedLines() {
+        LineDetailsAggregator aggregator = new LineDetailsAggregator(Percentiles.DEFAULT, 2);
+        LogLineParser parser = new LogLineParser();
+        parse(parser, aggregator, "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET /a?x HTTP/1.1\" 200 100 10");
+        parse(parser, aggregator, "127.0.0.1 - - [30/Mar/2015:05:04:30 +0100] \"GET /a HTTP/1.1\" 404 - 30");
+        parse(parser, aggregator, "127.0.0.1 - - [30/Mar/2015:05:04:40 +0100] \"GET /b HTTP/1.1\" 200 100 10");
+        parse(parser, aggregator, "127.0.0.1 - - [30/Mar/2015:05:05:00 +0100] \"GET /b HTTP/1.1\" 503 0 10");
+
+        LogMinuteAggregator first = aggregator.detail().values().iterator().next();
+        assertThat(first.getBreakdown().getStatusCodes(), equalTo(ImmutableMap.of("200", 2L, "404", 1L)));
+        assertThat(first.getBreakdown().getTopPaths().get(0).getPath(), equalTo("/a"));
+        assertThat(first.getBreakdown().getTopPaths().get(0).getRequests(), equalTo(2L));
+        assertThat(first.getBreakdown().getTopPaths().get(0).getMeanResponseTime(), equalTo(20L));
+
+        Breakdown global = aggregator.aggregate().getBreakdown();
+        assertThat(global.getStatusCodes(), equalTo(ImmutableMap.of("200", 2L, "404", 1L, "503", 1L)));
+        assertThat(global.getTopPaths().get(0).getPath(), equalTo("/a"));
+        assertThat(global.getTopPaths().get(0).getRequests(), equalTo(2L));
+        assertThat(global.getTopPaths().get(1).getPath(), equalTo("/b"));
+        assertThat(global.getTopPaths().get(1).getRequests(), equalTo(2L));
+    }
+
+    @Test
+    public void noBreakdownUnlessAsked() {
+        LineDetailsAggregator aggregator = new LineDetailsAggregator();
+        parse(new LogLineParser(), aggregator,
+                "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET /a HTTP/1.1\" 200 100 10");
+        assertThat(aggregator.aggregate().getBreakdown(), equalTo(null));
+    }
+
+    private static void parse(LogLineParser parser, LineDetailsConsumer consumer, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        parser.parse(ByteBuffer.wrap(bytes), 0, bytes.length, consumer);
+    }
+
+    private static String path(String request) {
+        byte[] bytes = request.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int start = Breakdown.pathStart(buffer, 0, bytes.length);
+        return LogLineParser.describe(buffer, start, Breakdown.pathEnd(buffer, start, bytes.length));
+    }
+}
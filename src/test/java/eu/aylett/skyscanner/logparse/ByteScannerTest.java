@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests that {@link ByteScanner} finds the same bytes as looking at them one
+ * at a time, whatever the buffer's byte order.
+ */
+public class ByteScannerTest {
+    private final Random random = new Random(42);
+
+    @Test
+    public void findsTheFirstMatch() {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            for (int trial = 0; trial < 2000; trial++) {
+                ByteBuffer buffer = randomBuffer(order);
+                int from = random.nextInt(buffer.capacity() + 1);
+                int to = from + random.nextInt(buffer.capacity() - from + 1);
+                byte target = (byte) random.nextInt(4);
+                byte other = (byte) (0x80 | random.nextInt(4));
+                assertThat(ByteScanner.indexOf(buffer, from, to, target), equalTo(naive(buffer, from, to, target, target)));
+                assertThat(ByteScanner.indexOfEither(buffer, from, to, target, other),
+                        equalTo(naive(buffer, from, to, target, other)));
+            }
+        }
+    }
+
+    @Test
+    public void aMatchDoesNotHideAnEarlierOne() {
+        // 0x01 just after a zero byte is where the usual trick goes wrong.
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{5, 5, 1, 0, 5, 5, 5, 5});
+        assertThat(ByteScanner.indexOf(buffer, 0, 8, (byte) 0), equalTo(3));
+        assertThat(ByteScanner.indexOf(buffer, 0, 8, (byte) 1), equalTo(2));
+    }
+
+    private ByteBuffer randomBuffer(ByteOrder order) {
+        byte[] bytes = new byte[random.nextInt(40)];
+        for (int i = 0; i < bytes.length; i++) {
+            // Mostly other bytes, with a few we look for.
+            bytes[i] = (byte) (random.nextInt(8) == 0 ? random.nextInt(4) | (random.nextBoolean() ? 0x80 : 0)
+                    : 'a' + random.nextInt(26));
+        }
+        ByteBuffer buffer = random.nextBoolean() ? ByteBuffer.wrap(bytes) : ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.clear();
+        return buffer.order(order);
+    }
+
+    private static int naive(ByteBuffer buffer, int from, int to, byte first, byte second) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == first || buffer.get(i) == second) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests that {@link ConcurrentLineDetailsAggregator} adds up to the same as
+ * {@link LineDetailsAggregator}, however many threads feed it.
+ */
+public class ConcurrentLineDetailsAggregatorTest {
+    private static final int THREADS = 8;
+    private static final int LINES = 20000;
+
+    private final long[] timestamps = new long[LINES];
+    private final int[] statuses = new int[LINES];
+    private final long[] bytes = new long[LINES];
+    private final long[] times = new long[LINES];
+    private final long[] clients = new long[LINES];
+
+    public ConcurrentLineDetailsAggregatorTest() {
+        Random random = new Random(42);
+        for (int i = 0; i < LINES; i++) {
+            // Spread over more minutes than the recent minutes cache holds.
+            timestamps[i] = 1432638000L + random.nextInt(200 * 60);
+            statuses[i] = random.nextInt(10) == 0 ? 500 : 200;
+            bytes[i] = random.nextInt(100000);
+            times[i] = (long) Math.exp(random.nextDouble() * 20);
+            clients[i] = random.nextLong() * random.nextInt(1000);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void manyThreadsMatchOne() throws Exception {
+        LineDetailsAggregator expected = new LineDetailsAggregator();
+        for (int i = 0; i < LINES; i++) {
+            expected.acceptRequest(timestamps[i], statuses[i], bytes[i], times[i], clients[i], null, 0, 0);
+        }
+
+        ConcurrentLineDetailsAggregator concurrent = new ConcurrentLineDetailsAggregator();
+        List<Thread> threads = newArrayList();
+        for (int t = 0; t < THREADS; t++) {
+            int first = t;
+            threads.add(new Thread(() -> {
+                for (int i = first; i < LINES; i += THREADS) {
+                    concurrent.acceptRequest(timestamps[i], statuses[i], bytes[i], times[i], clients[i], null, 0, 0);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        ObjectMapper mapper = OutputFormat.YAML.mapper();
+        assertThat(mapper.writeValueAsString(concurrent.toAggregator(Percentiles.DEFAULT)),
+                equalTo(mapper.writeValueAsString(expected)));
+    }
+
+    @Test
+    public void rangesSeeLinesAddedSinceTheLastQuery() throws Exception {
+        ConcurrentLineDetailsAggregator concurrent = new ConcurrentLineDetailsAggregator();
+        long first = Math.floorDiv(1432638000L, 60);
+        for (int i = 0; i < LINES / 2; i++) {
+            concurrent.acceptRequest(timestamps[i], statuses[i], bytes[i], times[i], clients[i], null, 0, 0);
+        }
+        checkRanges(concurrent, first, LINES / 2);
+        for (int i = LINES / 2; i < LINES; i++) {
+            concurrent.acceptRequest(timestamps[i], statuses[i], bytes[i], times[i], clients[i], null, 0, 0);
+        }
+        checkRanges(concurrent, first, LINES);
+    }
+
+    private void checkRanges(ConcurrentLineDetailsAggregator concurrent, long first, int lines) throws Exception {
+        ObjectMapper mapper = OutputFormat.YAML.mapper();
+        // Ranges within a block, across a few, and over all of them.
+        long[][] ranges = {{first + 3, first + 9}, {first + 10, first + 150}, {first, first + 200},
+                {first - 1000, first + 1000}};
+        for (long[] range : ranges) {
+            LineDetailsAggregator expected = new LineDetailsAggregator();
+            for (int i = 0; i < lines; i++) {
+                long minute = Math.floorDiv(timestamps[i], 60);
+                if (minute >= range[0] && minute < range[1]) {
+                    expected.acceptRequest(timestamps[i], statuses[i], bytes[i], times[i], clients[i], null, 0, 0);
+                }
+            }
+            List<LogMinuteAggregator> detail = newArrayList();
+            concurrent.forEachMinute(range[0], range[1], Percentiles.DEFAULT, detail::add);
+            assertThat(mapper.writeValueAsString(detail),
+                    equalTo(mapper.writeValueAsString(expected.detail().values())));
+            assertThat(mapper.writeValueAsString(concurrent.aggregate(range[0], range[1], Percentiles.DEFAULT)),
+                    equalTo(mapper.writeValueAsString(expected.aggregate())));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests that {@link FailureSampler} logs the first few failures of each
+ * kind and then samples the rest.
+ */
+public class FailureSamplerTest {
+    @Test
+    public void logsFirstExamplesOnly() {
+        FailureSampler sampler = new FailureSampler(3, 0);
+        assertThat(logged(sampler, ParseFailure.MISMATCH, 100), equalTo(3));
+        assertThat(logged(sampler, ParseFailure.TIME, 2), equalTo(2));
+    }
+
+    @Test
+    public void logsOneInEveryAfterExamples() {
+        FailureSampler sampler = new FailureSampler(2, 10);
+        assertThat(logged(sampler, ParseFailure.BYTES, 2), equalTo(2));
+        assertThat(logged(sampler, ParseFailure.BYTES, 9), equalTo(0));
+        assertThat(logged(sampler, ParseFailure.BYTES, 1), equalTo(1));
+        assertThat(logged(sampler, ParseFailure.BYTES, 100), equalTo(10));
+    }
+
+    private static int logged(FailureSampler sampler, ParseFailure failure, int failures) {
+        int logged = 0;
+        for (int i = 0; i < failures; i++) {
+            if (sampler.shouldLog(failure)) {
+                logged++;
+            }
+        }
+        return logged;
+    }
+}
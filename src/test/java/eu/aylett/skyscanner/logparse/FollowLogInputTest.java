@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests that {@link FollowLogInput} keeps up with a file as it grows and
+ * rotates.
+ */
+public class FollowLogInputTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final BlockingQueue<String> lines = new ArrayBlockingQueue<>(100);
+    private final BlockingQueue<Boolean> idles = new ArrayBlockingQueue<>(1000);
+
+    @Test(timeout = 10000)
+    public void followsAppendsRotationAndTruncation() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("access.log");
+        Files.write(file, bytes("one\ntw"));
+        FollowLogInput input = new FollowLogInput(file, 5);
+        Thread reader = new Thread(() -> {
+            try (LogInput in = input) {
+                in.readLines(new LogInput.LineSink() {
+                    @Override
+                    public void line(ByteBuffer buffer, int start, int end) {
+                        lines.add(LogLineParser.describe(buffer, start, end));
+                    }
+
+                    @Override
+                    public void idle() {
+                        idles.offer(true);
+                    }
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        reader.start();
+
+        assertThat(next(), equalTo("one"));
+        Files.write(file, bytes("o\nthree\n"), StandardOpenOption.APPEND);
+        assertThat(next(), equalTo("two"));
+        assertThat(next(), equalTo("three"));
+
+        // Rename rotation: the old file's last line still counts.
+        Files.write(file, bytes("four"), StandardOpenOption.APPEND);
+        Files.move(file, folder.getRoot().toPath().resolve("access.log.1"));
+        Files.write(file, bytes("five\n"));
+        assertThat(next(), equalTo("four"));
+        assertThat(next(), equalTo("five"));
+
+        // Copy and truncate.
+        waitForIdle();
+        Files.write(file, bytes("six\n"), StandardOpenOption.TRUNCATE_EXISTING);
+        assertThat(next(), equalTo("six"));
+
+        input.stop();
+        reader.join();
+        assertThat(lines.isEmpty(), equalTo(true));
+    }
+
+    private String next() throws InterruptedException {
+        return lines.poll(5, TimeUnit.SECONDS);
+    }
+
+    private void waitForIdle() throws InterruptedException {
+        idles.clear();
+        idles.poll(5, TimeUnit.SECONDS);
+    }
+
+    private static byte[] bytes(String contents) {
+        return contents.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link HyperLogLog} counts distinct addresses to within its
+ * error bound, and that merging registers gives the union.
+ */
+public class HyperLogLogTest {
+    @Test
+    public void smallCountsAreExact() {
+        byte[] registers = new byte[HyperLogLog.REGISTERS];
+        for (int repeat = 0; repeat < 3; repeat++) {
+            for (int i = 0; i < 20; i++) {
+                HyperLogLog.add(registers, hash("10.0.0." + i));
+            }
+        }
+        assertThat(estimate(registers), equalTo(20L));
+    }
+
+    @Test
+    public void largeCountsAreWithinErrorBound() {
+        byte[] registers = new byte[HyperLogLog.REGISTERS];
+        int clients = 200000;
+        for (int i = 0; i < clients; i++) {
+            HyperLogLog.add(registers, hash("10." + (i >> 16) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff)));
+        }
+        // Four standard errors.
+        assertWithin(estimate(registers), clients, 0.065);
+    }
+
+    @Test
+    public void mergingGivesTheUnion() {
+        byte[] first = new byte[HyperLogLog.REGISTERS];
+        byte[] second = new byte[HyperLogLog.REGISTERS];
+        for (int i = 0; i < 30000; i++) {
+            HyperLogLog.add(first, hash("client-" + i));
+        }
+        for (int i = 20000; i < 50000; i++) {
+            HyperLogLog.add(second, hash("client-" + i));
+        }
+
+        HyperLogLog merged = new HyperLogLog();
+        merged.merge(first);
+        merged.merge(second);
+        assertWithin(merged.estimate(), 50000, 0.065);
+    }
+
+    @Test
+    public void emptyIsZero() {
+        assertThat(new HyperLogLog().estimate(), equalTo(0L));
+    }
+
+    private static long hash(String address) {
+        byte[] bytes = address.getBytes(StandardCharsets.UTF_8);
+        return HyperLogLog.hash(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    private static long estimate(byte[] registers) {
+        HyperLogLog hyperLogLog = new HyperLogLog();
+        hyperLogLog.merge(registers);
+        return hyperLogLog.estimate();
+    }
+
+    private static void assertWithin(long estimate, long actual, double error) {
+        assertTrue(estimate + " should be within " + error + " of " + actual,
+                Math.abs(estimate - actual) <= actual * error);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests that {@link IngestionState} reads each line once, however the log
+ * grows or rotates between runs.
+ */
+public class IngestionStateTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    IngestionState state = new IngestionState();
+
+    @Test
+    public void readsOnlyNewCompleteLines() throws IOException {
+        Path log = log();
+        write(log, "one\ntwo\n");
+        assertThat(newLines(log), equalTo(newArrayList("one", "two")));
+        write(log, "three\nfo");
+        assertThat(newLines(log), equalTo(newArrayList("three")));
+        write(log, "ur\n");
+        assertThat(newLines(log), equalTo(newArrayList("four")));
+        assertThat(newLines(log), equalTo(newArrayList()));
+    }
+
+    @Test
+    public void finishesRenamedFileFirst() throws IOException {
+        Path log = log();
+        write(log, "one\n");
+        newLines(log);
+        write(log, "two\n");
+        Files.move(log, log.resolveSibling("access.log.1"));
+        write(log, "three\n");
+        assertThat(newLines(log), equalTo(newArrayList("two", "three")));
+        write(log, "four\n");
+        assertThat(newLines(log), equalTo(newArrayList("four")));
+    }
+
+    @Test
+    public void finishesTruncatedCopyFirst() throws IOException {
+        Path log = log();
+        write(log, "one\n");
+        newLines(log);
+        write(log, "two\n");
+        Files.copy(log, log.resolveSibling("access.log.1"));
+        Files.write(log, "three\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.TRUNCATE_EXISTING);
+        assertThat(newLines(log), equalTo(newArrayList("two", "three")));
+    }
+
+    @Test
+    public void readsFromStartIfOldFileIsGone() throws IOException {
+        Path log = log();
+        write(log, "one\n");
+        newLines(log);
+        Files.delete(log);
+        write(log, "two\n");
+        assertThat(newLines(log), equalTo(newArrayList("two")));
+    }
+
+    @Test
+    public void carriesOnAfterSaving() throws IOException {
+        Path log = log();
+        Path saved = folder.getRoot().toPath().resolve("state");
+        write(log, "one\n");
+        newLines(log);
+        MinuteStore minutes = new MinuteStore();
+        minutes.add(23835000, 10, 200, StatusClass.SUCCESS);
+        state.save(saved, minutes);
+
+        state = IngestionState.load(saved);
+        assertThat(state.minutes.size(), equalTo(1));
+        write(log, "two\n");
+        assertThat(newLines(log), equalTo(newArrayList("two")));
+    }
+
+    private Path log() {
+        return folder.getRoot().toPath().resolve("access.log");
+    }
+
+    private static void write(Path log, String text) throws IOException {
+        Files.write(log, text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private List<String> newLines(Path log) throws IOException {
+        List<String> lines = newArrayList();
+        for (LogInput input : state.newData(log)) {
+            try (LogInput in = input) {
+                in.readLines((buffer, start, end) -> {
+                    byte[] bytes = new byte[end - start];
+                    for (int i = start; i < end; i++) {
+                        bytes[i - start] = buffer.get(i);
+                    }
+                    lines.add(new String(bytes, StandardCharsets.UTF_8));
+                });
+            }
+        }
+        return lines;
+    }
+}
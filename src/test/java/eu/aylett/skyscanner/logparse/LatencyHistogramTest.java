@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link LatencyHistogram}: buckets should tile the range, and
+ * percentiles should stay within the promised error.
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsAreContiguous() {
+        for (int bucket = 1; bucket < LatencyHistogram.BUCKETS; bucket++) {
+            long lowest = LatencyHistogram.lowestValue(bucket);
+            assertThat(LatencyHistogram.bucket(lowest), equalTo(bucket));
+            assertThat(LatencyHistogram.bucket(lowest - 1), equalTo(bucket - 1));
+        }
+    }
+
+    @Test
+    public void extremeValuesHaveBuckets() {
+        assertThat(LatencyHistogram.bucket(-5), equalTo(0));
+        assertThat(LatencyHistogram.bucket(Long.MAX_VALUE), equalTo(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 20; i++) {
+            histogram.record(i);
+        }
+        assertThat(histogram.percentile(50), equalTo(10l));
+        assertThat(histogram.percentile(100), equalTo(20l));
+    }
+
+    @Test
+    public void percentilesAreWithinError() {
+        Random random = new Random(42);
+        long[] values = new long[100000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 20);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[]{1, 50, 90, 99, 99.9, 100}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long estimate = histogram.percentile(percentile);
+            assertTrue(percentile + ": " + estimate + " vs " + exact, Math.abs(estimate - exact) <= exact * 0.032);
+        }
+    }
+
+    @Test
+    public void mergingMatchesRecordingTogether() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        LatencyHistogram both = new LatencyHistogram();
+        for (long i = 0; i < 1000; i++) {
+            (i % 3 == 0 ? first : second).record(i * 37);
+            both.record(i * 37);
+        }
+        first.merge(second);
+        assertThat(first.getTotal(), equalTo(1000l));
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            assertThat(first.percentile(percentile), equalTo(both.percentile(percentile)));
+        }
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        assertThat(new LatencyHistogram().percentile(99), equalTo(0l));
+    }
+
+    @Test
+    public void percentilesAreNamed() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(7);
+        Map<String, Long> percentiles = Percentiles.parse("50, 99.90").of(histogram);
+        assertThat(percentiles.keySet().toString(), equalTo("[p50, p99.9]"));
+        assertThat(percentiles.get("p50"), equalTo(7l));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void percentilesMustBeInRange() {
+        Percentiles.parse("50,101");
+    }
+}
@@ -16,9 +16,14 @@
 
 package eu.aylett.skyscanner.logparse;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.joda.time.DateTime;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertThat;
 
@@ -60,4 +65,67 @@ public class LineDetailsAggregatorTest {
         assertThat("Time responding per minute", aggregate.getTimeSpentRespondingPerMinute(), equalTo(300l));
         assertThat("MB transferred per minute", aggregate.getMbSentPerMinute(), equalTo(15.0/(1024*1024)));
     }
+
+    @Test
+    public void sampledLinesAreScaledUp() {
+        aggregator.setSample(Sample.ofRate(0.25));
+        aggregator.accept(new LineDetails(testTime, StatusClass.SUCCESS, 10l, 200l));
+        aggregator.accept(new LineDetails(testTime.plusSeconds(30), StatusClass.FAILURE, 10l, 400l));
+        aggregator.accept(new LineDetails(testTime.plusSeconds(90), StatusClass.SUCCESS, 10l, 200l));
+        LogMinuteAggregator first = aggregator.detail().values().iterator().next();
+        assertThat(first.getSuccessful(), equalTo(4l));
+        assertThat(first.getMeanResponseTime(), equalTo(300l));
+        // 1.96 * sqrt(1 * 4 * 3)
+        assertThat(first.getConfidenceIntervals().get("successful"), equalTo(newArrayList(0l, 11l)));
+        LogGlobalAggregator aggregate = aggregator.aggregate();
+        assertThat(aggregate.getSuccessfulPerMinute(), equalTo(4.0));
+        assertThat(aggregate.getTimeSpentRespondingPerMinute(), equalTo(1600l));
+        assertThat(aggregate.getConfidenceIntervals().get("successfulPerMinute").get(1),
+                equalTo(4 + 1.96 * Math.sqrt(2 * 4 * 3) / 2));
+    }
+
+    @Test
+    public void secondsRollUpIntoMinutes() throws IOException {
+        LineDetailsAggregator seconds = new LineDetailsAggregator(Percentiles.DEFAULT, 0, Resolution.parse("1s"));
+        for (LineDetailsAggregator each : newArrayList(aggregator, seconds)) {
+            each.accept(new LineDetails(testTime, StatusClass.SUCCESS, 10l, 200l));
+            each.accept(new LineDetails(testTime.plusSeconds(1), StatusClass.FAILURE, 20l, 300l));
+            each.accept(new LineDetails(testTime.plusSeconds(90), StatusClass.SUCCESS, 30l, 400l));
+        }
+        List<Long> counts = newArrayList();
+        seconds.forEachBucket(Resolution.parseList("1s,10s"), bucket -> counts.add(bucket.getCount()));
+        assertThat(counts, equalTo(newArrayList(1l, 1l, 1l, 2l, 1l)));
+        ObjectMapper mapper = OutputFormat.YAML.mapper();
+        assertThat(mapper.writeValueAsString(seconds), equalTo(mapper.writeValueAsString(aggregator)));
+        assertThat(seconds.aggregate().getMeanResponseTime(), equalTo(300l));
+    }
+
+    @Test
+    public void hoursAndDaysAreBuiltFromMinutes() {
+        aggregator.accept(new LineDetails(testTime, StatusClass.SUCCESS, 10l, 200l));
+        aggregator.accept(new LineDetails(testTime.plusMinutes(59), StatusClass.SUCCESS, 10l, 200l));
+        aggregator.accept(new LineDetails(testTime.plusMinutes(61), StatusClass.FAILURE, 10l, 200l));
+        List<String> buckets = newArrayList();
+        aggregator.forEachBucket(Resolution.parseList("1h,1d"), bucket -> buckets.add(
+                bucket.getResolution() + " " + new DateTime(bucket.getStartMillis()).getMillis() / 1000
+                        + " " + bucket.getSuccessful() + "/" + bucket.getFailures()));
+        long hour = testTime.getMillis() / 1000;
+        long day = hour - hour % 86400;
+        assertThat(buckets, equalTo(newArrayList("1h " + hour + " 2/0", "1h " + (hour + 3600) + " 0/1",
+                "1d " + day + " 2/1")));
+    }
+
+    @Test
+    public void mergedAggregatorsMatchOne() {
+        LineDetailsAggregator other = new LineDetailsAggregator();
+        aggregator.accept(new LineDetails(testTime, StatusClass.SUCCESS, 10l, 200l));
+        other.accept(new LineDetails(testTime.plusSeconds(30), StatusClass.FAILURE, 10l, 200l));
+        other.accept(new LineDetails(testTime.plusSeconds(90), StatusClass.SUCCESS, 10l, 200l));
+        aggregator.merge(other);
+        LogGlobalAggregator aggregate = aggregator.aggregate();
+        assertThat("Duration in minutes", aggregate.getDurationInMinutes(), equalTo(2l));
+        assertThat("Successful per minute", aggregate.getSuccessfulPerMinute(), equalTo(1.0));
+        assertThat("Failed per minute", aggregate.getFailuresPerMinute(), equalTo(0.5));
+        assertThat("Minutes in detail", aggregator.detail().size(), equalTo(2));
+    }
 }
@@ -37,12 +37,31 @@ public class LineDetailsTest {
         assertThat(maybeLineDetails, isPresent());
         LineDetails lineDetails = maybeLineDetails.get();
 
-        assertThat(lineDetails.timestamp.toInstant(), equalTo(DateTime.parse("2015-03-30T05:04:20+0100").toInstant()));
+        assertThat(lineDetails.timestamp, equalTo(DateTime.parse("2015-03-30T05:04:20+0100").getMillis() / 1000));
         assertThat(lineDetails.bytesTransferred, equalTo(157l));
         assertThat(lineDetails.status, equalTo(StatusClass.SUCCESS));
         assertThat(lineDetails.timeTaken, equalTo(165169l));
     }
 
+    @Test
+    public void canParseLineWithNoBytes() {
+        String logLine = "10.0.0.1 - frank [30/Mar/2015:05:04:20 -0700] \"HEAD / HTTP/1.1\" 304 - 1520";
+        Optional<LineDetails> maybeLineDetails = LineDetails.parseLogLine(logLine);
+        assertThat(maybeLineDetails, isPresent());
+        LineDetails lineDetails = maybeLineDetails.get();
+
+        assertThat(lineDetails.timestamp, equalTo(DateTime.parse("2015-03-30T05:04:20-0700").getMillis() / 1000));
+        assertThat(lineDetails.bytesTransferred, equalTo(0l));
+        assertThat(lineDetails.status, equalTo(StatusClass.SUCCESS));
+        assertThat(lineDetails.timeTaken, equalTo(1520l));
+    }
+
+    @Test
+    public void rejectsLineWithoutTimeTaken() {
+        String logLine = "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 500 157";
+        assertThat(LineDetails.parseLogLine(logLine).isPresent(), equalTo(false));
+    }
+
     private Matcher<? super Optional<?>> isPresent() {
         return new BaseMatcher<Optional<?>>() {
             @Override
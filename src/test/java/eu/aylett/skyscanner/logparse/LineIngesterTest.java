@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests that {@link LineIngester} counts lines, bytes and each kind of parse
+ * failure, and only hands on the lines that parse.
+ */
+public class LineIngesterTest {
+    private static final String LOG = String.join("\n",
+            "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 200 157 165169",
+            "",
+            "garbage",
+            "127.0.0.1 - - [30/Foo/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 200 157 165169",
+            "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 200 99999999999999999999 1",
+            "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 200 157 99999999999999999999",
+            "127.0.0.1 - - [30/Mar/2015:05:04:21 +0100] \"GET / HTTP/1.1\" 500 - 12",
+            "");
+
+    @Test
+    public void countsLinesAndFailures() throws IOException {
+        ParseStats stats = new ParseStats();
+        LogLineParser parser = new LogLineParser(stats, new FailureSampler(0, 0));
+        long[] accepted = new long[1];
+        LineIngester ingester = new LineIngester(parser,
+                (timestamp, status, bytes, time) -> accepted[0]++, stats, true);
+
+        Path file = Files.createTempFile("ingest", ".log");
+        try {
+            Files.write(file, LOG.getBytes(StandardCharsets.UTF_8));
+            try (LogInput input = new MappedLogInput(file)) {
+                input.readLines(ingester);
+            }
+        } finally {
+            Files.delete(file);
+        }
+
+        assertThat(accepted[0], equalTo(2L));
+        assertThat(stats.getLines(), equalTo(7L));
+        assertThat(stats.getBytes(), equalTo((long) LOG.length()));
+        assertThat(stats.getBlank(), equalTo(1L));
+        assertThat(stats.getFailures(ParseFailure.MISMATCH), equalTo(1L));
+        assertThat(stats.getFailures(ParseFailure.TIMESTAMP), equalTo(1L));
+        assertThat(stats.getFailures(ParseFailure.BYTES), equalTo(1L));
+        assertThat(stats.getFailures(ParseFailure.TIME), equalTo(1L));
+        assertThat(stats.getFailures(), equalTo(4L));
+    }
+}
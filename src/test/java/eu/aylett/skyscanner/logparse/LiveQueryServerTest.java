@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests that {@link LiveQueryServer} answers range queries with the same
+ * JSON we'd write.
+ */
+public class LiveQueryServerTest {
+    private static final long MINUTE = 23835000;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ConcurrentLineDetailsAggregator live = new ConcurrentLineDetailsAggregator();
+    private final LiveQueryServer server;
+
+    public LiveQueryServerTest() throws IOException {
+        for (int minute = 0; minute < 10; minute++) {
+            live.accept((MINUTE + minute) * 60 + 5, StatusClass.SUCCESS, 100, 1000 * (minute + 1));
+            live.accept((MINUTE + minute) * 60 + 50, StatusClass.FAILURE, 200, 500);
+        }
+        server = new LiveQueryServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), live,
+                Percentiles.DEFAULT, 60);
+    }
+
+    @After
+    public void stop() {
+        server.close();
+    }
+
+    @Test
+    public void answersForTheLastMinutes() throws IOException {
+        JsonNode answer = mapper.readTree(get("/minutes?last=3"));
+        assertThat(answer, equalTo(mapper.valueToTree(expected(MINUTE + 7, MINUTE + 10))));
+        assertThat(answer.get("detail").size(), equalTo(3));
+    }
+
+    @Test
+    public void answersForARange() throws IOException {
+        long from = (MINUTE + 2) * 60;
+        JsonNode answer = mapper.readTree(get("/aggregate?from=" + from + "&to=" + (from + 150)));
+        assertThat(answer, equalTo(mapper.valueToTree(expected(MINUTE + 2, MINUTE + 5).aggregate())));
+        assertThat(answer.get("durationInMinutes").asLong(), equalTo(3l));
+    }
+
+    @Test
+    public void acceptsIsoTimes() throws IOException {
+        JsonNode answer = mapper.readTree(get("/aggregate?from=2015-04-27T03:03:00%2B01:00"));
+        assertThat(answer.get("durationInMinutes").asLong(), equalTo(7l));
+    }
+
+    @Test
+    public void rejectsBadQueries() throws IOException {
+        assertThat(status("/minutes?last=soon"), equalTo(400));
+        assertThat(status("/minutes?last=3&from=0"), equalTo(400));
+        assertThat(status("/aggregate?from=yesterday"), equalTo(400));
+        assertThat(status("/minutes/all"), equalTo(404));
+    }
+
+    @Test
+    public void answersForADayQuickly() throws IOException {
+        ConcurrentLineDetailsAggregator day = new ConcurrentLineDetailsAggregator();
+        for (int minute = 0; minute < 1440; minute++) {
+            for (int line = 0; line < 100; line++) {
+                day.acceptRequest((MINUTE + minute) * 60 + line % 60, line % 10 == 0 ? 500 : 200, 1000,
+                        100 * line, minute * 1000L + line, null, 0, 0);
+            }
+        }
+        try (LiveQueryServer dayServer = new LiveQueryServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                day, Percentiles.DEFAULT, 1440)) {
+            dayServer.write(MINUTE, MINUTE + 1440, false);
+            int queries = 200;
+            long start = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                dayServer.write(MINUTE, MINUTE + 1440, false);
+            }
+            long micros = (System.nanoTime() - start) / 1000 / queries;
+            // Reading every minute's stripes takes tens of milliseconds.
+            assertThat("Microseconds per query: " + micros, micros < 2000, equalTo(true));
+        }
+    }
+
+    private LineDetailsAggregator expected(long from, long to) {
+        LineDetailsAggregator aggregator = new LineDetailsAggregator();
+        for (long minute = from; minute < to; minute++) {
+            aggregator.accept(minute * 60 + 5, StatusClass.SUCCESS, 100, 1000 * (minute - MINUTE + 1));
+            aggregator.accept(minute * 60 + 50, StatusClass.FAILURE, 200, 500);
+        }
+        return aggregator;
+    }
+
+    private InputStream get(String path) throws IOException {
+        return connect(path).getInputStream();
+    }
+
+    private int status(String path) throws IOException {
+        return connect(path).getResponseCode();
+    }
+
+    private HttpURLConnection connect(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+    }
+}
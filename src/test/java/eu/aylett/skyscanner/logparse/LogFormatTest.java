@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests that {@link LogFormat}s compile into parsers that pick out the same
+ * details as the hand-written one, whatever the layout.
+ */
+public class LogFormatTest {
+    /*
+     * Unlike the hand-written parser, which copes with anything at all
+     * between the timestamp and the status, compiled ones need the request
+     * in quotes, so there are no lines without them here.
+     */
+    private static final String[] LINES = {
+            "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 200 157 165169",
+            "127.0.0.1 - - [29/Feb/2016:23:59:59 -0930] \"GET / HTTP/1.1\" 404 - 12",
+            "127.0.0.1 - - [01/Jan/1970:00:00:00 +0000] \"\" 503 0 0",
+            "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 2000 157 165169",
+            "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 200 -157 165169",
+            "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 200 157",
+            "127.0.0.1 - - [30/Mar/2015:05:04:20] \"GET / HTTP/1.1\" 200 157 1",
+            "garbage",
+    };
+
+    @Test
+    public void defaultFormatUsesHandWrittenParser() {
+        assertThat(LogFormat.DEFAULT.parser(new ParseStats(), new FailureSampler()), instanceOf(LogLineParser.class));
+    }
+
+    @Test
+    public void compiledDefaultAgreesWithHandWritten() {
+        LineParser compiled = new FormatLineParser(LogFormat.DEFAULT, new ParseStats(), new FailureSampler());
+        for (String line : LINES) {
+            assertThat(line, parse(compiled, line), equalTo(parse(new LogLineParser(), line)));
+        }
+    }
+
+    @Test
+    public void readsOtherLayoutsAndUnits() {
+        String expected = parse(new LogLineParser(),
+                "10.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET /a?b HTTP/1.1\" 302 157 1500000");
+        assertThat(parse("%D %>s %h [%{X-Forwarded-For}i] %t \"%r\" %b \"%{Referer}i\" \"%{User-Agent}i\"",
+                "1500000 302 10.0.0.1 [-] [30/Mar/2015:05:04:20 +0100] \"GET /a?b HTTP/1.1\" 157 \"-\" \"curl/7.0\""),
+                equalTo(expected));
+        assertThat(parse("%a %l %u %t \"%r\" %>s %B %{ms}T",
+                "10.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET /a?b HTTP/1.1\" 302 157 1500"),
+                equalTo(expected));
+        assertThat(parse("$remote_addr - $remote_user [$time_local] \"$request\" $status $body_bytes_sent "
+                        + "\"$http_referer\" $request_time",
+                "10.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET /a?b HTTP/1.1\" 302 157 \"-\" 1.500"),
+                equalTo(expected));
+    }
+
+    @Test
+    public void quotedFieldsMayHoldEscapedQuotes() {
+        assertThat(parse("%t \"%{User-Agent}i\" %s %D",
+                "[30/Mar/2015:05:04:20 +0100] \"a \\\"quoted\\\" agent\" 200 5"),
+                equalTo(parse("%t \"%{User-Agent}i\" %s %D", "[30/Mar/2015:05:04:20 +0100] \"plain\" 200 5")));
+    }
+
+    @Test
+    public void countsFailuresByReason() {
+        ParseStats stats = new ParseStats();
+        LineParser parser = LogFormat.compile("%t %s %b %T").parser(stats, new FailureSampler(0, 0));
+        parse(parser, "[30/Mar/2015:05:04:20 +0100] 200 1 1");
+        parse(parser, "[30/Foo/2015:05:04:20 +0100] 200 1 1");
+        parse(parser, "[30/Mar/2015:05:04:20 +0100] 200 x 1");
+        parse(parser, "[30/Mar/2015:05:04:20 +0100] 200 1 1.5.");
+        parse(parser, "[30/Mar/2015:05:04:20 +0100] 200 1");
+        assertThat(stats.getFailures(ParseFailure.TIMESTAMP), equalTo(1L));
+        assertThat(stats.getFailures(ParseFailure.BYTES), equalTo(1L));
+        assertThat(stats.getFailures(ParseFailure.TIME), equalTo(1L));
+        assertThat(stats.getFailures(ParseFailure.MISMATCH), equalTo(1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsTimeTaken() {
+        LogFormat.compile("%a %t \"%r\" %>s %b");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsSomethingBetweenFields() {
+        LogFormat.compile("%t %s%D");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesUnknownDirectives() {
+        LogFormat.compile("%t %s %D %Z");
+    }
+
+    private static String parse(String format, String line) {
+        return parse(LogFormat.compile(format).parser(new ParseStats(), new FailureSampler()), line);
+    }
+
+    /*
+     * Everything the parser passed on, or null if it didn't.  The
+     * hand-written parser includes the quotes around the request, and
+     * compiled ones don't.
+     */
+    private static String parse(LineParser parser, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        String[] parsed = new String[1];
+        parser.parse(ByteBuffer.wrap(bytes), 0, bytes.length, new LineDetailsConsumer() {
+            @Override
+            public void accept(long timestamp, StatusClass status, long bytesTransferred, long timeTaken) {
+                throw new AssertionError("Parsers should pass on whole requests");
+            }
+
+            @Override
+            public void acceptRequest(long timestamp, int statusCode, long bytesTransferred, long timeTaken,
+                                      long clientHash, ByteBuffer buffer, int requestStart, int requestEnd) {
+                parsed[0] = timestamp + " " + statusCode + " " + bytesTransferred + " " + timeTaken + " "
+                        + clientHash + " " + LogLineParser.describe(buffer, requestStart, requestEnd).replace("\"", "");
+            }
+        });
+        return parsed[0];
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks that {@link LogLineParser} agrees with the regular expression it
+ * replaced.
+ */
+public class LogLineParserTest {
+    private static final Pattern PATTERN = Pattern.compile("\\S+ \\S+ \\S+ \\[(\\S+ \\S+)] .* (\\d{3}) (\\d+|-) (\\d+)");
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormat.forPattern("dd/MMM/yyyy:HH:mm:ss Z");
+
+    private static final String[] LINES = {
+            "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 200 157 165169",
+            "127.0.0.1 - - [29/Feb/2016:23:59:59 -0930] \"GET / HTTP/1.1\" 404 - 12",
+            "127.0.0.1 - - [01/Jan/1970:00:00:00 +0000] \"\" 503 0 0",
+            "127.0.0.1 - - [31/Dec/2099:12:34:56 +1400] \"GET /a b\" c 200 1 HTTP/1.1\" 302 99 7",
+            "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100]  200 157 165169",
+            "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] 200 157 165169",
+            "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 2000 157 165169",
+            "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 200 -157 165169",
+            "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 200 157 165169 ",
+            "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 200 157",
+            "127.0.0.1 -  - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 200 157 1",
+            "127.0.0.1 - - [30/Mar/2015:05:04:20] \"GET / HTTP/1.1\" 200 157 1",
+            "127.0.0.1 - - 30/Mar/2015:05:04:20 +0100 \"GET / HTTP/1.1\" 200 157 1",
+            "",
+            "garbage",
+    };
+
+    @Test
+    public void agreesWithRegex() {
+        for (String line : LINES) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            String[] parsed = new String[1];
+            boolean matched = new LogLineParser().parse(ByteBuffer.wrap(bytes), 0, bytes.length,
+                    (timestamp, status, bytesTransferred, timeTaken) ->
+                            parsed[0] = timestamp + " " + status + " " + bytesTransferred + " " + timeTaken);
+
+            Matcher matcher = PATTERN.matcher(line);
+            assertThat(line, matched, equalTo(matcher.matches()));
+            if (matched) {
+                long timestamp = DateTime.parse(matcher.group(1), DATE_TIME_FORMATTER).getMillis() / 1000;
+                StatusClass status = matcher.group(2).startsWith("2") || matcher.group(2).startsWith("3") ? StatusClass.SUCCESS : StatusClass.FAILURE;
+                long bytesTransferred = matcher.group(3).equals("-") ? 0 : Long.parseLong(matcher.group(3));
+                assertThat(line, parsed[0], equalTo(timestamp + " " + status + " " + bytesTransferred + " " + matcher.group(4)));
+            }
+        }
+    }
+
+    @Test
+    public void blankLinesAreBlank() {
+        byte[] bytes = " \t\r".getBytes(StandardCharsets.UTF_8);
+        assertThat(LogLineParser.isBlank(ByteBuffer.wrap(bytes), 0, bytes.length), equalTo(true));
+    }
+}
@@ -32,7 +32,7 @@ import static org.junit.Assert.assertThat;
  */
 public class LogMinuteAggregatorTest {
     DateTime testTime = DateTime.parse("2015-05-26T12:00:00+0100");
-    LogMinuteAggregator aggregator = new LogMinuteAggregator(testTime);
+    LogMinuteAggregator aggregator = new LogMinuteAggregator(testTime.getMillis() / 60000);
 
     @Rule
     public ExpectedException expectedException = ExpectedException.none();
@@ -49,4 +49,23 @@ public class LogMinuteAggregatorTest {
         assertEquals("Should return the value in MB", aggregator.getMbSent(), 0.0000095367431640625, 0.00000001);
         assertThat(aggregator.getSuccessful(), equalTo(1l));
     }
+
+    @Test
+    public void mergingAddsCounts() {
+        aggregator.accept(new LineDetails(testTime.plusSeconds(5), StatusClass.SUCCESS, 10l, 200l));
+        LogMinuteAggregator other = new LogMinuteAggregator(aggregator.getMinute());
+        other.accept(new LineDetails(testTime.plusSeconds(10), StatusClass.FAILURE, 20l, 100l));
+        aggregator.merge(other);
+        assertThat(aggregator.getCount(), equalTo(2l));
+        assertThat(aggregator.getBytes(), equalTo(30l));
+        assertThat(aggregator.getMeanResponseTime(), equalTo(150l));
+        assertThat(aggregator.getSuccessful(), equalTo(1l));
+        assertThat(aggregator.getFailures(), equalTo(1l));
+    }
+
+    @Test
+    public void canNotMergeWrongMinute() {
+        expectedException.expect(IllegalArgumentException.class);
+        aggregator.merge(new LogMinuteAggregator(aggregator.getMinute() + 1));
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link MappedLogInput}, using tiny windows so that lines cross
+ * window boundaries.
+ */
+public class MappedLogInputTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void splitsLinesAcrossWindows() throws IOException {
+        assertThat(readLines("one\ntwo\r\nthree\n\nfour", 4), equalTo(newArrayList("one", "two", "three", "", "four")));
+    }
+
+    @Test
+    public void growsWindowForLongLines() throws IOException {
+        assertThat(readLines("a\nthis line is longer than the window\nb\n", 4),
+                equalTo(newArrayList("a", "this line is longer than the window", "b")));
+    }
+
+    @Test
+    public void agreesWithStreamInput() throws IOException {
+        String contents = "one\ntwo\r\n\r\nthree";
+        Path file = write(contents);
+        List<String> streamed = newArrayList();
+        try (LogInput input = new StreamLogInput(Files.newInputStream(file))) {
+            input.readLines((buffer, start, end) -> streamed.add(LogLineParser.describe(buffer, start, end)));
+        }
+        assertThat(readLines(contents, 3), equalTo(streamed));
+    }
+
+    @Test
+    public void chunksCoverEveryLineOnce() throws IOException {
+        String contents = "one\ntwo\nthree\nfour\nfive\nsix\nseven";
+        for (int chunks = 1; chunks < 10; chunks++) {
+            List<String> lines = newArrayList();
+            try (MappedLogInput input = new MappedLogInput(write(contents), 4)) {
+                for (MappedLogInput chunk : input.split(chunks, 1)) {
+                    try (LogInput in = chunk) {
+                        in.readLines((buffer, start, end) -> lines.add(LogLineParser.describe(buffer, start, end)));
+                    }
+                }
+            }
+            assertThat(lines, equalTo(newArrayList(contents.split("\n"))));
+        }
+    }
+
+    @Test
+    public void opensFileOnlyWhenRead() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("later.log");
+        List<String> lines = newArrayList();
+        try (LogInput mapped = new MappedLogInput(file); LogInput streamed = new StreamLogInput(file)) {
+            Files.write(file, "one\ntwo".getBytes(StandardCharsets.UTF_8));
+            mapped.readLines((buffer, start, end) -> lines.add(LogLineParser.describe(buffer, start, end)));
+            streamed.readLines((buffer, start, end) -> lines.add(LogLineParser.describe(buffer, start, end)));
+        }
+        assertThat(lines, equalTo(newArrayList("one", "two", "one", "two")));
+    }
+
+    @Test
+    public void closesWithoutOpening() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("never.log");
+        new MappedLogInput(file).close();
+        new StreamLogInput(file).close();
+    }
+
+    private List<String> readLines(String contents, int windowSize) throws IOException {
+        List<String> lines = newArrayList();
+        try (LogInput input = new MappedLogInput(write(contents), windowSize)) {
+            input.readLines((buffer, start, end) -> lines.add(LogLineParser.describe(buffer, start, end)));
+        }
+        return lines;
+    }
+
+    private Path write(String contents) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
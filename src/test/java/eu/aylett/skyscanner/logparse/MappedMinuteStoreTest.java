@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests that {@link MappedMinuteStore} counts the same as a
+ * {@link MinuteStore}, and keeps its minutes when reopened.
+ */
+public class MappedMinuteStoreTest {
+    // The last minute of March 2015.
+    private static final long MINUTE = 23797439;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final MinuteStore expected = new MinuteStore();
+
+    @Test
+    public void keepsMinutesWhenReopened() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("history");
+        try (MappedMinuteStore store = MappedMinuteStore.open(directory)) {
+            add(store, MINUTE + 1, 10, 1000, StatusClass.SUCCESS, 1);
+            add(store, MINUTE, 20, 2000, StatusClass.FAILURE, 2);
+            add(store, MINUTE + 1, 30, 300000, StatusClass.SUCCESS, 3);
+            add(store, MINUTE - 60 * 24 * 40, 40, 40, StatusClass.SUCCESS, 1);
+        }
+        assertThat(Files.exists(directory.resolve("2015-03.minutes")), equalTo(true));
+        assertThat(Files.exists(directory.resolve("2015-04.minutes")), equalTo(true));
+
+        try (MappedMinuteStore store = MappedMinuteStore.open(directory)) {
+            assertThat(describe(store), equalTo(describe(expected)));
+            assertThat(store.size(), equalTo(3));
+            add(store, MINUTE, 50, 5000, StatusClass.SUCCESS, 4);
+            assertThat(describe(store), equalTo(describe(expected)));
+        }
+    }
+
+    @Test
+    public void mergesLikeAMinuteStore() throws IOException {
+        MinuteStore other = new MinuteStore();
+        other.add(MINUTE, 10, 100, StatusClass.SUCCESS, hash(5));
+        other.add(MINUTE + 2, 20, 200, StatusClass.FAILURE, hash(6));
+        expected.add(MINUTE + 2, 30, 300, StatusClass.SUCCESS, hash(7));
+        try (MappedMinuteStore store = MappedMinuteStore.open(folder.getRoot().toPath())) {
+            store.add(MINUTE + 2, 30, 300, StatusClass.SUCCESS, hash(7));
+            store.merge(other);
+            expected.merge(other);
+            assertThat(describe(store), equalTo(describe(expected)));
+        }
+    }
+
+    @Test
+    public void removesLikeAMinuteStore() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (MappedMinuteStore store = MappedMinuteStore.open(directory)) {
+            add(store, MINUTE - 60 * 24 * 40, 40, 40, StatusClass.SUCCESS, 1);
+            add(store, MINUTE - 1, 10, 1000, StatusClass.SUCCESS, 1);
+            add(store, MINUTE, 20, 2000, StatusClass.FAILURE, 2);
+            add(store, MINUTE + 1, 30, 300000, StatusClass.SUCCESS, 3);
+
+            MinuteStore removed = new MinuteStore();
+            MinuteStore expectedRemoved = new MinuteStore();
+            store.removeBefore(MINUTE, removed::add);
+            expected.removeBefore(MINUTE, expectedRemoved::add);
+            assertThat(describe(removed), equalTo(describe(expectedRemoved)));
+            assertThat(describe(store), equalTo(describe(expected)));
+            assertThat(store.size(), equalTo(2));
+            assertThat(Files.exists(directory.resolve("2015-02.minutes")), equalTo(false));
+
+            store.removeBefore(MINUTE + 1, (minute, count, bytes, time, successful, failures, histogram, clients) -> { });
+            expected.removeBefore(MINUTE + 1, (minute, count, bytes, time, successful, failures, histogram, clients) -> { });
+            // Adding to a month again after it's been cleared.
+            add(store, MINUTE - 5, 50, 5000, StatusClass.SUCCESS, 4);
+        }
+        assertThat(Files.exists(directory.resolve("2015-03.minutes")), equalTo(true));
+        try (MappedMinuteStore store = MappedMinuteStore.open(directory)) {
+            assertThat(describe(store), equalTo(describe(expected)));
+            assertThat(store.size(), equalTo(2));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void canOnlyBeOpenedOnce() throws IOException {
+        try (MappedMinuteStore store = MappedMinuteStore.open(folder.getRoot().toPath())) {
+            MappedMinuteStore.open(folder.getRoot().toPath());
+        }
+    }
+
+    private void add(MinuteStore store, long minute, long bytes, long time, StatusClass status, long client) {
+        store.add(minute, bytes, time, status, hash(client));
+        expected.add(minute, bytes, time, status, hash(client));
+    }
+
+    private static long hash(long client) {
+        return client * 0x9e3779b97f4a7c15L;
+    }
+
+    private static List<String> describe(MinuteStore store) {
+        List<String> minutes = newArrayList();
+        store.forEach((minute, count, bytes, time, successful, failures, histogram, clients) ->
+                minutes.add(Arrays.asList(minute, count, bytes, time, successful, failures) + " "
+                        + Arrays.toString(histogram).hashCode() + " " + Arrays.toString(clients).hashCode()));
+        return minutes;
+    }
+}
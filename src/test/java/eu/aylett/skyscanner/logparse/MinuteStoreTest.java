@@ -0,0 +1,176 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link MinuteStore}: minutes should come out in order however they
+ * went in, dense or sparse.
+ */
+public class MinuteStoreTest {
+    private static final long MINUTE = 23835000;
+
+    MinuteStore store = new MinuteStore();
+
+    @Test
+    public void iteratesInOrder() {
+        store.add(MINUTE + 10, 1, 1, StatusClass.SUCCESS);
+        store.add(MINUTE, 1, 1, StatusClass.SUCCESS);
+        store.add(MINUTE + 500, 1, 1, StatusClass.SUCCESS);
+        store.add(MINUTE - 500, 1, 1, StatusClass.SUCCESS);
+        store.add(MINUTE, 1, 1, StatusClass.FAILURE);
+        assertThat(minutes(), equalTo(newArrayList(MINUTE - 500, MINUTE, MINUTE + 10, MINUTE + 500)));
+        assertThat(store.size(), equalTo(4));
+    }
+
+    @Test
+    public void distantMinutesAreSparse() {
+        store.add(MINUTE, 1, 1, StatusClass.SUCCESS);
+        store.add(0, 1, 1, StatusClass.SUCCESS);
+        store.add(MINUTE * 10, 1, 1, StatusClass.SUCCESS);
+        store.add(MINUTE + 1, 1, 1, StatusClass.SUCCESS);
+        assertThat(minutes(), equalTo(newArrayList(0l, MINUTE, MINUTE + 1, MINUTE * 10)));
+    }
+
+    @Test
+    public void sparseMinutesKeepCounting() {
+        long far = MINUTE + MinuteStore.MAX_DENSE_MINUTES + 10;
+        store.add(MINUTE, 1, 1, StatusClass.SUCCESS);
+        store.add(far, 1, 1, StatusClass.SUCCESS);
+        store.add(MINUTE + MinuteStore.MAX_DENSE_MINUTES / 2, 1, 1, StatusClass.SUCCESS);
+        store.add(far, 1, 1, StatusClass.FAILURE);
+        List<Long> counts = newArrayList();
+        store.forEach((minute, count, bytes, time, successful, failures, histogram, clients) -> {
+            if (minute == far) {
+                counts.add(count);
+                counts.add(successful);
+                counts.add(failures);
+            }
+        });
+        assertThat(counts, equalTo(newArrayList(2l, 1l, 1l)));
+        assertThat(store.size(), equalTo(3));
+    }
+
+    @Test
+    public void mergeAddsCounters() {
+        MinuteStore other = new MinuteStore();
+        store.add(MINUTE, 10, 100, StatusClass.SUCCESS);
+        other.add(MINUTE, 20, 200, StatusClass.FAILURE);
+        other.add(MINUTE + 1, 30, 300, StatusClass.SUCCESS);
+        store.merge(other);
+        List<String> result = newArrayList();
+        store.forEach((minute, count, bytes, time, successful, failures, histogram, clients) ->
+                result.add(minute + ":" + count + "/" + bytes + "/" + time + "/" + successful + "/" + failures));
+        assertThat(result, equalTo(newArrayList(MINUTE + ":2/30/300/1/1", (MINUTE + 1) + ":1/30/300/1/0")));
+    }
+
+    @Test
+    public void removesMinutesInOrder() {
+        store.add(MINUTE * 10, 1, 1, StatusClass.SUCCESS);
+        for (long minute = MINUTE; minute < MINUTE + 200; minute += 2) {
+            store.add(minute, 1, 1, StatusClass.SUCCESS);
+        }
+        store.add(0, 1, 1, StatusClass.SUCCESS);
+
+        List<Long> removed = newArrayList();
+        store.removeBefore(MINUTE + 150, (minute, count, bytes, time, successful, failures, histogram, clients) -> removed.add(minute));
+        assertThat(removed.size(), equalTo(76));
+        assertThat(removed.get(0), equalTo(0l));
+        assertThat(removed.get(75), equalTo(MINUTE + 148));
+        assertThat(minutes().get(0), equalTo(MINUTE + 150));
+        assertThat(store.size(), equalTo(26));
+
+        // The array has slid forward, and still grows and counts.
+        store.add(MINUTE + 150, 1, 1, StatusClass.FAILURE);
+        store.add(MINUTE + 1000, 1, 1, StatusClass.FAILURE);
+        assertThat(store.size(), equalTo(27));
+
+        removed.clear();
+        store.removeBefore(Long.MAX_VALUE, (minute, count, bytes, time, successful, failures, histogram, clients) -> removed.add(minute));
+        assertThat(removed.size(), equalTo(27));
+        assertThat(removed.get(26), equalTo(MINUTE * 10));
+        assertThat(store.isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void slidingPicksUpSparseMinutes() {
+        long far = MINUTE + MinuteStore.MAX_DENSE_MINUTES + 10;
+        store.add(MINUTE, 1, 1, StatusClass.SUCCESS);
+        store.add(MINUTE + 100, 1, 1, StatusClass.SUCCESS);
+        store.add(far, 1, 1, StatusClass.SUCCESS);
+        store.removeBefore(far - 5, (minute, count, bytes, time, successful, failures, histogram, clients) -> { });
+        store.add(far, 1, 1, StatusClass.SUCCESS);
+        store.add(far - 1, 1, 1, StatusClass.SUCCESS);
+        assertThat(minutes(), equalTo(newArrayList(far - 1, far)));
+        assertThat(store.size(), equalTo(2));
+    }
+
+    @Test
+    public void growingPicksUpSparseMinutes() {
+        long far = MINUTE + MinuteStore.MAX_DENSE_MINUTES + 100;
+        store.add(MINUTE, 1, 1, StatusClass.SUCCESS);
+        store.add(MINUTE + 10, 1, 1, StatusClass.SUCCESS);
+        store.add(far, 1, 1, StatusClass.SUCCESS);
+        store.removeBefore(MINUTE + 5, (minute, count, bytes, time, successful, failures, histogram, clients) -> { });
+        store.add(MINUTE + 200, 1, 1, StatusClass.SUCCESS);
+        // Slides the array along, but not far enough to cover the sparse
+        // minute; growing it to the next one does.
+        store.removeBefore(MINUTE + 150, (minute, count, bytes, time, successful, failures, histogram, clients) -> { });
+        store.add(far + 40, 1, 1, StatusClass.SUCCESS);
+        store.add(far, 1, 1, StatusClass.FAILURE);
+
+        List<String> result = newArrayList();
+        store.forEach((minute, count, bytes, time, successful, failures, histogram, clients) ->
+                result.add(minute + ":" + count + "/" + successful + "/" + failures));
+        assertThat(result, equalTo(newArrayList((MINUTE + 200) + ":1/1/0", far + ":2/1/1", (far + 40) + ":1/1/0")));
+        assertThat(store.size(), equalTo(3));
+    }
+
+    private List<Long> minutes() {
+        List<Long> minutes = newArrayList();
+        store.forEach((minute, count, bytes, time, successful, failures, histogram, clients) -> minutes.add(minute));
+        return minutes;
+    }
+
+    @Test
+    public void histogramsFollowTheirMinutes() {
+        long far = MINUTE + MinuteStore.MAX_DENSE_MINUTES + 10;
+        MinuteStore other = new MinuteStore();
+        store.add(MINUTE, 1, 100, StatusClass.SUCCESS);
+        store.add(far, 1, 5000, StatusClass.SUCCESS);
+        other.add(far, 1, 7000, StatusClass.SUCCESS);
+        store.merge(other);
+        // Slides the array along so that it covers the sparse minute.
+        store.removeBefore(far - 5, (minute, count, bytes, time, successful, failures, histogram, clients) -> { });
+
+        List<Long> medians = newArrayList();
+        store.forEach((minute, count, bytes, time, successful, failures, histogram, clients) -> {
+            LatencyHistogram latencies = new LatencyHistogram();
+            latencies.add(histogram);
+            medians.add(latencies.getTotal());
+            medians.add(latencies.percentile(100));
+        });
+        assertThat(medians, equalTo(newArrayList(2l, LatencyHistogram.representativeValue(LatencyHistogram.bucket(7000)))));
+    }
+}
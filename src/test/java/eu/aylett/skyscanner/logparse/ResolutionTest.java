@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.junit.Test;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link Resolution}.
+ */
+public class ResolutionTest {
+    @Test
+    public void parsesAndNamesUnits() {
+        assertThat(Resolution.parse("1s").getSeconds(), equalTo(1l));
+        assertThat(Resolution.parse("15m").getSeconds(), equalTo(900l));
+        assertThat(Resolution.parse("1d").getSeconds(), equalTo(86400l));
+        assertThat(Resolution.parse("120s").toString(), equalTo("2m"));
+        assertThat(Resolution.parse("90s").toString(), equalTo("90s"));
+        assertThat(Resolution.parse("24h"), equalTo(Resolution.parse("1d")));
+    }
+
+    @Test
+    public void listsAreSortedWithoutRepeats() {
+        assertThat(Resolution.parseList("1h, 1s,60m,1m"), equalTo(newArrayList(
+                Resolution.parse("1s"), Resolution.MINUTE, Resolution.parse("1h"))));
+    }
+
+    @Test
+    public void bucketsRoundDown() {
+        assertThat(Resolution.parse("10s").bucket(25), equalTo(2l));
+        assertThat(Resolution.parse("10s").bucket(-1), equalTo(-1l));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsAUnit() {
+        Resolution.parse("10");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsMoreThanZero() {
+        Resolution.parse("0m");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void eachMustFitTheNext() {
+        Resolution.parseList("1h,90m");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void minutesMustFit() {
+        Resolution.parseList("7s");
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests that each {@link OutputFormat} writes the same results as Jackson
+ * would from the whole tree.
+ */
+public class ResultWriterTest {
+    private static final long MINUTE = 23835000;
+
+    LogParseOptions options = new LogParseOptions();
+    LineDetailsAggregator aggregator = new LineDetailsAggregator();
+
+    public ResultWriterTest() {
+        aggregator.accept(MINUTE * 60, StatusClass.SUCCESS, 100, 2000);
+        aggregator.accept(MINUTE * 60 + 5, StatusClass.FAILURE, 0, 70000);
+        aggregator.accept((MINUTE + 3) * 60, StatusClass.SUCCESS, 5000, 1000);
+    }
+
+    @Test
+    public void yamlMatchesTree() throws IOException {
+        ObjectMapper mapper = OutputFormat.YAML.mapper();
+        JsonNode written = mapper.readTree(write(OutputFormat.YAML));
+        assertThat(written, equalTo(mapper.valueToTree(aggregator)));
+    }
+
+    @Test
+    public void jsonLinesHaveOneLinePerMinuteThenAggregate() throws IOException {
+        ObjectMapper mapper = OutputFormat.JSONL.mapper();
+        String[] lines = write(OutputFormat.JSONL).split("\n");
+        assertThat(lines.length, equalTo(3));
+        JsonNode first = mapper.readTree(lines[0]);
+        assertThat(first.get("minute").asText(), equalTo(new DateTime(MINUTE * 60000).toString()));
+        assertThat(first.get("failures").asLong(), equalTo(1l));
+        assertThat(mapper.readTree(lines[2]).get("aggregate"), equalTo(mapper.valueToTree(aggregator.aggregate())));
+    }
+
+    @Test
+    public void breakdownsAndIntervalsMatchTree() throws IOException {
+        aggregator = new LineDetailsAggregator(Percentiles.DEFAULT, 2);
+        aggregator.setSample(Sample.ofRate(0.5));
+        request(MINUTE * 60, 200, "GET /a HTTP/1.1", 100, 2000);
+        request(MINUTE * 60 + 5, 503, "GET /b HTTP/1.1", 0, 70000);
+        request(MINUTE * 60 + 10, 200, "GET /a HTTP/1.1", 300, 1000);
+        request((MINUTE + 1) * 60, 404, "GET /c HTTP/1.1", 50, 500);
+
+        ObjectMapper mapper = OutputFormat.YAML.mapper();
+        JsonNode expected = mapper.valueToTree(aggregator);
+        assertThat(mapper.readTree(write(OutputFormat.YAML)), equalTo(expected));
+
+        String[] lines = write(OutputFormat.JSONL).split("\n");
+        JsonNode first = mapper.readTree(lines[0]);
+        assertThat(first.get("breakdown"), equalTo(expected.get("detail").elements().next().get("breakdown")));
+        assertThat(first.get("confidenceIntervals"),
+                equalTo(expected.get("detail").elements().next().get("confidenceIntervals")));
+        assertThat(mapper.readTree(lines[2]).get("aggregate"), equalTo(expected.get("aggregate")));
+    }
+
+    @Test
+    public void csvHasHeaderAndRowPerMinute() throws IOException {
+        String[] lines = write(OutputFormat.CSV).split("\n");
+        assertThat(lines[0], equalTo("minute,successful,failures,distinctClients,meanResponseTime,p50,p90,p99,p99.9,mbSent"));
+        assertThat(lines.length, equalTo(3));
+        assertThat(lines[2].split(",")[4], equalTo("1000"));
+    }
+
+    @Test
+    public void csvWithoutDetailHasAggregate() throws IOException {
+        options.detail = false;
+        String[] lines = write(OutputFormat.CSV).split("\n");
+        assertThat(lines.length, equalTo(2));
+        assertThat(lines[1].split(",")[5], equalTo("4"));
+    }
+
+    @Test
+    public void csvShowsIntervalsWhenSampled() throws IOException {
+        aggregator.setSample(Sample.ofRate(0.25));
+        options.sample = Sample.ofRate(0.25);
+        String[] lines = write(OutputFormat.CSV).split("\n");
+        assertThat(lines[0], equalTo("minute,successful,successfulLow,successfulHigh,failures,failuresLow,"
+                + "failuresHigh,distinctClients,meanResponseTime,meanResponseTimeLow,meanResponseTimeHigh,"
+                + "p50,p90,p99,p99.9,mbSent"));
+        LogMinuteAggregator first = aggregator.detail().values().iterator().next();
+        String[] row = lines[1].split(",");
+        assertThat(row[1], equalTo("4"));
+        assertThat(row[2] + "," + row[3], equalTo(first.getConfidenceIntervals().get("successful").get(0) + ","
+                + first.getConfidenceIntervals().get("successful").get(1)));
+
+        options.detail = false;
+        lines = write(OutputFormat.CSV).split("\n");
+        assertThat(lines[0], equalTo("meanResponseTime,meanResponseTimeLow,meanResponseTimeHigh,p50,p90,p99,p99.9,"
+                + "durationInMinutes,distinctClients,successfulPerMinute,successfulPerMinuteLow,"
+                + "successfulPerMinuteHigh,failuresPerMinute,failuresPerMinuteLow,failuresPerMinuteHigh,"
+                + "timeSpentRespondingPerMinute,timeSpentRespondingPerMinuteLow,timeSpentRespondingPerMinuteHigh,"
+                + "mbSentPerMinute"));
+        assertThat(lines[1].split(",").length, equalTo(19));
+    }
+
+    @Test
+    public void csvWithNeitherWritesNothing() throws IOException {
+        options.detail = false;
+        options.aggregate = false;
+        assertThat(write(OutputFormat.CSV), equalTo(""));
+    }
+
+    @Test
+    public void yamlNestsResolutions() throws IOException {
+        options.resolutions = Resolution.parseList("1m,1h");
+        ObjectMapper mapper = OutputFormat.YAML.mapper();
+        JsonNode detail = mapper.readTree(write(OutputFormat.YAML)).get("detail");
+        assertThat(detail.get("1m"), equalTo(mapper.valueToTree(aggregator).get("detail")));
+        assertThat(detail.get("1h").size(), equalTo(1));
+        assertThat(detail.get("1h").get(new DateTime(MINUTE / 60 * 3600000).toString()).get("successful").asLong(),
+                equalTo(2l));
+    }
+
+    @Test
+    public void csvNamesResolutions() throws IOException {
+        options.resolutions = Resolution.parseList("1h");
+        String[] lines = write(OutputFormat.CSV).split("\n");
+        assertThat(lines[0], equalTo("resolution,start,successful,failures,distinctClients,meanResponseTime,p50,p90,p99,p99.9,mbSent"));
+        assertThat(lines.length, equalTo(2));
+        assertThat(lines[1].split(",")[0], equalTo("1h"));
+    }
+
+    private void request(long timestamp, int status, String request, long bytes, long time) {
+        ByteBuffer buffer = ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+        aggregator.acceptRequest(timestamp, status, bytes, time, timestamp, buffer, 0, buffer.limit());
+    }
+
+    private String write(OutputFormat format) throws IOException {
+        StringWriter out = new StringWriter();
+        try (ResultWriter writer = format.writer(out, format.factory(), options)) {
+            aggregator.forEachBucket(options.resolutions, minute -> {
+                try {
+                    writer.minute(minute);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            writer.aggregate(aggregator.aggregate());
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that minutes survive a trip through a {@link RollupFile}.
+ */
+public class RollupFileTest {
+    private static final long MINUTE = 23835000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("rollup");
+        LineDetailsAggregator written = aggregator();
+        RollupFile.append(path, written.minutes);
+
+        LineDetailsAggregator read = new LineDetailsAggregator();
+        RollupFile.read(path, read.minutes::add);
+        assertThat(mapper.writeValueAsString(read), equalTo(mapper.writeValueAsString(written)));
+    }
+
+    @Test
+    public void appendingAddsToWhatsThere() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("rollup");
+        RollupFile.append(path, aggregator().minutes);
+        RollupFile.append(path, aggregator().minutes);
+
+        LineDetailsAggregator expected = aggregator();
+        expected.merge(aggregator());
+        LineDetailsAggregator read = new LineDetailsAggregator();
+        RollupFile.read(path, read.minutes::add);
+        assertThat(mapper.writeValueAsString(read), equalTo(mapper.writeValueAsString(expected)));
+    }
+
+    @Test
+    public void incompleteRecordIsDroppedBeforeAppending() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("rollup");
+        RollupFile.append(path, aggregator().minutes);
+        long complete = Files.size(path);
+        RollupFile.append(path, aggregator().minutes);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(complete + 10);
+        }
+
+        LineDetailsAggregator read = new LineDetailsAggregator();
+        assertThat(RollupFile.read(path, read.minutes::add), equalTo(complete));
+        assertThat(mapper.writeValueAsString(read), equalTo(mapper.writeValueAsString(aggregator())));
+
+        RollupFile.append(path, aggregator().minutes);
+        LineDetailsAggregator expected = aggregator();
+        expected.merge(aggregator());
+        read = new LineDetailsAggregator();
+        RollupFile.read(path, read.minutes::add);
+        assertThat(mapper.writeValueAsString(read), equalTo(mapper.writeValueAsString(expected)));
+    }
+
+    @Test
+    public void keepsClients() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("rollup");
+        LineDetailsAggregator written = new LineDetailsAggregator();
+        // A few clients in one minute, and enough to fill most registers in
+        // the next, to cover both ways of writing them.
+        for (int i = 0; i < 10; i++) {
+            written.minutes.add(MINUTE, 1, 1, StatusClass.SUCCESS, i * 0x9e3779b97f4a7c15L);
+        }
+        for (int i = 0; i < 10000; i++) {
+            written.minutes.add(MINUTE + 1, 1, 1, StatusClass.SUCCESS, i * 0x9e3779b97f4a7c15L);
+        }
+        RollupFile.append(path, written.minutes);
+
+        LineDetailsAggregator read = new LineDetailsAggregator();
+        RollupFile.read(path, read.minutes::add);
+        assertThat(mapper.writeValueAsString(read), equalTo(mapper.writeValueAsString(written)));
+        assertThat(read.detail().values().iterator().next().getDistinctClients(), equalTo(10L));
+    }
+
+    @Test
+    public void readsVersionOneButDoesNotAppend() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("rollup");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(path))) {
+            out.writeInt(RollupFile.MAGIC);
+            out.writeInt(1);
+            out.writeLong(MINUTE);
+            for (long counter : new long[]{1, 100, 2000, 1, 0}) {
+                out.writeLong(counter);
+            }
+            out.writeShort(1);
+            out.writeShort(LatencyHistogram.bucket(2000));
+            out.writeInt(1);
+        }
+
+        LineDetailsAggregator expected = new LineDetailsAggregator();
+        expected.accept(MINUTE * 60, StatusClass.SUCCESS, 100, 2000);
+        LineDetailsAggregator read = new LineDetailsAggregator();
+        RollupFile.read(path, read.minutes::add);
+        assertThat(mapper.writeValueAsString(read), equalTo(mapper.writeValueAsString(expected)));
+
+        try {
+            RollupFile.append(path, expected.minutes);
+            fail("Appended to a version 1 file");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesOtherFiles() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("access.log");
+        Files.write(path, "127.0.0.1 - - [30/Mar/2015:05:04:20 +0100] \"GET / HTTP/1.1\" 200 157 1\n".getBytes());
+        RollupFile.read(path, (minute, count, bytes, time, successful, failures, histogram, clients) -> { });
+    }
+
+    private static LineDetailsAggregator aggregator() {
+        LineDetailsAggregator aggregator = new LineDetailsAggregator();
+        aggregator.accept(MINUTE * 60, StatusClass.SUCCESS, 100, 2000);
+        aggregator.accept(MINUTE * 60 + 5, StatusClass.FAILURE, 0, 70000);
+        aggregator.accept((MINUTE + 3) * 60, StatusClass.SUCCESS, 5000, 123456789);
+        aggregator.accept(0, StatusClass.SUCCESS, 1, 1);
+        return aggregator;
+    }
+}
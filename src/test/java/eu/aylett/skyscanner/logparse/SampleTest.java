@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests that a {@link Sample} picks about the right share of lines, and
+ * always the same ones.
+ */
+public class SampleTest {
+    @Test
+    public void picksAboutOneLineInN() {
+        Sample sample = Sample.ofRate(0.01);
+        assertThat(sample.getOneIn(), equalTo(100l));
+        int picked = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (picks(sample, "10.0.0." + (i % 256) + " - - [30/Mar/2015:05:04:20 +0100] \"GET /" + i + "\" 200 1 2")) {
+                picked++;
+            }
+        }
+        assertThat(picked > 900 && picked < 1100, equalTo(true));
+    }
+
+    @Test
+    public void alwaysPicksTheSameLines() {
+        Sample sample = Sample.ofRate(0.5);
+        for (int i = 0; i < 100; i++) {
+            String line = "line " + i;
+            assertThat(picks(sample, line), equalTo(picks(Sample.ofRate(0.5), line)));
+        }
+    }
+
+    @Test
+    public void allPicksEverything() {
+        assertThat(Sample.ofRate(1), equalTo(Sample.ALL));
+        assertThat(picks(Sample.ALL, ""), equalTo(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRatesAboveOne() {
+        Sample.ofRate(1.5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZero() {
+        Sample.ofRate(0);
+    }
+
+    private static boolean picks(Sample sample, String line) {
+        byte[] bytes = ("x" + line).getBytes(StandardCharsets.UTF_8);
+        return sample.picks(ByteBuffer.wrap(bytes), 1, bytes.length);
+    }
+}
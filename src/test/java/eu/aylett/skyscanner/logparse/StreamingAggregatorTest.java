@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link StreamingAggregator}'s closing of minutes.
+ */
+public class StreamingAggregatorTest {
+    long testTime = DateTime.parse("2015-05-26T12:00:00+0100").getMillis() / 1000;
+    long testMinute = testTime / 60;
+    List<LogMinuteAggregator> closed = newArrayList();
+    StreamingAggregator aggregator = new StreamingAggregator(30, Percentiles.DEFAULT, closed::add);
+
+    @Test
+    public void closesMinuteOnceLatenessHasPassed() {
+        aggregator.accept(testTime, StatusClass.SUCCESS, 10, 200);
+        aggregator.accept(testTime + 89, StatusClass.SUCCESS, 10, 200);
+        assertThat(closed.size(), equalTo(0));
+        aggregator.accept(testTime + 90, StatusClass.SUCCESS, 10, 200);
+        assertThat(closed.size(), equalTo(1));
+        assertThat(closed.get(0).getMinute(), equalTo(testMinute));
+        assertThat(closed.get(0).getCount(), equalTo(1l));
+    }
+
+    @Test
+    public void acceptsLinesWithinLateness() {
+        aggregator.accept(testTime + 80, StatusClass.SUCCESS, 10, 200);
+        aggregator.accept(testTime + 10, StatusClass.FAILURE, 10, 200);
+        aggregator.closeAll();
+        assertThat(closed.size(), equalTo(2));
+        assertThat(closed.get(0).getFailures(), equalTo(1l));
+        assertThat(aggregator.getLateLines(), equalTo(0l));
+    }
+
+    @Test
+    public void dropsLateLines() {
+        aggregator.accept(testTime, StatusClass.SUCCESS, 10, 200);
+        aggregator.accept(testTime + 200, StatusClass.SUCCESS, 10, 200);
+        aggregator.accept(testTime + 5, StatusClass.SUCCESS, 10, 200);
+        assertThat(aggregator.getLateLines(), equalTo(1l));
+        aggregator.closeAll();
+        assertThat(aggregator.aggregate().getSuccessfulPerMinute(), equalTo(2.0 / 4));
+    }
+
+    @Test
+    public void idleTimeClosesMinutes() {
+        aggregator.accept(testTime, StatusClass.SUCCESS, 10, 200);
+        aggregator.advanceTo(testTime + 60);
+        assertThat(closed.size(), equalTo(1));
+    }
+
+    @Test
+    public void linesFromTheFutureDontCloseMinutes() {
+        aggregator = new StreamingAggregator(30, Percentiles.DEFAULT, 0, Sample.ALL, closed::add, () -> testTime + 120);
+        aggregator.accept(testTime, StatusClass.SUCCESS, 10, 200);
+        aggregator.accept(testTime + 365 * 24 * 60 * 60, StatusClass.SUCCESS, 10, 200);
+        aggregator.accept(testTime + 10, StatusClass.SUCCESS, 10, 200);
+        assertThat(closed.size(), equalTo(0));
+        assertThat(aggregator.getLateLines(), equalTo(0l));
+        assertThat(aggregator.getAheadLines(), equalTo(1l));
+
+        aggregator.accept(testTime + 90, StatusClass.SUCCESS, 10, 200);
+        assertThat(closed.size(), equalTo(1));
+        assertThat(closed.get(0).getCount(), equalTo(2l));
+        aggregator.closeAll();
+        assertThat(closed.size(), equalTo(3));
+        assertThat(closed.get(2).getMinute(), equalTo(testMinute + 365 * 24 * 60));
+    }
+
+    @Test
+    public void noAggregateWithoutLines() {
+        aggregator.closeAll();
+        assertThat(aggregator.aggregate(), nullValue());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests that {@link TimeOrderedMerge} puts lines from several inputs in
+ * order, and drops only those that are too late.
+ */
+public class TimeOrderedMergeTest {
+    private final List<Long> timestamps = newArrayList();
+    private final List<String> requests = newArrayList();
+
+    private final LineDetailsConsumer collector = new LineDetailsConsumer() {
+        @Override
+        public void accept(long timestamp, StatusClass status, long bytesTransferred, long timeTaken) {
+            timestamps.add(timestamp);
+            requests.add(status.name());
+        }
+
+        @Override
+        public void acceptRequest(long timestamp, int statusCode, long bytesTransferred, long timeTaken,
+                                  long clientHash, ByteBuffer buffer, int requestStart, int requestEnd) {
+            timestamps.add(timestamp);
+            requests.add(buffer == null ? null : LogLineParser.describe(buffer, requestStart, requestEnd));
+        }
+    };
+
+    @Test(timeout = 10000)
+    public void mergesShuffledInputsInOrder() throws Exception {
+        int inputs = 5;
+        int lines = 5000;
+        TimeOrderedMerge merge = new TimeOrderedMerge(inputs, 10, false, collector);
+        List<Thread> threads = newArrayList();
+        for (int input = 0; input < inputs; input++) {
+            TimeOrderedMerge.Source source = merge.source(input);
+            Random random = new Random(input);
+            threads.add(new Thread(() -> {
+                // Each line is at most ten seconds before the latest so far.
+                long latest = 1000;
+                for (int i = 0; i < lines; i++) {
+                    latest += random.nextInt(3);
+                    source.acceptRequest(latest - random.nextInt(11), 200, 1, 1, 0, null, 0, 0);
+                }
+                source.finish();
+            }));
+        }
+        threads.forEach(Thread::start);
+        merge.run();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(merge.getLateLines(), equalTo(0L));
+        assertThat(timestamps.size(), equalTo(inputs * lines));
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertThat(timestamps.get(i) >= timestamps.get(i - 1), equalTo(true));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void dropsLinesBeyondTheWindow() throws Exception {
+        TimeOrderedMerge merge = new TimeOrderedMerge(2, 5, true, collector);
+        Thread first = new Thread(() -> {
+            TimeOrderedMerge.Source source = merge.source(0);
+            request(source, 100, "a");
+            request(source, 110, "b");
+            request(source, 104, "late");
+            request(source, 105, "c");
+            source.accept(120, StatusClass.FAILURE, 1, 1);
+            source.finish();
+        });
+        Thread second = new Thread(() -> {
+            TimeOrderedMerge.Source source = merge.source(1);
+            request(source, 90, "d");
+            request(source, 115, "e");
+            source.finish();
+        });
+        first.start();
+        second.start();
+        merge.run();
+        first.join();
+        second.join();
+
+        assertThat(merge.getLateLines(), equalTo(1L));
+        assertThat(timestamps, equalTo(newArrayList(90L, 100L, 105L, 110L, 115L, 120L)));
+        assertThat(requests, equalTo(newArrayList("d", "a", "c", "b", "e", "FAILURE")));
+    }
+
+    private static void request(LineDetailsConsumer consumer, long timestamp, String request) {
+        ByteBuffer buffer = ByteBuffer.wrap(("  " + request).getBytes(StandardCharsets.UTF_8));
+        consumer.acceptRequest(timestamp, 200, 1, 1, 0, buffer, 2, buffer.limit());
+    }
+}
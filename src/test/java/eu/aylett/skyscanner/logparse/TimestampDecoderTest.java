@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link TimestampDecoder}, in particular that its cache doesn't get
+ * in the way.
+ */
+public class TimestampDecoderTest {
+    TimestampDecoder decoder = new TimestampDecoder();
+
+    @Test
+    public void decodesSecondsWithinCachedMinute() {
+        assertThat(decode("30/Mar/2015:05:04:20 +0100"), equalTo(seconds("2015-03-30T05:04:20+0100")));
+        assertThat(decode("30/Mar/2015:05:04:59 +0100"), equalTo(seconds("2015-03-30T05:04:59+0100")));
+        assertThat(decode("30/Mar/2015:05:05:00 +0100"), equalTo(seconds("2015-03-30T05:05:00+0100")));
+    }
+
+    @Test
+    public void notFooledByZoneChange() {
+        assertThat(decode("30/Mar/2015:05:04:20 +0100"), equalTo(seconds("2015-03-30T05:04:20+0100")));
+        assertThat(decode("30/Mar/2015:05:04:20 -0130"), equalTo(seconds("2015-03-30T05:04:20-0130")));
+    }
+
+    @Test
+    public void decodesLeapDays() {
+        assertThat(decode("29/Feb/2000:00:00:00 +0000"), equalTo(seconds("2000-02-29T00:00:00+0000")));
+        assertThat(decode("29/Feb/2100:00:00:00 +0000"), equalTo(TimestampDecoder.INVALID));
+    }
+
+    @Test
+    public void rejectsInvalidDates() {
+        assertThat(decode("30/Feb/2015:05:04:20 +0100"), equalTo(TimestampDecoder.INVALID));
+        assertThat(decode("30/Foo/2015:05:04:20 +0100"), equalTo(TimestampDecoder.INVALID));
+        assertThat(decode("30/Mar/2015:24:04:20 +0100"), equalTo(TimestampDecoder.INVALID));
+        assertThat(decode("30/Mar/2015:05:04:60 +0100"), equalTo(TimestampDecoder.INVALID));
+        assertThat(decode("30/Mar/2015:05:04:20 0100"), equalTo(TimestampDecoder.INVALID));
+    }
+
+    @Test
+    public void rejectsInvalidSecondsInCachedMinute() {
+        decode("30/Mar/2015:05:04:20 +0100");
+        assertThat(decode("30/Mar/2015:05:04:2x +0100"), equalTo(TimestampDecoder.INVALID));
+    }
+
+    @Test
+    public void ignoresCaseOfMonth() {
+        assertThat(decode("30/MAR/2015:05:04:20 +0100"), equalTo(decode("30/mar/2015:05:04:20 +0100")));
+    }
+
+    private long decode(String timestamp) {
+        byte[] bytes = timestamp.getBytes(StandardCharsets.UTF_8);
+        return decoder.decode(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    private static long seconds(String isoTimestamp) {
+        return DateTime.parse(isoTimestamp).getMillis() / 1000;
+    }
+}
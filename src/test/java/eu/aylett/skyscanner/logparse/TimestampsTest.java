@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package eu.aylett.skyscanner.logparse;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.time.ZoneId;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class TimestampsTest {
+    // Winter and summer in London, either side of the clocks going forward,
+    // and a time with milliseconds.
+    private static final long[] TIMES = {
+            1427684640000L, 1430100000000L, 1427590740000L, 1427590800000L, 1432641600123L, 0L
+    };
+
+    @Test
+    public void matchesJodaInZonesWithSummerTime() {
+        for (long millis : TIMES) {
+            assertThat(Timestamps.format(millis, ZoneId.of("Europe/London")),
+                    equalTo(new DateTime(millis, DateTimeZone.forID("Europe/London")).toString()));
+        }
+    }
+
+    @Test
+    public void matchesJodaWithPartHourOffsets() {
+        for (long millis : TIMES) {
+            assertThat(Timestamps.format(millis, ZoneId.of("Asia/Kolkata")),
+                    equalTo(new DateTime(millis, DateTimeZone.forID("Asia/Kolkata")).toString()));
+        }
+    }
+
+    @Test
+    public void writesUtcAsZ() {
+        assertThat(Timestamps.format(1430100000000L, ZoneId.of("UTC")), equalTo("2015-04-27T02:00:00.000Z"));
+    }
+
+    @Test
+    public void usesTheDefaultZone() {
+        assertThat(Timestamps.format(1430100000000L), equalTo(new DateTime(1430100000000L).toString()));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Andrew Aylett
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package eu.aylett.skyscanner.logparse;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link TopPaths} counts exactly while it has room, and keeps the
+ * heavy hitters once it doesn't.
+ */
+public class TopPathsTest {
+    @Test
+    public void exactWhileThereIsRoom() {
+        TopPaths paths = new TopPaths(4);
+        add(paths, "/a", 10, 100);
+        add(paths, "/b", 20, 300);
+        add(paths, "/a", 30, 200);
+
+        List<TopPaths.PathCount> counts = paths.getPaths();
+        assertThat(counts.size(), equalTo(2));
+        assertThat(counts.get(0).getPath(), equalTo("/a"));
+        assertThat(counts.get(0).getRequests(), equalTo(2L));
+        assertThat(counts.get(0).getRequestsOverestimate(), equalTo(0L));
+        assertThat(counts.get(0).getMeanResponseTime(), equalTo(150L));
+        assertThat(counts.get(1).getPath(), equalTo("/b"));
+        assertThat(counts.get(1).getRequests(), equalTo(1L));
+    }
+
+    @Test
+    public void keepsHeavyHitters() {
+        TopPaths paths = new TopPaths(10);
+        Random random = new Random(42);
+        long hot = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (random.nextInt(4) == 0) {
+                add(paths, "/hot", 1, 7);
+                hot++;
+            } else {
+                add(paths, "/cold/" + random.nextInt(100000), 1, 1);
+            }
+        }
+
+        TopPaths.PathCount top = paths.getPaths().get(0);
+        assertThat(top.getPath(), equalTo("/hot"));
+        assertTrue(top.getRequests() >= hot);
+        assertTrue(top.getRequests() - top.getRequestsOverestimate() <= hot);
+        assertThat(top.getMeanResponseTime(), equalTo(7L));
+        assertThat(paths.getPaths().size(), equalTo(10));
+    }
+
+    @Test
+    public void mergeKeepsCountsAsOverestimates() {
+        TopPaths first = new TopPaths(2);
+        add(first, "/a", 0, 1);
+        add(first, "/a", 0, 1);
+        add(first, "/b", 0, 1);
+        TopPaths second = new TopPaths(2);
+        add(second, "/a", 0, 1);
+        add(second, "/c", 0, 1);
+        add(second, "/c", 0, 1);
+        add(second, "/b", 0, 1);
+
+        first.merge(second);
+
+        Map<String, Long> seen = ImmutableMap.of("/a", 3L, "/b", 2L, "/c", 2L);
+        List<TopPaths.PathCount> counts = first.getPaths();
+        assertThat(counts.size(), equalTo(2));
+        for (TopPaths.PathCount count : counts) {
+            long actual = seen.get(count.getPath());
+            assertTrue(count.getRequests() >= actual);
+            assertTrue(count.getRequests() - count.getRequestsOverestimate() <= actual);
+        }
+    }
+
+    @Test
+    public void manyEvictionsKeepLookupsWorking() {
+        TopPaths paths = new TopPaths(3);
+        for (int i = 0; i < 10000; i++) {
+            add(paths, "/" + (i % 7), 1, 1);
+        }
+        long total = 0;
+        for (TopPaths.PathCount count : paths.getPaths()) {
+            total += count.getRequests() - count.getRequestsOverestimate();
+        }
+        assertTrue(total > 0);
+        assertThat(paths.getPaths().size(), equalTo(3));
+    }
+
+    private static void add(TopPaths paths, String path, long bytes, long time) {
+        byte[] pathBytes = ("xx" + path).getBytes(StandardCharsets.UTF_8);
+        paths.add(ByteBuffer.wrap(pathBytes), 2, pathBytes.length, bytes, time);
+    }
+}